@@ -0,0 +1,96 @@
+package org.danf.lemon.benchmark;
+
+import org.danf.lemon.config.TokenizerProperties;
+import org.danf.lemon.service.StripedCountStore;
+import org.danf.lemon.service.tokenizer.Utf8WhitespaceTokenizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory aggregation alone: folding an already tokenized corpus into per-word counts.
+ * Words are produced by the byte tokenizer up front so they're interned the same way they are when counting.
+ *
+ * @author Dan Feldman
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(jvmArgsAppend = "-Xmx2g")
+public class AggregationBenchmark {
+
+    static final int STRIPES = 4 * Runtime.getRuntime().availableProcessors();
+
+    @Param({"4194304"})
+    private int corpusBytes;
+
+    @Param({"10000", "500000"})
+    private int vocabularySize;
+
+    private String[] words;
+
+    @Setup
+    public void setup() {
+        TokenizerProperties properties = new TokenizerProperties();
+        List<String> tokens = new ArrayList<>();
+        new Utf8WhitespaceTokenizer(properties.getBufferSize(), properties.getMaxInternedWords())
+                .tokenize(ByteBuffer.wrap(ZipfCorpus.generate(corpusBytes, vocabularySize, 42)), tokens::add);
+        words = tokens.toArray(new String[0]);
+    }
+
+    @Benchmark
+    public Map<String, Long> concurrentHashMapMerge() {
+        Map<String, Long> counts = new ConcurrentHashMap<>();
+        for (String word : words) {
+            counts.merge(word, 1L, Long::sum);
+        }
+        return counts;
+    }
+
+    /**
+     * What the write-behind counter does.
+     */
+    @Benchmark
+    public StripedCountStore stripedCountStore() {
+        StripedCountStore counts = new StripedCountStore(STRIPES);
+        for (String word : words) {
+            counts.add(word, 1L);
+        }
+        return counts;
+    }
+
+    @Benchmark
+    public Map<String, Long> hashMapMerge() {
+        Map<String, Long> counts = new HashMap<>();
+        for (String word : words) {
+            counts.merge(word, 1L, Long::sum);
+        }
+        return counts;
+    }
+
+    /**
+     * What the parallel file counter does per chunk, mutable counters avoid boxing a new {@link Long} per word.
+     */
+    @Benchmark
+    public Map<String, long[]> hashMapMutableCounter() {
+        Map<String, long[]> counts = new HashMap<>();
+        for (String word : words) {
+            counts.computeIfAbsent(word, w -> new long[1])[0]++;
+        }
+        return counts;
+    }
+}
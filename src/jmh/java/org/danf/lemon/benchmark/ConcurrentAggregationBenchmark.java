@@ -0,0 +1,77 @@
+package org.danf.lemon.benchmark;
+
+import org.danf.lemon.config.TokenizerProperties;
+import org.danf.lemon.service.StripedCountStore;
+import org.danf.lemon.service.tokenizer.Utf8WhitespaceTokenizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrent ingests sharing a single pending counts store, the way requests share the write-behind counter.
+ * Each thread folds the whole corpus into the shared store, the store is emptied before every iteration.
+ *
+ * @author Dan Feldman
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(Threads.MAX)
+@Fork(jvmArgsAppend = "-Xmx2g")
+public class ConcurrentAggregationBenchmark {
+
+    @Param({"1048576"})
+    private int corpusBytes;
+
+    @Param({"10000", "500000"})
+    private int vocabularySize;
+
+    private String[] words;
+    private ConcurrentHashMap<String, Long> concurrentHashMap;
+    private StripedCountStore stripedCountStore;
+
+    @Setup
+    public void setup() {
+        TokenizerProperties properties = new TokenizerProperties();
+        List<String> tokens = new ArrayList<>();
+        new Utf8WhitespaceTokenizer(properties.getBufferSize(), properties.getMaxInternedWords())
+                .tokenize(ByteBuffer.wrap(ZipfCorpus.generate(corpusBytes, vocabularySize, 42)), tokens::add);
+        words = tokens.toArray(new String[0]);
+    }
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        concurrentHashMap = new ConcurrentHashMap<>();
+        stripedCountStore = new StripedCountStore(AggregationBenchmark.STRIPES);
+    }
+
+    @Benchmark
+    public int concurrentHashMapMerge() {
+        for (String word : words) {
+            concurrentHashMap.merge(word, 1L, Long::sum);
+        }
+        return concurrentHashMap.size();
+    }
+
+    @Benchmark
+    public int stripedCountStore() {
+        for (String word : words) {
+            stripedCountStore.add(word, 1L);
+        }
+        return stripedCountStore.size();
+    }
+}
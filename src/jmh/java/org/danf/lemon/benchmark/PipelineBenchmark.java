@@ -0,0 +1,101 @@
+package org.danf.lemon.benchmark;
+
+import org.danf.lemon.LemonApplication;
+import org.danf.lemon.db.entity.WordEntity;
+import org.danf.lemon.db.repo.WordsRepo;
+import org.danf.lemon.db.storage.WordKeys;
+import org.danf.lemon.service.WordOperationsService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end counting of a corpus into the embedded Derby database, running inside the full application context.
+ *
+ * {@link #perWord} replays the original ingest path (a Scanner feeding an exists / update / insert round trip per
+ * word) as a baseline, {@link #batched} goes through {@link WordOperationsService#countFromStream} with counts flushed
+ * at the end of the request.
+ * The table is emptied before every iteration so that each one starts with the same mix of inserts and updates.
+ *
+ * @author Dan Feldman
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class PipelineBenchmark {
+
+    @Param({"65536", "262144"})
+    private int corpusBytes;
+
+    @Param({"10000"})
+    private int vocabularySize;
+
+    private byte[] corpus;
+    private ConfigurableApplicationContext context;
+    private WordsRepo wordsRepo;
+    private WordOperationsService wordOperationsService;
+    private JdbcTemplate jdbcTemplate;
+
+    @Setup
+    public void setup() {
+        corpus = ZipfCorpus.generate(corpusBytes, vocabularySize, 42);
+        context = new SpringApplicationBuilder(LemonApplication.class).run(
+                "--server.port=0",
+                "--spring.main.banner-mode=off",
+                "--logging.level.root=warn",
+                "--lemon.counter.durability=request");
+        wordsRepo = context.getBean(WordsRepo.class);
+        wordOperationsService = context.getBean(WordOperationsService.class);
+        jdbcTemplate = context.getBean(JdbcTemplate.class);
+    }
+
+    @Setup(Level.Iteration)
+    public void clearWords() {
+        jdbcTemplate.update("DELETE FROM words");
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void perWord() {
+        Scanner scanner = new Scanner(new ByteArrayInputStream(corpus), "UTF-8");
+        scanner.useDelimiter("\\s+");
+        while (scanner.hasNext()) {
+            String word = scanner.next();
+            if (wordsRepo.existsById(WordEntity.Key.of(word))) {
+                wordsRepo.incrementCount(WordKeys.DEFAULT_NAMESPACE, word, 1);
+            } else {
+                wordsRepo.save(WordEntity.builder().word(word).count(1).build());
+            }
+        }
+    }
+
+    @Benchmark
+    public void batched() throws IOException {
+        wordOperationsService.countFromStream(new ByteArrayInputStream(corpus));
+    }
+}
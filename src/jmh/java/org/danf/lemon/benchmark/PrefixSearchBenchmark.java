@@ -0,0 +1,86 @@
+package org.danf.lemon.benchmark;
+
+import org.danf.lemon.LemonApplication;
+import org.danf.lemon.db.storage.WordCountStorage;
+import org.danf.lemon.service.WordSearchService;
+import org.danf.lemon.service.WordSearchService.SortBy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of a prefix search served by the in-memory index of {@link WordSearchService} vs. the <pre>LIKE</pre> query
+ * it falls back to when the index is disabled, over a <pre>words</pre> table of {@link #words} rows.
+ * Words are spread over 26 * 26 two letter prefixes, {@link #prefix} picks how selective the search is.
+ *
+ * @author Dan Feldman
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(jvmArgsAppend = "-Xmx2g")
+public class PrefixSearchBenchmark {
+
+    @Param({"100000"})
+    private int words;
+
+    @Param({"e", "er", "er_7"})
+    private String prefix;
+
+    @Param({"COUNT", "WORD"})
+    private SortBy sortBy;
+
+    private ConfigurableApplicationContext context;
+    private WordSearchService index;
+    private WordSearchService like;
+
+    @Setup
+    public void setup() {
+        context = new SpringApplicationBuilder(LemonApplication.class).run(
+                "--server.port=0",
+                "--spring.main.banner-mode=off",
+                "--logging.level.root=warn",
+                "--lemon.counter.durability=shutdown");
+        WordCountStorage storage = context.getBean(WordCountStorage.class);
+        Random random = new Random(42);
+        Map<String, Long> counts = new HashMap<>();
+        for (int i = 0; i < words; i++) {
+            String word = "" + (char) ('a' + random.nextInt(26)) + (char) ('a' + random.nextInt(26)) + "_" + i;
+            counts.put(word, 1L + random.nextInt(1000));
+        }
+        storage.addToCounts(counts);
+        index = new WordSearchService(storage, true);
+        index.rebuild();
+        like = new WordSearchService(storage, false);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<?> index() {
+        return index.search(prefix, 0, 50, sortBy);
+    }
+
+    @Benchmark
+    public List<?> like() {
+        return like.search(prefix, 0, 50, sortBy);
+    }
+}
@@ -0,0 +1,120 @@
+package org.danf.lemon.benchmark;
+
+import org.danf.lemon.LemonApplication;
+import org.danf.lemon.config.StorageProperties;
+import org.danf.lemon.db.storage.WordCountStorage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of the operations the counting path runs against each {@link WordCountStorage}: a flush of a batch of
+ * {@link #batchSize} aggregated counts (about a third of them new words), a lookup of as many words and a read of the
+ * top 100, over {@link #words} stored words.
+ * The log store forces every write to disk like it does by default, the JPA store commits a transaction.
+ *
+ * @author Dan Feldman
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(jvmArgsAppend = "-Xmx2g")
+public class StorageBenchmark {
+
+    private static final int BATCHES = 64;
+
+    @Param({"JPA", "LOG"})
+    private StorageProperties.Type type;
+
+    @Param({"100000"})
+    private int words;
+
+    @Param({"1000"})
+    private int batchSize;
+
+    private Path directory;
+    private ConfigurableApplicationContext context;
+    private WordCountStorage storage;
+    private List<Map<String, Long>> batches;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("lemon-storage-benchmark");
+        context = new SpringApplicationBuilder(LemonApplication.class).run(
+                "--server.port=0",
+                "--spring.main.banner-mode=off",
+                "--logging.level.root=warn",
+                "--lemon.counter.durability=shutdown",
+                "--lemon.search.index-enabled=false",
+                "--lemon.storage.type=" + type,
+                "--lemon.storage.log.directory=" + directory);
+        storage = context.getBean(WordCountStorage.class);
+        Random random = new Random(42);
+        Map<String, Long> initial = new HashMap<>();
+        for (int i = 0; i < words; i++) {
+            initial.put("w" + i, 1L + random.nextInt(1000));
+            if (initial.size() == batchSize) {
+                storage.addToCounts(initial);
+                initial.clear();
+            }
+        }
+        storage.addToCounts(initial);
+        batches = new ArrayList<>(BATCHES);
+        for (int i = 0; i < BATCHES; i++) {
+            Map<String, Long> batch = new HashMap<>();
+            while (batch.size() < batchSize) {
+                // Words past the initial ones are new, until a later batch creates them
+                batch.put("w" + random.nextInt(words + words / 2), 1L + random.nextInt(10));
+            }
+            batches.add(batch);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        context.close();
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public int flush() {
+        return storage.addToCounts(nextBatch());
+    }
+
+    @Benchmark
+    public Map<String, Long> lookup() {
+        return storage.getCounts(nextBatch().keySet());
+    }
+
+    @Benchmark
+    public List<?> top() {
+        return storage.findTopCounts(100);
+    }
+
+    private Map<String, Long> nextBatch() {
+        Map<String, Long> batch = batches.get(next);
+        next = (next + 1) % BATCHES;
+        return batch;
+    }
+}
@@ -0,0 +1,64 @@
+package org.danf.lemon.benchmark;
+
+import org.danf.lemon.config.TokenizerProperties;
+import org.danf.lemon.service.tokenizer.ScannerWordTokenizer;
+import org.danf.lemon.service.tokenizer.Utf8WhitespaceTokenizer;
+import org.danf.lemon.service.tokenizer.WordTokenizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tokenization alone: turning a byte stream into words, without counting them.
+ *
+ * @author Dan Feldman
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(jvmArgsAppend = "-Xmx2g")
+public class TokenizerBenchmark {
+
+    @Param({"SCANNER", "BYTES"})
+    private TokenizerProperties.Type tokenizer;
+
+    @Param({"1048576", "16777216"})
+    private int corpusBytes;
+
+    @Param({"10000", "500000"})
+    private int vocabularySize;
+
+    private byte[] corpus;
+    private WordTokenizer wordTokenizer;
+
+    @Setup
+    public void setup() {
+        corpus = ZipfCorpus.generate(corpusBytes, vocabularySize, 42);
+        TokenizerProperties properties = new TokenizerProperties();
+        wordTokenizer = tokenizer == TokenizerProperties.Type.SCANNER
+                ? new ScannerWordTokenizer()
+                : new Utf8WhitespaceTokenizer(properties.getBufferSize(), properties.getMaxInternedWords());
+    }
+
+    @Benchmark
+    public void tokenizeStream(Blackhole blackhole) throws IOException {
+        wordTokenizer.tokenize(new ByteArrayInputStream(corpus), blackhole::consume);
+    }
+
+    @Benchmark
+    public void tokenizeBuffer(Blackhole blackhole) throws IOException {
+        wordTokenizer.tokenize(ByteBuffer.wrap(corpus), blackhole::consume);
+    }
+}
@@ -0,0 +1,73 @@
+package org.danf.lemon.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Generates synthetic text whose word frequencies follow a Zipfian distribution, like natural language does: the n-th
+ * most frequent word appears roughly 1/n^s times as often as the most frequent one.
+ * The vocabulary is made of random lower-case words with a small share of multi-byte UTF-8 words, words are separated
+ * by a mix of spaces and newlines. Generation is seeded so that every run of a benchmark sees the same corpus.
+ *
+ * @author Dan Feldman
+ */
+public final class ZipfCorpus {
+
+    private static final double EXPONENT = 1.07;
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyz";
+    private static final String[] MULTI_BYTE_SYLLABLES = {"é", "ß", "ø", "日", "本", "語", "λ", "ж"};
+
+    private ZipfCorpus() {
+    }
+
+    /**
+     * @return A corpus of about {@param sizeBytes} bytes drawn from a vocabulary of {@param vocabularySize} words.
+     */
+    public static byte[] generate(int sizeBytes, int vocabularySize, long seed) {
+        Random random = new Random(seed);
+        byte[][] vocabulary = vocabulary(vocabularySize, random);
+        double[] cumulative = cumulativeDistribution(vocabularySize);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(sizeBytes + 64);
+        while (out.size() < sizeBytes) {
+            int rank = Arrays.binarySearch(cumulative, random.nextDouble());
+            byte[] word = vocabulary[rank < 0 ? Math.min(-rank - 1, vocabularySize - 1) : rank];
+            out.write(word, 0, word.length);
+            out.write(random.nextInt(12) == 0 ? '\n' : ' ');
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[][] vocabulary(int size, Random random) {
+        byte[][] words = new byte[size][];
+        for (int i = 0; i < size; i++) {
+            StringBuilder word = new StringBuilder();
+            int length = 2 + random.nextInt(10);
+            for (int j = 0; j < length; j++) {
+                if (random.nextInt(20) == 0) {
+                    word.append(MULTI_BYTE_SYLLABLES[random.nextInt(MULTI_BYTE_SYLLABLES.length)]);
+                } else {
+                    word.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+                }
+            }
+            // Suffixing the rank keeps the words distinct
+            words[i] = word.append(i).toString().getBytes(UTF_8);
+        }
+        return words;
+    }
+
+    private static double[] cumulativeDistribution(int size) {
+        double[] cumulative = new double[size];
+        double sum = 0;
+        for (int rank = 0; rank < size; rank++) {
+            sum += 1 / Math.pow(rank + 1, EXPONENT);
+            cumulative[rank] = sum;
+        }
+        for (int rank = 0; rank < size; rank++) {
+            cumulative[rank] /= sum;
+        }
+        return cumulative;
+    }
+}
@@ -0,0 +1,40 @@
+package org.danf.lemon.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.danf.lemon.service.executor.CountJobExecutor;
+import org.springframework.aop.interceptor.AsyncUncaughtExceptionHandler;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.AsyncConfigurer;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Runs {@link org.springframework.scheduling.annotation.Async} count jobs on a dedicated, bounded
+ * {@link CountJobExecutor} rather than on Spring's default executor.
+ *
+ * @author Dan Feldman
+ */
+@Slf4j
+@Configuration
+public class AsyncConfig implements AsyncConfigurer {
+
+    @Autowired
+    private CountExecutorProperties properties;
+
+    @Bean
+    public CountJobExecutor countJobExecutor() {
+        return new CountJobExecutor(properties);
+    }
+
+    @Override
+    public Executor getAsyncExecutor() {
+        return countJobExecutor();
+    }
+
+    @Override
+    public AsyncUncaughtExceptionHandler getAsyncUncaughtExceptionHandler() {
+        return (e, method, params) -> log.error("Async execution of {} failed: {}", method.getName(), e.getMessage(), e);
+    }
+}
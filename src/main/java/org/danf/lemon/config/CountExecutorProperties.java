@@ -0,0 +1,45 @@
+package org.danf.lemon.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Configuration of the executor running async count jobs, bound from the <pre>lemon.executor</pre> section of
+ * <pre>application.yaml</pre>.
+ *
+ * @author Dan Feldman
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "lemon.executor")
+public class CountExecutorProperties {
+
+    private int coreSize = 4;
+
+    private int maxSize = 8;
+
+    /**
+     * Number of jobs that may wait for a free thread before new jobs are rejected.
+     */
+    private int queueCapacity = 100;
+
+    private RejectionPolicy rejectionPolicy = RejectionPolicy.ABORT;
+
+    /**
+     * Runs each job on its own virtual thread (with at most {@link #maxSize} + {@link #queueCapacity} jobs in flight)
+     * instead of a thread pool. Only takes effect on a JDK that supports virtual threads.
+     */
+    private boolean virtualThreads = false;
+
+    public enum RejectionPolicy {
+        /**
+         * Jobs submitted to a saturated executor are rejected, and the request fails with 503.
+         */
+        ABORT,
+        /**
+         * Jobs submitted to a saturated executor run on the submitting (request) thread, slowing down the caller.
+         */
+        CALLER_RUNS
+    }
+}
@@ -0,0 +1,60 @@
+package org.danf.lemon.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Configuration of the write-behind word counter, bound from the <pre>lemon.counter</pre> section of
+ * <pre>application.yaml</pre>.
+ *
+ * @author Dan Feldman
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "lemon.counter")
+public class CounterProperties {
+
+    /**
+     * Decides when pending counts are written to the database, see {@link Durability}.
+     */
+    private Durability durability = Durability.INTERVAL;
+
+    /**
+     * Delay between consecutive flushes when running in {@link Durability#INTERVAL} mode.
+     */
+    private long flushIntervalMs = 1000;
+
+    /**
+     * Number of distinct pending words that triggers a flush regardless of the durability mode, this bounds the
+     * memory the counter may hold between flushes.
+     */
+    private int maxPendingWords = 100_000;
+
+    /**
+     * Number of independently locked stripes pending counts are spread over (rounded up to a power of two), more
+     * stripes means less contention between concurrent requests inserting new words.
+     */
+    private int stripes = 4 * Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Number of distinct words a streamed request aggregates locally before handing them to the counter as a single
+     * batch (and a single record of the write-ahead log).
+     */
+    private int requestBatchWords = 10_000;
+
+    public enum Durability {
+        /**
+         * Pending counts are flushed at the end of every count request.
+         */
+        REQUEST,
+        /**
+         * Pending counts are flushed every {@link #flushIntervalMs} milliseconds.
+         */
+        INTERVAL,
+        /**
+         * Pending counts are only flushed when the application shuts down (or the size threshold is reached).
+         */
+        SHUTDOWN
+    }
+}
@@ -0,0 +1,48 @@
+package org.danf.lemon.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Configuration of counting words in local files, bound from the <pre>lemon.file</pre> section of
+ * <pre>application.yaml</pre>.
+ *
+ * @author Dan Feldman
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "lemon.file")
+public class FileCountProperties {
+
+    /**
+     * Files of at least this size are memory-mapped and counted in parallel chunks, smaller files are streamed.
+     */
+    private long parallelThresholdBytes = 16 * 1024 * 1024;
+
+    /**
+     * Approximate size of each chunk counted in parallel (chunks are extended up to the next whitespace), may not
+     * exceed {@link Integer#MAX_VALUE}.
+     */
+    private int chunkSizeBytes = 8 * 1024 * 1024;
+
+    /**
+     * Number of threads counting chunks, defaults to the number of available cores.
+     */
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * When set, only files under this directory may be counted and relative paths are resolved against it.
+     */
+    private String rootDir;
+
+    /**
+     * Number of threads counting the files matched by a directory or glob path, shared by all such requests.
+     */
+    private int bulkWorkers = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * Max number of files a single directory or glob path may match.
+     */
+    private int maxFiles = 10_000;
+}
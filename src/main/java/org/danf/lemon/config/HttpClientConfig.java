@@ -0,0 +1,48 @@
+package org.danf.lemon.config;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single pooled HTTP client shared by all url count requests, so connections to the same host are kept alive and
+ * reused instead of being set up per request.
+ * The client doesn't decompress responses itself, see
+ * {@link org.danf.lemon.service.WordOperationsService#countFromUrl}.
+ *
+ * @author Dan Feldman
+ */
+@Configuration
+public class HttpClientConfig {
+
+    private static final long IDLE_CONNECTION_TIMEOUT_SECONDS = 30;
+
+    @Autowired
+    private UrlFetchProperties properties;
+
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient httpClient() {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(properties.getMaxConnections());
+        connectionManager.setDefaultMaxPerRoute(properties.getMaxConnectionsPerRoute());
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(properties.getConnectTimeoutMs())
+                .setSocketTimeout(properties.getSocketTimeoutMs())
+                .setConnectionRequestTimeout(properties.getConnectionRequestTimeoutMs())
+                .build();
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                // Compressed responses are decompressed (and measured) by the counting path
+                .disableContentCompression()
+                .evictExpiredConnections()
+                .evictIdleConnections(IDLE_CONNECTION_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .build();
+    }
+}
@@ -0,0 +1,33 @@
+package org.danf.lemon.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Configuration of the non-blocking <pre>ingest</pre> endpoint, bound from the <pre>lemon.ingest</pre> section of
+ * <pre>application.yaml</pre>.
+ *
+ * @author Dan Feldman
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "lemon.ingest")
+public class IngestProperties {
+
+    /**
+     * Size of the buffer each request body is read into whenever the container reports it can be read without
+     * blocking.
+     */
+    private int bufferSize = 64 * 1024;
+
+    /**
+     * Max time an upload may take from start to end, slow clients are cut off once it's reached.
+     */
+    private long timeoutMs = 60 * 60 * 1000;
+
+    /**
+     * Min delay between two progress updates streamed to clients that asked for them.
+     */
+    private long progressIntervalMs = 1000;
+}
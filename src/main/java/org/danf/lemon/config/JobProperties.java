@@ -0,0 +1,27 @@
+package org.danf.lemon.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Configuration of the async count job registry, bound from the <pre>lemon.jobs</pre> section of
+ * <pre>application.yaml</pre>.
+ *
+ * @author Dan Feldman
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "lemon.jobs")
+public class JobProperties {
+
+    /**
+     * How long a finished job's status is kept after it finished.
+     */
+    private long ttlMs = 60 * 60 * 1000;
+
+    /**
+     * Max number of finished jobs kept, the oldest ones are evicted first.
+     */
+    private int maxFinishedJobs = 1000;
+}
@@ -0,0 +1,50 @@
+package org.danf.lemon.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Configuration of approximate counting, bound from the <pre>lemon.sketch</pre> section of <pre>application.yaml</pre>.
+ *
+ * @author Dan Feldman
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "lemon.sketch")
+public class SketchProperties {
+
+    /**
+     * When enabled every flushed word is counted by a Count-Min Sketch and a HyperLogLog, and only words estimated to
+     * have appeared at least {@link #exactThreshold} times are persisted (see
+     * {@link org.danf.lemon.service.sketch.WordSketches}).
+     */
+    private boolean enabled = false;
+
+    /**
+     * Estimated counts overestimate by at most this fraction of the total number of counted words, with a
+     * probability of {@link #confidence}. The sketch takes <pre>8 * e / relativeError * ln(1 / (1 - confidence))
+     * </pre> bytes.
+     */
+    private double relativeError = 0.0001;
+
+    private double confidence = 0.99;
+
+    /**
+     * The distinct word estimate uses <pre>2^hllPrecision</pre> registers (one byte each), its relative standard
+     * error is <pre>1.04 / sqrt(2^hllPrecision)</pre>.
+     */
+    private int hllPrecision = 14;
+
+    /**
+     * Words are only persisted, and then counted exactly, once their estimated count reaches this threshold.
+     */
+    private long exactThreshold = 10;
+
+    /**
+     * Directory the sketches are snapshotted to, created if missing.
+     */
+    private String directory = "sketches";
+
+    private long snapshotIntervalMs = 60_000;
+}
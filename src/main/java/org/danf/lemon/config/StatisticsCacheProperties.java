@@ -0,0 +1,27 @@
+package org.danf.lemon.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Configuration of the persisted word count cache, bound from the <pre>lemon.cache</pre> section of
+ * <pre>application.yaml</pre>.
+ *
+ * @author Dan Feldman
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "lemon.cache")
+public class StatisticsCacheProperties {
+
+    /**
+     * Max number of words (including absent ones) kept in the cache.
+     */
+    private long maxSize = 100_000;
+
+    /**
+     * How long after it was loaded a word's count is evicted from the cache.
+     */
+    private long ttlMs = 5 * 60 * 1000;
+}
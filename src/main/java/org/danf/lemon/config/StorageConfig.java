@@ -0,0 +1,33 @@
+package org.danf.lemon.config;
+
+import org.danf.lemon.db.repo.WordsRepo;
+import org.danf.lemon.db.storage.JpaWordCountStorage;
+import org.danf.lemon.db.storage.LogWordCountStorage;
+import org.danf.lemon.db.storage.WordCountStorage;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Provides the {@link WordCountStorage} selected by <pre>lemon.storage.type</pre>.
+ *
+ * @author Dan Feldman
+ */
+@Configuration
+public class StorageConfig {
+
+    @Bean
+    public WordCountStorage wordCountStorage(StorageProperties properties, WordsRepo wordsRepo,
+            JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) throws IOException {
+        if (properties.getType() == StorageProperties.Type.LOG) {
+            StorageProperties.Log log = properties.getLog();
+            return LogWordCountStorage.open(Paths.get(log.getDirectory()), log.getCompactionThresholdBytes(),
+                    log.isFsync());
+        }
+        return new JpaWordCountStorage(wordsRepo, jdbcTemplate, transactionManager);
+    }
+}
@@ -0,0 +1,55 @@
+package org.danf.lemon.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Configuration of where word counts are stored, bound from the <pre>lemon.storage</pre> section of
+ * <pre>application.yaml</pre>.
+ *
+ * @author Dan Feldman
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "lemon.storage")
+public class StorageProperties {
+
+    private Type type = Type.JPA;
+
+    /**
+     * Only used by {@link Type#LOG}.
+     */
+    private Log log = new Log();
+
+    public enum Type {
+        /**
+         * The <pre>words</pre> table, through JPA.
+         */
+        JPA,
+        /**
+         * An embedded log-structured store, see {@link org.danf.lemon.db.storage.LogWordCountStorage}.
+         */
+        LOG
+    }
+
+    @Data
+    public static class Log {
+
+        /**
+         * Directory the snapshot and log files are kept in, created if missing.
+         */
+        private String directory = "data";
+
+        /**
+         * The log is compacted into a new snapshot once it's larger than both this and the current snapshot.
+         */
+        private long compactionThresholdBytes = 64 * 1024 * 1024;
+
+        /**
+         * Whether every write is forced to disk before it's acknowledged, otherwise writes that weren't written back
+         * by the OS are lost on a power failure (but not when just the process crashes).
+         */
+        private boolean fsync = true;
+    }
+}
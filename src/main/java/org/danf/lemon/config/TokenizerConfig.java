@@ -0,0 +1,44 @@
+package org.danf.lemon.config;
+
+import org.danf.lemon.service.tokenizer.NormalizationProfiles;
+import org.danf.lemon.service.tokenizer.ScannerWordTokenizer;
+import org.danf.lemon.service.tokenizer.Utf8WhitespaceTokenizer;
+import org.danf.lemon.service.tokenizer.WordNormalizer;
+import org.danf.lemon.service.tokenizer.WordTokenizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Provides the {@link WordTokenizer} selected by <pre>lemon.tokenizer.type</pre> and the normalization profiles
+ * configured under <pre>lemon.tokenizer.profiles</pre>.
+ *
+ * @author Dan Feldman
+ */
+@Configuration
+public class TokenizerConfig {
+
+    @Bean
+    public WordTokenizer wordTokenizer(TokenizerProperties properties) {
+        if (properties.getType() == TokenizerProperties.Type.SCANNER) {
+            return new ScannerWordTokenizer();
+        }
+        return new Utf8WhitespaceTokenizer(properties.getBufferSize(), properties.getMaxInternedWords());
+    }
+
+    @Bean
+    public NormalizationProfiles normalizationProfiles(TokenizerProperties properties) {
+        List<WordNormalizer> normalizers = new ArrayList<>();
+        properties.getProfiles().forEach((name, profile) -> normalizers.add(WordNormalizer.builder()
+                .name(name)
+                .unicodeNfc(profile.isUnicodeNfc())
+                .stripPunctuation(profile.isStripPunctuation())
+                .lowercase(profile.isLowercase())
+                .maxLength(profile.getMaxLength())
+                .stopWords(profile.getStopWords())
+                .build()));
+        return new NormalizationProfiles(normalizers, properties.getDefaultProfile());
+    }
+}
@@ -0,0 +1,77 @@
+package org.danf.lemon.config;
+
+import lombok.Data;
+import org.danf.lemon.service.tokenizer.NormalizationProfiles;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Configuration of the tokenizer used to split input into words, bound from the <pre>lemon.tokenizer</pre> section of
+ * <pre>application.yaml</pre>.
+ *
+ * @author Dan Feldman
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "lemon.tokenizer")
+public class TokenizerProperties {
+
+    private Type type = Type.BYTES;
+
+    /**
+     * Size of the buffer input is read into (per request).
+     */
+    private int bufferSize = 64 * 1024;
+
+    /**
+     * Max number of distinct words kept in the byte-slice lookup table of a single request.
+     */
+    private int maxInternedWords = 1_000_000;
+
+    /**
+     * Normalization profile applied to count requests that don't name one.
+     */
+    private String defaultProfile = NormalizationProfiles.RAW;
+
+    /**
+     * Named normalization profiles count requests may pick from, in addition to the built-in
+     * <pre>raw</pre> profile.
+     */
+    private Map<String, NormalizationProfile> profiles = new LinkedHashMap<>();
+
+    /**
+     * See {@link org.danf.lemon.service.tokenizer.WordNormalizer} for the order the steps are applied in.
+     */
+    @Data
+    public static class NormalizationProfile {
+
+        private boolean unicodeNfc;
+
+        private boolean stripPunctuation;
+
+        private boolean lowercase;
+
+        /**
+         * Longer words (after normalization) aren't counted, 0 means no limit.
+         */
+        private int maxLength;
+
+        private List<String> stopWords = new ArrayList<>();
+    }
+
+    public enum Type {
+        /**
+         * {@link org.danf.lemon.service.tokenizer.Utf8WhitespaceTokenizer}
+         */
+        BYTES,
+        /**
+         * {@link org.danf.lemon.service.tokenizer.ScannerWordTokenizer}
+         */
+        SCANNER
+    }
+}
@@ -0,0 +1,55 @@
+package org.danf.lemon.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Configuration of counting words from remote urls, bound from the <pre>lemon.url</pre> section of
+ * <pre>application.yaml</pre>.
+ *
+ * @author Dan Feldman
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "lemon.url")
+public class UrlFetchProperties {
+
+    /**
+     * Time to wait for a connection to the remote address to be established.
+     */
+    private int connectTimeoutMs = 3000;
+
+    /**
+     * Max inactivity between two consecutive packets of the response, this doesn't limit the overall download time.
+     */
+    private int socketTimeoutMs = 30_000;
+
+    /**
+     * Time to wait for a free connection from the pool.
+     */
+    private int connectionRequestTimeoutMs = 3000;
+
+    /**
+     * Responses larger than this are rejected (when their length is known up front) or cut off once this many bytes
+     * were read, a negative value means no limit.
+     */
+    private long maxBodyBytes = 1024L * 1024 * 1024;
+
+    /**
+     * Compressed responses are cut off once this many bytes were decompressed, so a small compressed body can't expand
+     * without bound. A negative value means no limit.
+     */
+    private long maxDecodedBodyBytes = 4L * 1024 * 1024 * 1024;
+
+    /**
+     * Whether to send a HEAD request to validate the url before counting, the GET request is validated either way.
+     */
+    private boolean validateWithHead = false;
+
+    /**
+     * Max number of pooled connections, in total and per remote host.
+     */
+    private int maxConnections = 50;
+    private int maxConnectionsPerRoute = 10;
+}
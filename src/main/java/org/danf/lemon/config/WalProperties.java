@@ -0,0 +1,40 @@
+package org.danf.lemon.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Configuration of the write-ahead log of pending counts, bound from the <pre>lemon.wal</pre> section of
+ * <pre>application.yaml</pre>.
+ *
+ * @author Dan Feldman
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "lemon.wal")
+public class WalProperties {
+
+    /**
+     * When enabled every batch of counts is appended to the log before it's acknowledged, so pending counts survive a
+     * crash. Only useful with an on-disk database, an in-memory one loses flushed counts on restart anyway.
+     */
+    private boolean enabled = false;
+
+    /**
+     * Directory log segments are written to, created if missing.
+     */
+    private String directory = "wal";
+
+    /**
+     * Max delay between appending a batch and forcing it to disk, requests wait for their batches to be forced so
+     * concurrent requests share a single fsync. 0 forces every append on its own.
+     */
+    private long fsyncIntervalMs = 5;
+
+    /**
+     * A new segment is started once the current one reaches this size, segments are deleted once all of their
+     * batches were flushed to the database.
+     */
+    private long segmentSizeBytes = 64 * 1024 * 1024;
+}
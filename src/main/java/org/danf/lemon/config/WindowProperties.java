@@ -0,0 +1,42 @@
+package org.danf.lemon.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Configuration of time-windowed counts, bound from the <pre>lemon.window</pre> section of <pre>application.yaml</pre>.
+ *
+ * @author Dan Feldman
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "lemon.window")
+public class WindowProperties {
+
+    /**
+     * When enabled flushed counts are also added to a bucket per minute, so counts within a recent window can be
+     * queried (see {@link org.danf.lemon.service.window.WindowedCounts}). Only takes effect with the
+     * {@link CounterProperties.Durability#INTERVAL} durability mode. Disabled by default since it keeps buckets
+     * in memory and snapshots them to {@link #directory}.
+     */
+    private boolean enabled = false;
+
+    /**
+     * Minute buckets older than this are rolled up into a bucket per hour, windows reaching further back are rounded
+     * to whole hours.
+     */
+    private int minuteRetentionMinutes = 120;
+
+    /**
+     * Hour buckets older than this are dropped, which is also the longest window that can be queried.
+     */
+    private int hourRetentionHours = 48;
+
+    /**
+     * Directory the buckets are snapshotted to, created if missing.
+     */
+    private String directory = "windows";
+
+    private long snapshotIntervalMs = 60_000;
+}
@@ -0,0 +1,144 @@
+package org.danf.lemon.db;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.data.jpa.EntityManagerFactoryDependsOnPostProcessor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * Migrates <pre>words</pre> tables created by older versions:
+ * A <pre>count</pre> column that's an <pre>INTEGER</pre> is widened to a <pre>BIGINT</pre> column.
+ * A table without a <pre>namespace</pre> column gets one, its words are all of the default namespace, and its primary
+ * key is extended to <pre>(namespace, word)</pre>.
+ * Hibernate's schema update only adds missing tables and columns, so this runs before the entity manager factory is
+ * created (see {@link DependsOn}).
+ *
+ * Implementation note:
+ * Derby can't change the type of an existing numeric column, so the counts are copied to a new <pre>BIGINT</pre>
+ * column which then replaces the old one (and its index), all in a single transaction. Likewise a primary key can't be
+ * altered, only dropped and added again. Each migration runs in a transaction of its own.
+ *
+ * @author Dan Feldman
+ */
+@Slf4j
+@Component(WordsSchemaMigration.BEAN_NAME)
+public class WordsSchemaMigration {
+
+    static final String BEAN_NAME = "wordsSchemaMigration";
+
+    private static final String TABLE = "WORDS";
+    private static final String COUNT_COLUMN = "COUNT";
+    private static final String NAMESPACE_COLUMN = "NAMESPACE";
+    private static final String COUNT_INDEX = "WORDS_COUNT_IDX";
+    private static final String NAMESPACE_COUNT_INDEX = "WORDS_NAMESPACE_COUNT_IDX";
+
+    private DataSource dataSource;
+
+    @Autowired
+    public WordsSchemaMigration(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    @PostConstruct
+    void migrate() {
+        migrateCountColumn();
+        migrateNamespaceColumn();
+    }
+
+    /**
+     * @return Whether the <pre>count</pre> column was migrated.
+     */
+    public boolean migrateCountColumn() {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        Boolean migrated = new TransactionTemplate(new DataSourceTransactionManager(dataSource)).execute(status -> {
+            String schema = jdbcTemplate.queryForObject("VALUES CURRENT SCHEMA", String.class);
+            Integer countType = jdbcTemplate.execute((Connection connection) ->
+                    columnType(connection, schema, COUNT_COLUMN));
+            if (countType == null || countType == Types.BIGINT) {
+                return false;
+            }
+            log.info("Migrating the count column of the words table to BIGINT");
+            if (hasCountIndex(jdbcTemplate, schema)) {
+                jdbcTemplate.execute("DROP INDEX " + COUNT_INDEX);
+            }
+            jdbcTemplate.execute("ALTER TABLE words ADD COLUMN count_long BIGINT NOT NULL DEFAULT 0");
+            jdbcTemplate.execute("UPDATE words SET count_long = count");
+            jdbcTemplate.execute("ALTER TABLE words DROP COLUMN count");
+            jdbcTemplate.execute("RENAME COLUMN words.count_long TO count");
+            jdbcTemplate.execute("CREATE INDEX " + COUNT_INDEX + " ON words (count)");
+            return true;
+        });
+        return Boolean.TRUE.equals(migrated);
+    }
+
+    /**
+     * @return Whether the <pre>namespace</pre> column was added.
+     */
+    public boolean migrateNamespaceColumn() {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        Boolean migrated = new TransactionTemplate(new DataSourceTransactionManager(dataSource)).execute(status -> {
+            String schema = jdbcTemplate.queryForObject("VALUES CURRENT SCHEMA", String.class);
+            boolean hasTable = jdbcTemplate.execute((Connection connection) ->
+                    columnType(connection, schema, COUNT_COLUMN)) != null;
+            if (!hasTable || jdbcTemplate.execute((Connection connection) ->
+                    columnType(connection, schema, NAMESPACE_COLUMN)) != null) {
+                return false;
+            }
+            log.info("Adding a namespace column to the words table");
+            if (hasCountIndex(jdbcTemplate, schema)) {
+                jdbcTemplate.execute("DROP INDEX " + COUNT_INDEX);
+            }
+            jdbcTemplate.execute("ALTER TABLE words ADD COLUMN namespace VARCHAR(255) NOT NULL DEFAULT ''");
+            jdbcTemplate.execute("ALTER TABLE words DROP PRIMARY KEY");
+            jdbcTemplate.execute("ALTER TABLE words ADD PRIMARY KEY (namespace, word)");
+            jdbcTemplate.execute("CREATE INDEX " + NAMESPACE_COUNT_INDEX + " ON words (namespace, count)");
+            return true;
+        });
+        return Boolean.TRUE.equals(migrated);
+    }
+
+    /**
+     * @return The SQL type of {@param column}, null if there's no such column (or no <pre>words</pre> table yet).
+     */
+    private static Integer columnType(Connection connection, String schema, String column) throws SQLException {
+        try (ResultSet columns = connection.getMetaData().getColumns(null, schema, TABLE, column)) {
+            return columns.next() ? columns.getInt("DATA_TYPE") : null;
+        }
+    }
+
+    private static boolean hasCountIndex(JdbcTemplate jdbcTemplate, String schema) {
+        return Boolean.TRUE.equals(jdbcTemplate.execute((Connection connection) -> {
+            DatabaseMetaData metaData = connection.getMetaData();
+            try (ResultSet indexes = metaData.getIndexInfo(null, schema, TABLE, false, false)) {
+                while (indexes.next()) {
+                    if (COUNT_INDEX.equalsIgnoreCase(indexes.getString("INDEX_NAME"))) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        }));
+    }
+
+    /**
+     * Makes the entity manager factory (and with it Hibernate's schema update) wait for the migration.
+     */
+    @Component
+    static class DependsOn extends EntityManagerFactoryDependsOnPostProcessor {
+
+        DependsOn() {
+            super(BEAN_NAME);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package org.danf.lemon.db.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * The single row of the <pre>wal_checkpoint</pre> table: the sequence number of the last write-ahead log record whose
+ * counts were committed to the <pre>words</pre> table. It's updated in the same transaction as the counts, so log
+ * records up to it are never applied twice.
+ * Read and written over plain JDBC by {@link org.danf.lemon.db.storage.JpaWordCountStorage}.
+ *
+ * @author Dan Feldman
+ */
+@Data
+@AllArgsConstructor@NoArgsConstructor
+@Entity
+@Table(name = "wal_checkpoint")
+public class WalCheckpointEntity {
+
+    @Id
+    private int id;
+    private long lsn;
+}
@@ -4,24 +4,33 @@ import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.danf.lemon.db.storage.WordKeys;
 
 import javax.persistence.Entity;
 import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.Index;
 import javax.persistence.Table;
+import java.io.Serializable;
 
 /**
  * This POJO represents a word in the database.
- * Each such word is a row with 2 columns:
- * <pre>word</pre>  - The table's primary key (handled by Hibernate with the {@link Id} annotation), represents a word.
- * <pre>count</pre> - Used for counting the appearances of the word in all input given to the app.
+ * Each such word is a row with 3 columns:
+ * <pre>namespace</pre> - The namespace the word was counted in (i.e. a team or a corpus), empty for the default one.
+ *                  Part of the table's primary key so that a namespace's words are stored together and can be
+ *                  deleted with a single statement (see {@link org.danf.lemon.db.WordsSchemaMigration} for tables
+ *                  created before namespaces).
+ * <pre>word</pre>  - The rest of the table's primary key (handled by Hibernate with the {@link Id} and
+ *                  {@link IdClass} annotations), represents a word.
+ * <pre>count</pre> - Used for counting the appearances of the word in all input given to the app, indexed along with
+ *                  the namespace so the most frequent words of a namespace can be found without a full table scan.
+ *                  A <pre>BIGINT</pre> since frequent words overflow an int over a large enough corpus.
  *
  * Implementation note:
- * Persisting the counter on each appearance of the word is costly (db-wise) ideally I would choose an in-memory map
- * (i.e. {@see Map<String,Integer>})that gets flushed to the db on occasion (taking into account the compromise of
- * losing data on outage - but that depends on the specification for this service).
- *
- * Given the time constraint for this task and the requirement that the count will be persisted, I went with persisting
- * the words and counts immediately as they are processed.
+ * Persisting the counter on each appearance of the word is costly (db-wise), counts are therefore aggregated in an
+ * in-memory map by the {@link org.danf.lemon.service.WriteBehindWordCounter} and flushed to the db in batches.
+ * The compromise of losing data on outage is controlled by the counter's durability mode (which can be set to flush
+ * at the end of every request), or avoided altogether by the {@link org.danf.lemon.service.wal.WriteAheadLog}.
  *
  * @author Dan Feldman
  */
@@ -29,10 +38,33 @@ import javax.persistence.Table;
 @Builder
 @AllArgsConstructor@NoArgsConstructor
 @Entity
-@Table(name = "words")
+@IdClass(WordEntity.Key.class)
+@Table(name = "words", indexes = @Index(name = "words_namespace_count_idx", columnList = "namespace, count"))
 public class WordEntity {
 
+    @Id
+    @Builder.Default
+    private String namespace = WordKeys.DEFAULT_NAMESPACE;
     @Id
     private String word;
-    private int count;
+    private long count;
+
+    public WordEntity(String word, long count) {
+        this(WordKeys.DEFAULT_NAMESPACE, word, count);
+    }
+
+    /**
+     * The primary key of a {@link WordEntity}.
+     */
+    @Data
+    @AllArgsConstructor@NoArgsConstructor
+    public static class Key implements Serializable {
+
+        private String namespace;
+        private String word;
+
+        public static Key of(String key) {
+            return new Key(WordKeys.namespaceOf(key), WordKeys.wordOf(key));
+        }
+    }
 }
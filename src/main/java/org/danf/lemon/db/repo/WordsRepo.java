@@ -1,6 +1,7 @@
 package org.danf.lemon.db.repo;
 
 import org.danf.lemon.db.entity.WordEntity;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
@@ -8,18 +9,49 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import javax.transaction.Transactional;
+import java.util.List;
 
 /**
  * A Hibernate-backed {@link JpaRepository} for persistence operations of {@link WordEntity} on the <pre>words</pre> table.
+ * Bulk operations are provided over plain JDBC by {@link WordsRepoCustom}.
  *
  * @author Dan Feldman
  */
 @Repository
-public interface WordsRepo extends JpaRepository<WordEntity, String> {
+public interface WordsRepo extends JpaRepository<WordEntity, WordEntity.Key>, WordsRepoCustom {
 
-    @Query("UPDATE WordEntity w set w.count = w.count + 1 WHERE w.word = :word")
+    /**
+     * @return The words of {@param namespace} with the highest counts, highest first and ties by word (served by the
+     * index on the <pre>namespace</pre> and <pre>count</pre> columns).
+     */
+    @Query("SELECT w FROM WordEntity w WHERE w.namespace = :namespace ORDER BY w.count DESC, w.word")
+    List<WordEntity> findTopCounts(@Param("namespace") String namespace, Pageable pageable);
+
+    /**
+     * @return The words of {@param namespace} starting with {@param prefix}, by a <pre>LIKE</pre> query (wildcards in
+     * the prefix are escaped).
+     */
+    List<WordEntity> findByNamespaceAndWordStartingWith(String namespace, String prefix, Pageable pageable);
+
+    /**
+     * Adds {@param delta} to the count of {@param word} in {@param namespace}.
+     *
+     * @return The number of updated rows, 0 means the word doesn't exist yet.
+     */
+    @Query("UPDATE WordEntity w set w.count = w.count + :delta WHERE w.namespace = :namespace AND w.word = :word")
+    @Modifying
+    @Transactional
+    int incrementCount(@Param("namespace") String namespace, @Param("word") String word, @Param("delta") long delta);
+
+    /**
+     * Deletes all words of {@param namespace} with a single statement (over the primary key, which starts with the
+     * namespace).
+     *
+     * @return The number of deleted words.
+     */
+    @Query("DELETE FROM WordEntity w WHERE w.namespace = :namespace")
     @Modifying
     @Transactional
-    void incrementCount(@Param("word") String word);
+    int deleteNamespace(@Param("namespace") String namespace);
 
 }
@@ -0,0 +1,40 @@
+package org.danf.lemon.db.repo;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Bulk operations on the <pre>words</pre> table that are implemented directly over JDBC (see {@link WordsRepoImpl})
+ * and exposed through {@link WordsRepo}.
+ *
+ * @author Dan Feldman
+ */
+public interface WordsRepoCustom {
+
+    /**
+     * Adds each of the counts in {@param deltas} to its word's count, creating words that don't exist yet. Words are
+     * given by their key, which includes their namespace (see {@link org.danf.lemon.db.storage.WordKeys}).
+     *
+     * @return The number of words that were created.
+     */
+    int addToCounts(Map<String, Long> deltas);
+
+    /**
+     * @return The counts of those of the words keyed by {@param keys} that exist, read with a single
+     * <pre>WHERE word IN (...)</pre> query per namespace (composite ids are otherwise looked up one by one).
+     */
+    Map<String, Long> getCounts(Collection<String> keys);
+
+    /**
+     * Reads the words of {@param namespace} with a count of at least {@param minCount} that start with {@param prefix}
+     * (any word if it's null) through a forward-only cursor and hands them to {@param consumer} one by one, without holding them in
+     * memory or in the persistence context.
+     */
+    void forEachWord(String namespace, long minCount, String prefix, WordCountConsumer consumer);
+
+    @FunctionalInterface
+    interface WordCountConsumer {
+        void accept(String word, long count) throws IOException;
+    }
+}
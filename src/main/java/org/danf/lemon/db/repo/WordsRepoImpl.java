@@ -0,0 +1,156 @@
+package org.danf.lemon.db.repo;
+
+import lombok.extern.slf4j.Slf4j;
+import org.danf.lemon.db.storage.WordKeys;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.transaction.Transactional;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * JDBC implementation of {@link WordsRepoCustom}.
+ *
+ * Implementation note:
+ * Derby's MERGE statement only accepts a table as its source, so an upsert of many rows can't be expressed as a single
+ * statement. Instead each batch of deltas is sent as a JDBC batch of updates and the words that weren't updated
+ * (update count of 0) are then sent as a JDBC batch of inserts.
+ * This assumes no one else inserts the same words concurrently, which is guaranteed by the write-behind counter only
+ * ever running a single flush at a time.
+ *
+ * @author Dan Feldman
+ */
+@Slf4j
+public class WordsRepoImpl implements WordsRepoCustom {
+
+    private static final String UPDATE_COUNT = "UPDATE words SET count = count + ? WHERE namespace = ? AND word = ?";
+    private static final String INSERT_WORD = "INSERT INTO words (namespace, word, count) VALUES (?, ?, ?)";
+    private static final String SELECT_WORDS = "SELECT word, count FROM words WHERE namespace = ? AND count >= ?";
+    private static final String SELECT_COUNTS = "SELECT word, count FROM words WHERE namespace = ? AND word IN ";
+    private static final String PREFIX_FILTER = " AND word LIKE ? ESCAPE '\\'";
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private JdbcTemplate jdbcTemplate;
+    private int batchSize;
+    private int fetchSize;
+
+    @Autowired
+    public WordsRepoImpl(JdbcTemplate jdbcTemplate, @Value("${lemon.db.batch-size:500}") int batchSize,
+            @Value("${lemon.db.fetch-size:1000}") int fetchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.batchSize = batchSize;
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * The persistence context is flushed before (so pending entity changes are visible to the JDBC statements) and
+     * cleared after (so no stale entities are served from it), same as a {@code @Modifying} query would do.
+     */
+    @Override
+    @Transactional
+    public int addToCounts(Map<String, Long> deltas) {
+        entityManager.flush();
+        List<Entry<String, Long>> entries = new ArrayList<>(deltas.entrySet());
+        int created = 0;
+        for (int from = 0; from < entries.size(); from += batchSize) {
+            List<Entry<String, Long>> batch = entries.subList(from, Math.min(from + batchSize, entries.size()));
+            created += insertMissing(batch, updateExisting(batch));
+        }
+        entityManager.clear();
+        return created;
+    }
+
+    @Override
+    public Map<String, Long> getCounts(Collection<String> keys) {
+        Map<String, List<String>> wordsByNamespace = new HashMap<>();
+        for (String key : keys) {
+            wordsByNamespace.computeIfAbsent(WordKeys.namespaceOf(key), namespace -> new ArrayList<>())
+                    .add(WordKeys.wordOf(key));
+        }
+        Map<String, Long> counts = new HashMap<>();
+        wordsByNamespace.forEach((namespace, words) -> {
+            String placeholders = String.join(", ", Collections.nCopies(words.size(), "?"));
+            List<Object> params = new ArrayList<>(words.size() + 1);
+            params.add(namespace);
+            params.addAll(words);
+            jdbcTemplate.query(SELECT_COUNTS + "(" + placeholders + ")", params.toArray(), (RowCallbackHandler) row ->
+                    counts.put(WordKeys.key(namespace, row.getString(1)), row.getLong(2)));
+        });
+        return counts;
+    }
+
+    @Override
+    public void forEachWord(String namespace, long minCount, String prefix, WordCountConsumer consumer) {
+        PreparedStatementCreator query = connection -> {
+            PreparedStatement statement = connection.prepareStatement(
+                    prefix == null ? SELECT_WORDS : SELECT_WORDS + PREFIX_FILTER,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(fetchSize);
+            statement.setString(1, namespace);
+            statement.setLong(2, minCount);
+            if (prefix != null) {
+                statement.setString(3, escapeLike(prefix) + "%");
+            }
+            return statement;
+        };
+        try {
+            jdbcTemplate.query(query, (RowCallbackHandler) row -> {
+                try {
+                    consumer.accept(row.getString(1), row.getLong(2));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw new DataAccessResourceFailureException("Failed handing words to consumer", e.getCause());
+        }
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    private int[] updateExisting(List<Entry<String, Long>> batch) {
+        return jdbcTemplate.batchUpdate(UPDATE_COUNT, batch, batch.size(), (statement, entry) -> {
+            statement.setLong(1, entry.getValue());
+            statement.setString(2, WordKeys.namespaceOf(entry.getKey()));
+            statement.setString(3, WordKeys.wordOf(entry.getKey()));
+        })[0];
+    }
+
+    private int insertMissing(List<Entry<String, Long>> batch, int[] updateCounts) {
+        List<Entry<String, Long>> missing = new ArrayList<>();
+        for (int i = 0; i < updateCounts.length; i++) {
+            if (updateCounts[i] == 0) {
+                missing.add(batch.get(i));
+            }
+        }
+        if (!missing.isEmpty()) {
+            log.debug("Inserting {} new words", missing.size());
+            jdbcTemplate.batchUpdate(INSERT_WORD, missing, missing.size(), (statement, entry) -> {
+                statement.setString(1, WordKeys.namespaceOf(entry.getKey()));
+                statement.setString(2, WordKeys.wordOf(entry.getKey()));
+                statement.setLong(3, entry.getValue());
+            });
+        }
+        return missing.size();
+    }
+}
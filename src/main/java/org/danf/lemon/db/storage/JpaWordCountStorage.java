@@ -0,0 +1,99 @@
+package org.danf.lemon.db.storage;
+
+import org.danf.lemon.db.entity.WordEntity;
+import org.danf.lemon.db.repo.WordsRepo;
+import org.danf.lemon.db.repo.WordsRepoCustom.WordCountConsumer;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores word counts in the <pre>words</pre> table through the {@link WordsRepo}, the default storage.
+ * Checkpoints are kept in the <pre>wal_checkpoint</pre> table (see
+ * {@link org.danf.lemon.db.entity.WalCheckpointEntity}) and updated in the same transaction as the counts.
+ *
+ * @author Dan Feldman
+ */
+public class JpaWordCountStorage implements WordCountStorage {
+
+    private static final String SELECT_CHECKPOINT = "SELECT lsn FROM wal_checkpoint WHERE id = 1";
+    private static final String UPDATE_CHECKPOINT = "UPDATE wal_checkpoint SET lsn = ? WHERE id = 1";
+    private static final String INSERT_CHECKPOINT = "INSERT INTO wal_checkpoint (id, lsn) VALUES (1, ?)";
+
+    private WordsRepo wordsRepo;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+
+    public JpaWordCountStorage(WordsRepo wordsRepo, JdbcTemplate jdbcTemplate,
+            PlatformTransactionManager transactionManager) {
+        this.wordsRepo = wordsRepo;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @Override
+    public long getCount(String word) {
+        return wordsRepo.findById(WordEntity.Key.of(word)).map(WordEntity::getCount).orElse(0L);
+    }
+
+    @Override
+    public Map<String, Long> getCounts(Collection<String> words) {
+        return wordsRepo.getCounts(words);
+    }
+
+    @Override
+    public int addToCounts(Map<String, Long> deltas, long checkpoint) {
+        Integer created = transactionTemplate.execute(status -> {
+            int newWords = wordsRepo.addToCounts(deltas);
+            if (checkpoint != 0 && jdbcTemplate.update(UPDATE_CHECKPOINT, checkpoint) == 0) {
+                jdbcTemplate.update(INSERT_CHECKPOINT, checkpoint);
+            }
+            return newWords;
+        });
+        return created == null ? 0 : created;
+    }
+
+    @Override
+    public boolean delete(String word) {
+        return Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+            WordEntity.Key key = WordEntity.Key.of(word);
+            if (!wordsRepo.existsById(key)) {
+                return false;
+            }
+            wordsRepo.deleteById(key);
+            return true;
+        }));
+    }
+
+    @Override
+    public int deleteNamespace(String namespace) {
+        return wordsRepo.deleteNamespace(namespace);
+    }
+
+    @Override
+    public List<WordEntity> findTopCounts(int limit) {
+        return wordsRepo.findTopCounts(WordKeys.DEFAULT_NAMESPACE, PageRequest.of(0, limit));
+    }
+
+    @Override
+    public List<WordEntity> findByPrefix(String prefix, Pageable pageable) {
+        return wordsRepo.findByNamespaceAndWordStartingWith(WordKeys.DEFAULT_NAMESPACE, prefix, pageable);
+    }
+
+    @Override
+    public void forEachWord(long minCount, String prefix, WordCountConsumer consumer) {
+        wordsRepo.forEachWord(WordKeys.DEFAULT_NAMESPACE, minCount, prefix, consumer);
+    }
+
+    @Override
+    public long getCheckpoint() {
+        List<Long> lsn = jdbcTemplate.queryForList(SELECT_CHECKPOINT, Long.class);
+        return lsn.isEmpty() ? 0 : lsn.get(0);
+    }
+}
@@ -0,0 +1,500 @@
+package org.danf.lemon.db.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.danf.lemon.db.entity.WordEntity;
+import org.danf.lemon.db.repo.WordsRepoCustom.WordCountConsumer;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.domain.Pageable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * An embedded, log-structured word count store: no JPA, no SQL and no transactions, only a sorted in-memory map of all
+ * counts backed by two files on disk.
+ * A snapshot holds every word and its count at some point in time, and a log holds every write since: each write is a
+ * single record with the new (absolute) counts of the words it changed, appended and optionally forced to disk before
+ * it's applied to the map. Once the log grows larger than both the snapshot and
+ * <pre>lemon.storage.log.compaction-threshold-bytes</pre> the map is written to a new snapshot and the log starts over
+ * (see {@link #compact()}), so the files stay proportional to the number of distinct words rather than to the number
+ * of writes.
+ * On startup the snapshot is loaded and the log replayed, a record that was torn by a crash is detected by its checksum
+ * and truncated.
+ *
+ * Files are named after their generation, which is incremented by every compaction: <pre>snapshot-N.dat</pre> and
+ * <pre>log-N.dat</pre>. A new snapshot is written to a temp file and moved into place, so there's always a complete
+ * one, files of older generations are deleted once it's in place. Any other file in the directory is left alone.
+ * Snapshot layout: <pre>[long checkpoint][int words]</pre> followed by <pre>[int word length][utf-8 word][long count]
+ * </pre> per word and a crc32 of everything before it. Log record layout:
+ * <pre>[int payload length][int crc32 of payload][byte type][long checkpoint][int words]</pre> followed by the same
+ * entries (a delete record has a count of 0, a namespace delete record has a single entry of the namespace's key
+ * prefix).
+ *
+ * A record that fails to be written is truncated from the log right away, so the records after it aren't lost behind
+ * a torn one on the next startup. If the log can't be truncated back the store rejects all further writes.
+ *
+ * Implementation note:
+ * All words are held in memory, which the in-memory search index does anyway. Reads are served from the map without
+ * locking, writes are serialized.
+ * Keys of named namespaces all start with <pre>\0</pre> (see {@link WordKeys}), so the words of a namespace are a
+ * contiguous range of the map. Listing the default namespace skips over them.
+ *
+ * @author Dan Feldman
+ */
+@Slf4j
+public class LogWordCountStorage implements WordCountStorage, Closeable {
+
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final byte DELETE_NAMESPACE = 3;
+    private static final int RECORD_HEADER_BYTES = Integer.BYTES * 2;
+    private static final int PAYLOAD_HEADER_BYTES = 1 + Long.BYTES + Integer.BYTES;
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String LOG_PREFIX = "log-";
+    private static final String SUFFIX = ".dat";
+    private static final String TEMP_SUFFIX = ".tmp";
+    /**
+     * Matches the name of every file of the store, the generation is the second group.
+     */
+    private static final Pattern FILE_NAME = Pattern.compile("(snapshot|log)-(\\d{20})\\.dat(\\.tmp)?");
+    private static final Comparator<WordEntity> BY_COUNT = Comparator.comparingLong(WordEntity::getCount).reversed()
+            .thenComparing(WordEntity::getWord);
+
+    private final ConcurrentSkipListMap<String, Long> counts = new ConcurrentSkipListMap<>();
+    private final Object writeLock = new Object();
+    private final Path directory;
+    private final long compactionThresholdBytes;
+    private final boolean fsync;
+    private final LogOpener logOpener;
+
+    private volatile long checkpoint;
+    private long generation;
+    private long snapshotBytes;
+    private FileChannel logChannel;
+    private long logBytes;
+    /**
+     * Set once a failed write couldn't be truncated from the log, the log must not be appended to after that.
+     */
+    private IOException failure;
+
+    private LogWordCountStorage(Path directory, long compactionThresholdBytes, boolean fsync, LogOpener logOpener) {
+        this.directory = directory.toAbsolutePath();
+        this.compactionThresholdBytes = compactionThresholdBytes;
+        this.fsync = fsync;
+        this.logOpener = logOpener;
+    }
+
+    /**
+     * Opens the store in {@param directory}, creating an empty one if there's none.
+     */
+    public static LogWordCountStorage open(Path directory, long compactionThresholdBytes, boolean fsync)
+            throws IOException {
+        return open(directory, compactionThresholdBytes, fsync,
+                file -> FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE));
+    }
+
+    /**
+     * Same as {@link #open(Path, long, boolean)}, with log files opened by {@param logOpener}.
+     */
+    public static LogWordCountStorage open(Path directory, long compactionThresholdBytes, boolean fsync,
+            LogOpener logOpener) throws IOException {
+        LogWordCountStorage storage = new LogWordCountStorage(directory, compactionThresholdBytes, fsync, logOpener);
+        storage.load();
+        return storage;
+    }
+
+    @Override
+    public long getCount(String word) {
+        return counts.getOrDefault(word, 0L);
+    }
+
+    @Override
+    public Map<String, Long> getCounts(Collection<String> words) {
+        Map<String, Long> found = new HashMap<>();
+        for (String word : words) {
+            Long count = counts.get(word);
+            if (count != null) {
+                found.put(word, count);
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public int addToCounts(Map<String, Long> deltas, long checkpoint) {
+        synchronized (writeLock) {
+            Map<String, Long> updated = new HashMap<>(deltas.size());
+            int created = 0;
+            for (Map.Entry<String, Long> delta : deltas.entrySet()) {
+                Long count = counts.get(delta.getKey());
+                if (count == null) {
+                    created++;
+                    count = 0L;
+                }
+                updated.put(delta.getKey(), Math.addExact(count, delta.getValue()));
+            }
+            long newCheckpoint = checkpoint != 0 ? checkpoint : this.checkpoint;
+            append(PUT, newCheckpoint, updated);
+            counts.putAll(updated);
+            this.checkpoint = newCheckpoint;
+            compactIfNeeded();
+            return created;
+        }
+    }
+
+    @Override
+    public boolean delete(String word) {
+        synchronized (writeLock) {
+            if (!counts.containsKey(word)) {
+                return false;
+            }
+            append(DELETE, checkpoint, Collections.singletonMap(word, 0L));
+            counts.remove(word);
+            compactIfNeeded();
+            return true;
+        }
+    }
+
+    @Override
+    public int deleteNamespace(String namespace) {
+        synchronized (writeLock) {
+            String prefix = WordKeys.prefixOf(namespace);
+            NavigableMap<String, Long> words = range(prefix);
+            int deleted = words.size();
+            if (deleted == 0) {
+                return 0;
+            }
+            append(DELETE_NAMESPACE, checkpoint, Collections.singletonMap(prefix, 0L));
+            words.clear();
+            compactIfNeeded();
+            return deleted;
+        }
+    }
+
+    @Override
+    public List<WordEntity> findTopCounts(int limit) {
+        return top(counts, 0, limit);
+    }
+
+    @Override
+    public List<WordEntity> findByPrefix(String prefix, Pageable pageable) {
+        NavigableMap<String, Long> range = range(WordKeys.key(WordKeys.DEFAULT_NAMESPACE, prefix));
+        long offset = pageable.getOffset();
+        int size = pageable.getPageSize();
+        if (pageable.getSort().getOrderFor("count") == null) {
+            return range.entrySet().stream()
+                    .filter(entry -> WordKeys.isDefaultNamespace(entry.getKey()))
+                    .skip(offset)
+                    .limit(size)
+                    .map(entry -> new WordEntity(WordKeys.wordOf(entry.getKey()), entry.getValue()))
+                    .collect(Collectors.toList());
+        }
+        return top(range, offset, size);
+    }
+
+    @Override
+    public void forEachWord(long minCount, String prefix, WordCountConsumer consumer) {
+        try {
+            String from = WordKeys.key(WordKeys.DEFAULT_NAMESPACE, prefix == null ? "" : prefix);
+            for (Map.Entry<String, Long> entry : range(from).entrySet()) {
+                if (entry.getValue() >= minCount && WordKeys.isDefaultNamespace(entry.getKey())) {
+                    consumer.accept(WordKeys.wordOf(entry.getKey()), entry.getValue());
+                }
+            }
+        } catch (IOException e) {
+            throw new DataAccessResourceFailureException("Failed handing words to consumer", e);
+        }
+    }
+
+    @Override
+    public long getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * Writes all counts to a new snapshot and starts a new, empty log. Runs automatically once the log grows large
+     * enough, may also be called to take a snapshot at any time (i.e. before backing up the directory).
+     */
+    public void compact() throws IOException {
+        synchronized (writeLock) {
+            long next = generation + 1;
+            Path snapshot = file(SNAPSHOT_PREFIX, next);
+            Path temp = directory.resolve(snapshot.getFileName() + TEMP_SUFFIX);
+            writeSnapshot(temp);
+            Files.move(temp, snapshot, StandardCopyOption.ATOMIC_MOVE);
+            FileChannel nextLog = openLog(next);
+            logChannel.close();
+            Files.deleteIfExists(file(LOG_PREFIX, generation));
+            Files.deleteIfExists(file(SNAPSHOT_PREFIX, generation));
+            logChannel = nextLog;
+            logBytes = 0;
+            snapshotBytes = Files.size(snapshot);
+            generation = next;
+            log.debug("Compacted word counts into snapshot '{}' of {} bytes", snapshot, snapshotBytes);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            if (logChannel.isOpen()) {
+                logChannel.force(false);
+                logChannel.close();
+            }
+        }
+    }
+
+    private void load() throws IOException {
+        Files.createDirectories(directory);
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list.collect(Collectors.toList());
+        }
+        generation = files.stream()
+                .map(file -> FILE_NAME.matcher(file.getFileName().toString()))
+                .filter(name -> name.matches() && name.group(1).equals("snapshot") && name.group(3) == null)
+                .mapToLong(name -> Long.parseLong(name.group(2)))
+                .max()
+                .orElse(0);
+        Path snapshot = file(SNAPSHOT_PREFIX, generation);
+        if (Files.exists(snapshot)) {
+            readSnapshot(snapshot);
+            snapshotBytes = Files.size(snapshot);
+        }
+        Path logFile = file(LOG_PREFIX, generation);
+        if (Files.exists(logFile)) {
+            replay(logFile);
+        }
+        // Leftovers of compactions that were interrupted, or that finished before their old files were deleted
+        for (Path file : files) {
+            Matcher name = FILE_NAME.matcher(file.getFileName().toString());
+            if (name.matches() && (name.group(3) != null || Long.parseLong(name.group(2)) < generation)) {
+                log.debug("Deleting stale word count file '{}'", file);
+                Files.delete(file);
+            }
+        }
+        logChannel = openLog(generation);
+        logBytes = logChannel.size();
+        logChannel.position(logBytes);
+        log.info("Opened word count store in '{}' with {} words", directory, counts.size());
+    }
+
+    private void readSnapshot(Path snapshot) throws IOException {
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(snapshot)), crc))) {
+            long snapshotCheckpoint = in.readLong();
+            int words = in.readInt();
+            for (int i = 0; i < words; i++) {
+                byte[] word = new byte[in.readInt()];
+                in.readFully(word);
+                counts.put(new String(word, UTF_8), in.readLong());
+            }
+            long expected = crc.getValue();
+            if (in.readInt() != (int) expected) {
+                throw new IOException("Corrupted word count snapshot '" + snapshot + "'");
+            }
+            checkpoint = snapshotCheckpoint;
+        }
+    }
+
+    private void writeSnapshot(Path snapshot) throws IOException {
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel)), crc));
+            out.writeLong(checkpoint);
+            out.writeInt(counts.size());
+            for (Map.Entry<String, Long> entry : counts.entrySet()) {
+                byte[] word = entry.getKey().getBytes(UTF_8);
+                out.writeInt(word.length);
+                out.write(word);
+                out.writeLong(entry.getValue());
+            }
+            out.writeInt((int) crc.getValue());
+            out.flush();
+            channel.force(true);
+        }
+    }
+
+    private void replay(Path logFile) throws IOException {
+        long validBytes = 0;
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            while (buffer.hasRemaining() && readRecord(buffer)) {
+                validBytes = buffer.position();
+            }
+            if (validBytes == channel.size()) {
+                return;
+            }
+        }
+        log.warn("Truncating torn word count log record at offset {} of '{}'", validBytes, logFile);
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.WRITE)) {
+            channel.truncate(validBytes);
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Applies the record at the position of {@param buffer} to the map.
+     *
+     * @return false if the record is incomplete or corrupted.
+     */
+    private boolean readRecord(ByteBuffer buffer) {
+        try {
+            int payloadLength = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (payloadLength < PAYLOAD_HEADER_BYTES || payloadLength > buffer.remaining()) {
+                return false;
+            }
+            byte[] payload = new byte[payloadLength];
+            buffer.get(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                return false;
+            }
+            ByteBuffer record = ByteBuffer.wrap(payload);
+            byte type = record.get();
+            checkpoint = record.getLong();
+            int words = record.getInt();
+            for (int i = 0; i < words; i++) {
+                byte[] word = new byte[record.getInt()];
+                record.get(word);
+                long count = record.getLong();
+                if (type == DELETE_NAMESPACE) {
+                    range(new String(word, UTF_8)).clear();
+                } else if (type == DELETE) {
+                    counts.remove(new String(word, UTF_8));
+                } else {
+                    counts.put(new String(word, UTF_8), count);
+                }
+            }
+            return true;
+        } catch (BufferUnderflowException | NegativeArraySizeException e) {
+            return false;
+        }
+    }
+
+    private void append(byte type, long recordCheckpoint, Map<String, Long> entries) {
+        List<byte[]> words = new ArrayList<>(entries.size());
+        int size = RECORD_HEADER_BYTES + PAYLOAD_HEADER_BYTES;
+        for (String word : entries.keySet()) {
+            byte[] bytes = word.getBytes(UTF_8);
+            words.add(bytes);
+            size += Integer.BYTES + bytes.length + Long.BYTES;
+        }
+        ByteBuffer record = ByteBuffer.allocate(size);
+        record.position(RECORD_HEADER_BYTES);
+        record.put(type).putLong(recordCheckpoint).putInt(entries.size());
+        int i = 0;
+        for (Long count : entries.values()) {
+            byte[] word = words.get(i++);
+            record.putInt(word.length).put(word).putLong(count);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), RECORD_HEADER_BYTES, size - RECORD_HEADER_BYTES);
+        record.putInt(0, size - RECORD_HEADER_BYTES).putInt(Integer.BYTES, (int) crc.getValue());
+        record.rewind();
+        if (failure != null) {
+            throw new DataAccessResourceFailureException("Word count log failed earlier, restart to recover", failure);
+        }
+        try {
+            while (record.hasRemaining()) {
+                logChannel.write(record);
+            }
+            if (fsync) {
+                logChannel.force(false);
+            }
+        } catch (IOException e) {
+            discardTornRecord(e);
+            throw new DataAccessResourceFailureException("Failed writing to word count log", e);
+        }
+        logBytes += size;
+    }
+
+    /**
+     * Cuts whatever part of a failed record was written off the log, so the next record starts where it would have.
+     */
+    private void discardTornRecord(IOException writeFailure) {
+        try {
+            logChannel.truncate(logBytes);
+            logChannel.position(logBytes);
+        } catch (IOException e) {
+            log.error("Failed truncating torn record from word count log, rejecting further writes: {}",
+                    e.getMessage());
+            writeFailure.addSuppressed(e);
+            failure = writeFailure;
+        }
+    }
+
+    private void compactIfNeeded() {
+        if (logBytes > compactionThresholdBytes && logBytes > snapshotBytes) {
+            try {
+                compact();
+            } catch (IOException e) {
+                // The log is still intact, compaction is retried by the next write
+                log.error("Failed compacting word count log: {}", e.getMessage());
+            }
+        }
+    }
+
+    private FileChannel openLog(long logGeneration) throws IOException {
+        return logOpener.open(file(LOG_PREFIX, logGeneration));
+    }
+
+    private Path file(String prefix, long fileGeneration) {
+        return directory.resolve(String.format("%s%020d%s", prefix, fileGeneration, SUFFIX));
+    }
+
+    private NavigableMap<String, Long> range(String prefix) {
+        return SortedWords.withPrefix(counts, prefix);
+    }
+
+    private static List<WordEntity> top(NavigableMap<String, Long> words, long offset, int size) {
+        Stream<WordEntity> entities = words.entrySet().stream()
+                .filter(entry -> WordKeys.isDefaultNamespace(entry.getKey()))
+                .map(entry -> new WordEntity(WordKeys.wordOf(entry.getKey()), entry.getValue()));
+        return SortedWords.topPage(entities, offset, size, BY_COUNT);
+    }
+
+    /**
+     * Opens a log file for writing, creating it if it doesn't exist.
+     */
+    @FunctionalInterface
+    public interface LogOpener {
+
+        FileChannel open(Path file) throws IOException;
+    }
+}
@@ -0,0 +1,62 @@
+package org.danf.lemon.db.storage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.stream.Stream;
+
+/**
+ * Prefix ranges and top-k pages over words kept in memory in a sorted map, shared by the in-memory backends
+ * (the {@link LogWordCountStorage} and the search index).
+ *
+ * @author Dan Feldman
+ */
+public final class SortedWords {
+
+    private SortedWords() {
+    }
+
+    /**
+     * All words starting with {@param prefix} are between it (inclusive) and the prefix with its last char
+     * incremented (exclusive).
+     *
+     * @return A view of the words of {@param words} that start with {@param prefix}, all of them if it's empty.
+     */
+    public static <V> NavigableMap<String, V> withPrefix(NavigableMap<String, V> words, String prefix) {
+        int last = prefix.length() - 1;
+        while (last >= 0 && prefix.charAt(last) == Character.MAX_VALUE) {
+            last--;
+        }
+        if (last < 0) {
+            return prefix.isEmpty() ? words : words.tailMap(prefix, true);
+        }
+        String upperBound = prefix.substring(0, last) + (char) (prefix.charAt(last) + 1);
+        return words.subMap(prefix, true, upperBound, false);
+    }
+
+    /**
+     * Reads all of {@param items} but only keeps the top ones up to the requested page in a bounded heap.
+     *
+     * @return The {@param size} items that follow the first {@param offset} ones when sorted by {@param order}.
+     */
+    public static <T> List<T> topPage(Stream<T> items, long offset, int size, Comparator<? super T> order) {
+        if (offset + size > Integer.MAX_VALUE) {
+            return Collections.emptyList();
+        }
+        int keep = (int) offset + size;
+        // Lowest ranked on top, so it's the one evicted once the heap holds more than needed
+        PriorityQueue<T> top = new PriorityQueue<>(Math.min(keep, 1024) + 1, order.reversed());
+        items.forEach(item -> {
+            top.offer(item);
+            if (top.size() > keep) {
+                top.poll();
+            }
+        });
+        List<T> sorted = new ArrayList<>(top);
+        sorted.sort(order);
+        return offset >= sorted.size() ? Collections.emptyList() : sorted.subList((int) offset, sorted.size());
+    }
+}
@@ -0,0 +1,86 @@
+package org.danf.lemon.db.storage;
+
+import org.danf.lemon.db.entity.WordEntity;
+import org.danf.lemon.db.repo.WordsRepoCustom.WordCountConsumer;
+import org.springframework.data.domain.Pageable;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Where word counts are persisted, selected by <pre>lemon.storage.type</pre> (see
+ * {@link org.danf.lemon.config.StorageConfig}):
+ * {@link JpaWordCountStorage} keeps them in the <pre>words</pre> table, {@link LogWordCountStorage} in an embedded
+ * log-structured store of its own that skips JPA and SQL altogether.
+ * Counts are only ever written by the {@link org.danf.lemon.service.WriteBehindWordCounter}, a single flush at a time,
+ * while reads may run concurrently with writes.
+ * Words are given by their key, which includes their namespace (see {@link WordKeys}). Listing words (top counts,
+ * prefix searches and iteration) only covers the default namespace, the words it returns are plain words.
+ *
+ * @author Dan Feldman
+ */
+public interface WordCountStorage {
+
+    /**
+     * @return The count of {@param word}, 0 if it doesn't exist.
+     */
+    long getCount(String word);
+
+    /**
+     * @return The counts of those of {@param words} that exist.
+     */
+    Map<String, Long> getCounts(Collection<String> words);
+
+    /**
+     * Adds each of the counts in {@param deltas} to its word's count, creating words that don't exist yet.
+     * Unless it's 0, {@param checkpoint} is stored as the last record of the write-ahead log the counts cover,
+     * atomically with the counts themselves (see {@link #getCheckpoint()}).
+     *
+     * @return The number of words that were created.
+     */
+    int addToCounts(Map<String, Long> deltas, long checkpoint);
+
+    /**
+     * Same as {@link #addToCounts(Map, long)} without a checkpoint.
+     */
+    default int addToCounts(Map<String, Long> deltas) {
+        return addToCounts(deltas, 0);
+    }
+
+    /**
+     * Removes {@param word} and its count.
+     *
+     * @return Whether the word existed.
+     */
+    boolean delete(String word);
+
+    /**
+     * Removes all words of {@param namespace}, which must not be the default one.
+     *
+     * @return The number of removed words.
+     */
+    int deleteNamespace(String namespace);
+
+    /**
+     * @return The {@param limit} words with the highest counts, highest first.
+     */
+    List<WordEntity> findTopCounts(int limit);
+
+    /**
+     * @return A page of the words starting with {@param prefix}, sorted by word or by count (highest first, ties
+     * broken by word) according to the sort of {@param pageable}.
+     */
+    List<WordEntity> findByPrefix(String prefix, Pageable pageable);
+
+    /**
+     * Hands the words with a count of at least {@param minCount} that start with {@param prefix} (any word if it's
+     * null) to {@param consumer} one by one, without holding them all in memory.
+     */
+    void forEachWord(long minCount, String prefix, WordCountConsumer consumer);
+
+    /**
+     * @return The last checkpoint given to {@link #addToCounts(Map, long)}, 0 if there was none.
+     */
+    long getCheckpoint();
+}
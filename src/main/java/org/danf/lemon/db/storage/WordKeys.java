@@ -0,0 +1,59 @@
+package org.danf.lemon.db.storage;
+
+/**
+ * Words are counted separately per namespace (i.e. one per team or corpus), the namespace of a word is carried along
+ * with it through the counting path as part of a single string key so that pending counts, the write-ahead log and
+ * the caches don't need to know about namespaces at all. Only the {@link WordCountStorage} splits keys back into a
+ * namespace and a word.
+ * Words of the default (empty) namespace are their own key, words of any other namespace are keyed by
+ * <pre>\0namespace\0word</pre>. Words of the default namespace that start with <pre>\0</pre> themselves are keyed by
+ * <pre>\0\0word</pre> so that keys are never ambiguous, a key is of a named namespace only if it starts with
+ * <pre>\0</pre> followed by any other char.
+ *
+ * @author Dan Feldman
+ */
+public final class WordKeys {
+
+    public static final String DEFAULT_NAMESPACE = "";
+
+    private static final char SEPARATOR = '\0';
+
+    private WordKeys() {
+    }
+
+    /**
+     * @return The key of {@param word} in {@param namespace}.
+     */
+    public static String key(String namespace, String word) {
+        if (namespace.isEmpty() && (word.isEmpty() || word.charAt(0) != SEPARATOR)) {
+            return word;
+        }
+        return SEPARATOR + namespace + SEPARATOR + word;
+    }
+
+    public static String namespaceOf(String key) {
+        return isEscaped(key) ? key.substring(1, key.indexOf(SEPARATOR, 1)) : DEFAULT_NAMESPACE;
+    }
+
+    public static String wordOf(String key) {
+        return isEscaped(key) ? key.substring(key.indexOf(SEPARATOR, 1) + 1) : key;
+    }
+
+    /**
+     * @return Whether {@param key} is of a word in the default namespace.
+     */
+    public static boolean isDefaultNamespace(String key) {
+        return !isEscaped(key) || key.charAt(1) == SEPARATOR;
+    }
+
+    /**
+     * @return The prefix all keys of {@param namespace} start with, which must not be the default one.
+     */
+    public static String prefixOf(String namespace) {
+        return SEPARATOR + namespace + SEPARATOR;
+    }
+
+    private static boolean isEscaped(String key) {
+        return !key.isEmpty() && key.charAt(0) == SEPARATOR;
+    }
+}
@@ -0,0 +1,188 @@
+package org.danf.lemon.rest.helper;
+
+import lombok.extern.slf4j.Slf4j;
+import org.danf.lemon.config.FileCountProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.ForbiddenException;
+import javax.ws.rs.NotFoundException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+/**
+ * Resolves the <pre>filePath</pre> param of count requests to the files it refers to: a single file, all regular
+ * files under a directory (recursively) or all files matching a glob (i.e. <pre>/var/log/app/*.log.gz</pre>).
+ * A path that exists as given is never treated as a glob, so files named like <pre>report[1].txt</pre> can still be
+ * counted.
+ * Only a glob with <pre>**</pre> in it is searched for recursively, any other glob can only match as many directories
+ * deep as it has separators so the walk stops there.
+ *
+ * When {@link FileCountProperties#getRootDir()} is set every resolved file must reside under it (after following
+ * symbolic links), so <pre>../</pre> tricks and links can't be used to read arbitrary files.
+ *
+ * @author Dan Feldman
+ */
+@Slf4j
+@Component
+public class FilePathResolver {
+
+    private static final String GLOB_CHARS = "*?[{";
+
+    private FileCountProperties properties;
+
+    @Autowired
+    public FilePathResolver(FileCountProperties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * @return Whether {@param filePath} may refer to more than one file.
+     */
+    public boolean isMultiFile(String filePath) {
+        return isGlob(filePath) || Files.isDirectory(toPath(filePath));
+    }
+
+    /**
+     * @return The files {@param filePath} refers to, sorted by path.
+     */
+    public List<File> resolve(String filePath) {
+        if (isBlank(filePath)) {
+            throw new BadRequestException("Got filePath query param but no value");
+        }
+        Path root = root();
+        List<Path> files;
+        if (isGlob(filePath)) {
+            files = glob(filePath, root);
+        } else {
+            Path path = toPath(filePath);
+            if (!Files.exists(path)) {
+                throw notFound("File '" + filePath + "' doesn't exist.");
+            }
+            checkUnderRoot(root, path);
+            files = Files.isDirectory(path) ? walk(path, file -> true, Integer.MAX_VALUE) : Collections.singletonList(path);
+        }
+        if (files.isEmpty()) {
+            throw notFound("No files match '" + filePath + "'.");
+        }
+        if (files.size() > properties.getMaxFiles()) {
+            throw new BadRequestException("'" + filePath + "' matches " + files.size() + " files, at most " +
+                    properties.getMaxFiles() + " are allowed.");
+        }
+        // Links under the root may still point outside of it
+        for (Path file : files) {
+            checkUnderRoot(root, file);
+        }
+        return files.stream().map(Path::toFile).collect(Collectors.toList());
+    }
+
+    private List<Path> glob(String filePath, Path root) {
+        int firstGlobChar = filePath.length();
+        for (char globChar : GLOB_CHARS.toCharArray()) {
+            int index = filePath.indexOf(globChar);
+            if (index >= 0) {
+                firstGlobChar = Math.min(firstGlobChar, index);
+            }
+        }
+        int baseEnd = filePath.lastIndexOf(File.separatorChar, firstGlobChar);
+        Path base = toPath(baseEnd < 0 ? "" : filePath.substring(0, baseEnd + 1));
+        if (!Files.isDirectory(base)) {
+            throw notFound("Directory '" + base + "' doesn't exist.");
+        }
+        checkUnderRoot(root, base);
+        String relativePattern = filePath.substring(baseEnd + 1);
+        String pattern = base.resolve(relativePattern).toString();
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        return walk(base, matcher, globDepth(relativePattern));
+    }
+
+    /**
+     * Only <pre>**</pre> crosses directories, otherwise every separator of {@param relativePattern} (even one in an
+     * alternative of a <pre>{...}</pre> group) is at most one more level below the base directory.
+     */
+    private static int globDepth(String relativePattern) {
+        if (relativePattern.contains("**")) {
+            return Integer.MAX_VALUE;
+        }
+        return (int) relativePattern.chars().filter(c -> c == File.separatorChar).count() + 1;
+    }
+
+    private List<Path> walk(Path directory, PathMatcher matcher, int maxDepth) {
+        try (Stream<Path> paths = Files.walk(directory, maxDepth)) {
+            return paths.filter(Files::isRegularFile)
+                    .filter(matcher::matches)
+                    .sorted()
+                    .collect(Collectors.toList());
+        } catch (IOException | UncheckedIOException e) {
+            log.error("Failed listing files under '{}' : {}", directory, e.getMessage());
+            throw new BadRequestException("Failed listing files under '" + directory + "'");
+        }
+    }
+
+    private void checkUnderRoot(Path root, Path file) {
+        if (root == null) {
+            return;
+        }
+        try {
+            if (file.toRealPath().startsWith(root)) {
+                return;
+            }
+        } catch (IOException e) {
+            log.debug("", e);
+        }
+        log.error("Rejected path '{}' outside of root directory '{}'", file, root);
+        throw new ForbiddenException("Path '" + file + "' is outside of the allowed root directory.");
+    }
+
+    /**
+     * Relative paths are resolved against the root directory, if there is one.
+     */
+    private Path toPath(String filePath) {
+        Path path = Paths.get(filePath);
+        String rootDir = properties.getRootDir();
+        return (isBlank(rootDir) ? path.toAbsolutePath() : Paths.get(rootDir).toAbsolutePath().resolve(path))
+                .normalize();
+    }
+
+    private Path root() {
+        String rootDir = properties.getRootDir();
+        if (isBlank(rootDir)) {
+            return null;
+        }
+        try {
+            return Paths.get(rootDir).toRealPath();
+        } catch (IOException e) {
+            throw new IllegalStateException("Configured root directory '" + rootDir + "' doesn't exist", e);
+        }
+    }
+
+    private boolean isGlob(String filePath) {
+        if (filePath == null || filePath.chars().noneMatch(c -> GLOB_CHARS.indexOf(c) >= 0)) {
+            return false;
+        }
+        try {
+            return !Files.exists(toPath(filePath));
+        } catch (InvalidPathException e) {
+            return true;
+        }
+    }
+
+    private static NotFoundException notFound(String err) {
+        log.error(err);
+        return new NotFoundException(err);
+    }
+}
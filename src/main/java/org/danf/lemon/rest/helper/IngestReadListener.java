@@ -0,0 +1,164 @@
+package org.danf.lemon.rest.helper;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.danf.lemon.service.StreamingCount;
+import org.danf.lemon.service.job.CountJobStatus;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reads the body of an ingest request with Servlet 3.1 non-blocking I/O and feeds it to a {@link StreamingCount}.
+ * The container calls {@link #onDataAvailable()} whenever some of the body can be read without blocking, so no thread
+ * is held while waiting on a slow client. The response is the final {@link CountJobStatus} of the request as JSON, or
+ * a line of NDJSON per status if progress was requested: one every {@code progressIntervalMs} while the body is read
+ * and the final one once it's done.
+ *
+ * Implementation note:
+ * Only the request body is non-blocking, progress lines are small and are written in blocking mode from within the read
+ * callback. The request ends exactly once, by whichever of completion, an error or a timeout comes first.
+ * The embedded Tomcat (9.0.22) keeps reporting chunked bodies as ready and blocks on their next chunk, so these are
+ * still counted as they arrive but in a single callback. Bodies with a <pre>Content-Length</pre> are fully
+ * non-blocking.
+ *
+ * @author Dan Feldman
+ */
+@Slf4j
+class IngestReadListener implements ReadListener, AsyncListener {
+
+    private static final String NDJSON = "application/x-ndjson";
+
+    private final AsyncContext asyncContext;
+    private final ServletInputStream in;
+    private final StreamingCount count;
+    private final ObjectMapper objectMapper;
+    private final byte[] buffer;
+    /**
+     * Negative if the client didn't ask for progress.
+     */
+    private final long progressIntervalNanos;
+    private final AtomicBoolean finished = new AtomicBoolean();
+    private long lastProgressNanos = System.nanoTime();
+
+    IngestReadListener(AsyncContext asyncContext, StreamingCount count, ObjectMapper objectMapper, int bufferSize,
+            long progressIntervalMs) throws IOException {
+        this.asyncContext = asyncContext;
+        this.in = asyncContext.getRequest().getInputStream();
+        this.count = count;
+        this.objectMapper = objectMapper;
+        this.buffer = new byte[bufferSize];
+        this.progressIntervalNanos = progressIntervalMs < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(progressIntervalMs);
+    }
+
+    /**
+     * Starts reading the request body, the container takes it from here.
+     */
+    void start() {
+        asyncContext.addListener(this);
+        if (progressIntervalNanos >= 0) {
+            asyncContext.getResponse().setContentType(NDJSON);
+        }
+        in.setReadListener(this);
+    }
+
+    @Override
+    public void onDataAvailable() throws IOException {
+        int read;
+        while (in.isReady() && (read = in.read(buffer)) != -1) {
+            count.feed(buffer, 0, read);
+        }
+        if (progressIntervalNanos >= 0 && !in.isFinished() &&
+                System.nanoTime() - lastProgressNanos >= progressIntervalNanos) {
+            lastProgressNanos = System.nanoTime();
+            writeStatus();
+        }
+    }
+
+    @Override
+    public void onAllDataRead() {
+        if (!finished.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            count.complete();
+            respond(HttpStatus.OK);
+        } catch (Exception e) {
+            log.error("Failed to count words from incoming stream: {}", e.getMessage(), e);
+            respond(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        fail(t);
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+        fail(new TimeoutException("Incoming stream wasn't fully read within " + asyncContext.getTimeout() + "ms"));
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+        fail(event.getThrowable());
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+    }
+
+    private void fail(Throwable t) {
+        if (!finished.compareAndSet(false, true)) {
+            return;
+        }
+        log.error("Failed to read incoming stream: {}", t.getMessage());
+        log.debug("", t);
+        count.fail(t);
+        respond(HttpStatus.INTERNAL_SERVER_ERROR);
+    }
+
+    /**
+     * Writes the final status and ends the request, the status code is only set if no progress was written yet.
+     */
+    private void respond(HttpStatus status) {
+        try {
+            HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+            if (!response.isCommitted()) {
+                response.setStatus(status.value());
+                if (progressIntervalNanos < 0) {
+                    response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+                }
+            }
+            writeStatus();
+        } catch (IOException | IllegalStateException e) {
+            log.debug("Failed writing ingest response, the client may have gone away: {}", e.getMessage());
+        } finally {
+            asyncContext.complete();
+        }
+    }
+
+    private void writeStatus() throws IOException {
+        ServletOutputStream out = asyncContext.getResponse().getOutputStream();
+        out.write(objectMapper.writeValueAsBytes(count.getStatus()));
+        if (progressIntervalNanos >= 0) {
+            out.write('\n');
+        }
+        out.flush();
+    }
+}
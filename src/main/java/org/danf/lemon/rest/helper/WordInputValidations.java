@@ -3,16 +3,23 @@ package org.danf.lemon.rest.helper;
 import lombok.AccessLevel;
 import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.http.HttpResponse;
 import org.apache.http.StatusLine;
-import org.apache.http.client.fluent.Request;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.danf.lemon.db.storage.WordKeys;
+import org.danf.lemon.service.encoding.ContentEncoding;
+import org.danf.lemon.service.tokenizer.NormalizationProfiles;
+import org.danf.lemon.service.tokenizer.WordNormalizer;
 
 import javax.ws.rs.BadRequestException;
 import javax.ws.rs.NotFoundException;
-import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.time.Duration;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static org.apache.commons.lang3.StringUtils.isBlank;
 
@@ -25,18 +32,8 @@ import static org.apache.commons.lang3.StringUtils.isBlank;
 @NoArgsConstructor(access = AccessLevel.PRIVATE)
 class WordInputValidations {
 
-    static File validateFile(String filePath) {
-        if (isBlank(filePath)) {
-            throw new BadRequestException("Got filePath query param but no value");
-        }
-        File file = new File(filePath);
-        if (!file.exists()) {
-            String err = "File '" + filePath + "' doesn't exist.";
-            log.error(err);
-            throw new NotFoundException(err);
-        }
-        return file;
-    }
+    private static final Pattern NAMESPACE = Pattern.compile("[A-Za-z0-9._-]{1,64}");
+    private static final Pattern WINDOW = Pattern.compile("([1-9][0-9]{0,5})([mhd])");
 
     static URI validateUrl(String url) {
         try {
@@ -48,10 +45,87 @@ class WordInputValidations {
         }
     }
 
-    static void validateRemoteAddress(URI uri) {
-        String err = "Unable to reach remote address '" + uri.toString() + "' : ";
+    static ContentEncoding validateEncoding(String encoding) {
         try {
-            HttpResponse response = Request.Head(uri).execute().returnResponse();
+            return ContentEncoding.fromName(encoding);
+        } catch (IllegalArgumentException e) {
+            log.error(e.getMessage());
+            throw new BadRequestException(e.getMessage());
+        }
+    }
+
+    /**
+     * Only uncompressed input is accepted by the ingest endpoint, since its body is tokenized as it arrives.
+     */
+    static void validateIngestEncoding(String encoding) {
+        ContentEncoding ingestEncoding = validateEncoding(encoding);
+        if (ingestEncoding != ContentEncoding.AUTO && ingestEncoding != ContentEncoding.IDENTITY) {
+            String err = "Compressed input (" + encoding + ") can't be ingested, use the count endpoint instead";
+            log.error(err);
+            throw new BadRequestException(err);
+        }
+    }
+
+    /**
+     * @return The namespace words are counted under, the default namespace if {@param namespace} is blank.
+     */
+    static String validateNamespace(String namespace) {
+        if (isBlank(namespace)) {
+            return WordKeys.DEFAULT_NAMESPACE;
+        }
+        if (!NAMESPACE.matcher(namespace).matches()) {
+            String err = "Invalid namespace '" + namespace + "', namespaces are up to 64 letters, digits, '.', '_' " +
+                    "or '-'";
+            log.error(err);
+            throw new BadRequestException(err);
+        }
+        return namespace;
+    }
+
+    /**
+     * @return The duration of {@param window}, given as a number of minutes, hours or days (i.e. <pre>30m</pre>,
+     * <pre>1h</pre> or <pre>2d</pre>) of at most {@param maxWindow}.
+     */
+    static Duration validateWindow(String window, Duration maxWindow) {
+        Matcher matcher = WINDOW.matcher(window);
+        if (!matcher.matches()) {
+            String err = "Invalid window '" + window + "', windows are a number of minutes, hours or days (i.e. 1h)";
+            log.error(err);
+            throw new BadRequestException(err);
+        }
+        long amount = Long.parseLong(matcher.group(1));
+        Duration duration;
+        switch (matcher.group(2)) {
+            case "m":
+                duration = Duration.ofMinutes(amount);
+                break;
+            case "h":
+                duration = Duration.ofHours(amount);
+                break;
+            default:
+                duration = Duration.ofDays(amount);
+        }
+        if (duration.compareTo(maxWindow) > 0) {
+            String err = "Window '" + window + "' is longer than the retention of " + maxWindow.toHours() + "h, see " +
+                    "lemon.window.hour-retention-hours";
+            log.error(err);
+            throw new BadRequestException(err);
+        }
+        return duration;
+    }
+
+    static WordNormalizer validateProfile(String profile, NormalizationProfiles profiles) {
+        try {
+            return profiles.get(profile);
+        } catch (IllegalArgumentException e) {
+            log.error(e.getMessage());
+            throw new BadRequestException(e.getMessage());
+        }
+    }
+
+    static void validateRemoteAddress(URI uri, CloseableHttpClient httpClient) {
+        String err = "Unable to reach remote address '" + uri.toString() + "' : ";
+        try (CloseableHttpResponse response = httpClient.execute(new HttpHead(uri))) {
             StatusLine statusLine = response.getStatusLine();
             int status = statusLine.getStatusCode();
             if (!isRequestSuccessful(status)) {
@@ -1,18 +1,37 @@
 package org.danf.lemon.rest.helper;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.danf.lemon.config.IngestProperties;
+import org.danf.lemon.config.UrlFetchProperties;
+import org.danf.lemon.config.WindowProperties;
 import org.danf.lemon.rest.resource.WordResource;
+import org.danf.lemon.service.StreamingCount;
 import org.danf.lemon.service.WordOperationsService;
+import org.danf.lemon.service.encoding.ContentEncoding;
+import org.danf.lemon.service.job.CountJob;
+import org.danf.lemon.service.job.CountJobRegistry;
+import org.danf.lemon.service.tokenizer.NormalizationProfiles;
+import org.danf.lemon.service.tokenizer.WordNormalizer;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.time.Duration;
+import java.util.List;
 import java.util.concurrent.Future;
 
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
 import static org.danf.lemon.rest.helper.WordInputValidations.*;
 
 /**
@@ -25,36 +44,89 @@ import static org.danf.lemon.rest.helper.WordInputValidations.*;
 public class WordService {
 
     private WordOperationsService wordOperationsService;
+    private CountJobRegistry jobRegistry;
+    private FilePathResolver filePathResolver;
+    private CloseableHttpClient httpClient;
+    private UrlFetchProperties urlFetchProperties;
+    private NormalizationProfiles normalizationProfiles;
+    private IngestProperties ingestProperties;
+    private ObjectMapper objectMapper;
+    private WindowProperties windowProperties;
 
     @Autowired
-    public WordService(WordOperationsService wordOperationsService) {
+    public WordService(WordOperationsService wordOperationsService, CountJobRegistry jobRegistry,
+            FilePathResolver filePathResolver, CloseableHttpClient httpClient, UrlFetchProperties urlFetchProperties,
+            NormalizationProfiles normalizationProfiles, IngestProperties ingestProperties, ObjectMapper objectMapper,
+            WindowProperties windowProperties) {
         this.wordOperationsService = wordOperationsService;
+        this.jobRegistry = jobRegistry;
+        this.filePathResolver = filePathResolver;
+        this.httpClient = httpClient;
+        this.urlFetchProperties = urlFetchProperties;
+        this.normalizationProfiles = normalizationProfiles;
+        this.ingestProperties = ingestProperties;
+        this.objectMapper = objectMapper;
+        this.windowProperties = windowProperties;
     }
 
     /**
-     * Counts words in the incoming {@param stream}
+     * Counts words in the incoming {@param stream}, which is compressed with {@param encoding} if given, otherwise
+     * according to its {@param contentEncoding} header (or detected from its content if there's none).
+     * Words are normalized by the normalization {@param profile}, or the default one if it's not given, and counted
+     * under {@param namespace} (the default namespace if it's not given).
      */
-    public ResponseEntity countFromStream(InputStream in) {
+    public ResponseEntity countFromStream(InputStream in, String encoding, String contentEncoding, String profile,
+            String namespace) {
+        ContentEncoding streamEncoding = validateEncoding(isNotBlank(encoding) ? encoding : contentEncoding);
+        WordNormalizer normalizer = validateProfile(profile, normalizationProfiles);
+        String countNamespace = validateNamespace(namespace);
         try {
-            wordOperationsService.countFromStream(in);
+            wordOperationsService.countFromStream(in, streamEncoding, normalizer, countNamespace);
         } catch (Exception e) {
             return handleError("incoming stream", e);
         }
         return ResponseEntity.ok().build();
     }
 
+    /**
+     * Counts words in the body of {@param request} as it arrives without holding a container thread while waiting on
+     * the client (see {@link IngestReadListener}), the response is written once the entire body was read.
+     * Only uncompressed bodies are accepted, words are normalized by the normalization {@param profile}. Periodic
+     * {@param progress} is streamed back to the client if requested.
+     */
+    public void ingest(HttpServletRequest request, String encoding, String contentEncoding, String profile,
+            String namespace, boolean progress) throws IOException {
+        validateIngestEncoding(isNotBlank(encoding) ? encoding : contentEncoding);
+        WordNormalizer normalizer = validateProfile(profile, normalizationProfiles);
+        String countNamespace = validateNamespace(namespace);
+        AsyncContext asyncContext = request.startAsync();
+        asyncContext.setTimeout(ingestProperties.getTimeoutMs());
+        StreamingCount count = wordOperationsService.startStreamingCount("incoming stream", normalizer, countNamespace);
+        new IngestReadListener(asyncContext, count, objectMapper, ingestProperties.getBufferSize(),
+                progress ? ingestProperties.getProgressIntervalMs() : -1).start();
+    }
+
     /**
      * There's an obvious security risk in letting {@param filePath} be any path on the local filesystem since a user
      * could potentially read any file (depending on OS filesystem permissions) which we don't want.
-     * Due to lack of time I'm allowing it, but on a production-grade app I would limit the path to be relative to some
-     * agreed upon path in the app's running dir (and would also prevent crawling the filesystem with '../' tricks).
+     * Paths can be limited to a root directory (see {@link FilePathResolver}), it's not set by default so any path the
+     * application can read may be given.
+     * A {@param filePath} of a directory or a glob counts all matching files as a single job.
      */
-    public ResponseEntity verifyAndCountFromFile(String filePath, boolean async) {
+    public ResponseEntity verifyAndCountFromFile(String filePath, String encoding, String profile, String namespace,
+            boolean async) {
         log.debug("Got count request with file path: '{}'", filePath);
-        File file = validateFile(filePath);
+        List<File> files = filePathResolver.resolve(filePath);
+        ContentEncoding fileEncoding = validateEncoding(encoding);
+        WordNormalizer normalizer = validateProfile(profile, normalizationProfiles);
+        CountJob job = createJob(filePath, normalizer, validateNamespace(namespace), async);
         try {
-            final Future<Void> execution = wordOperationsService.countFromFile(file);
-            return waitForExecutionIfNeeded(async, execution, "count from file");
+            final Future<Void> execution = filePathResolver.isMultiFile(filePath)
+                    ? wordOperationsService.countFromFiles(files, fileEncoding, job)
+                    : wordOperationsService.countFromFile(files.get(0), fileEncoding, job);
+            return waitForExecutionIfNeeded(async, execution, job, "count from file");
+        } catch (TaskRejectedException e) {
+            return handleRejection(filePath, job, e);
         } catch (Exception e) {
             return handleError(filePath, e);
         }
@@ -63,27 +135,85 @@ public class WordService {
     /**
      * A small sanity check is performed on the incoming parameter:
      * 1. A check if its a valid URL
-     * 2. A check if the endpoint it refers to is available (Using HTTP HEAD) - an assumption is made here that if this
+     * 2. Optionally, a check if the endpoint it refers to is available (Using HTTP HEAD) - an assumption is made here that if this
      * endpoint is available to GET requests then it must also be available to HEAD requests, which is not always true
      * in real-world situations.
      */
-    public ResponseEntity verifyAndCountFromUrl(String url, boolean async) {
+    public ResponseEntity verifyAndCountFromUrl(String url, String encoding, String profile, String namespace,
+            boolean async) {
         log.debug("Got count request with url: '{}'", url);
         URI uri = validateUrl(url);
-        validateRemoteAddress(uri);
+        ContentEncoding urlEncoding = validateEncoding(encoding);
+        WordNormalizer normalizer = validateProfile(profile, normalizationProfiles);
+        String countNamespace = validateNamespace(namespace);
+        if (urlFetchProperties.isValidateWithHead()) {
+            validateRemoteAddress(uri, httpClient);
+        }
+        CountJob job = createJob(url, normalizer, countNamespace, async);
         try {
-            Future<Void> execution = wordOperationsService.countFromUrl(uri);
-            return waitForExecutionIfNeeded(async, execution, "count from url");
+            Future<Void> execution = wordOperationsService.countFromUrl(uri, urlEncoding, job);
+            return waitForExecutionIfNeeded(async, execution, job, "count from url");
+        } catch (TaskRejectedException e) {
+            return handleRejection(url, job, e);
         } catch (Exception e) {
             return handleError(url, e);
         }
     }
 
+    /**
+     * @return The namespace statistics of {@param namespace} are read from, the default namespace if it's blank.
+     * @throws javax.ws.rs.BadRequestException if it's not a valid namespace name.
+     */
+    public String resolveNamespace(String namespace) {
+        return validateNamespace(namespace);
+    }
+
+    /**
+     * @return The duration of the statistics {@param window} (i.e. <pre>1h</pre>).
+     * @throws javax.ws.rs.BadRequestException if it's malformed or longer than the retention of windowed counts.
+     */
+    public Duration resolveWindow(String window) {
+        return validateWindow(window, Duration.ofHours(windowProperties.getHourRetentionHours()));
+    }
+
+    /**
+     * @return The status of the async count job {@param id}, or 404 if there's no such job (or it was evicted).
+     */
+    public ResponseEntity getJobStatus(String id) {
+        return jobRegistry.get(id)
+                .<ResponseEntity>map(job -> ResponseEntity.ok(job.getStatus()))
+                .orElseGet(() -> jobNotFound(id));
+    }
+
+    /**
+     * Cancels the async count job {@param id}, words it already counted are kept.
+     */
+    public ResponseEntity cancelJob(String id) {
+        return jobRegistry.get(id)
+                .<ResponseEntity>map(job -> {
+                    log.info("Cancelling count job {} of '{}'", id, job.getSource());
+                    job.cancel();
+                    return ResponseEntity.ok(job.getStatus());
+                })
+                .orElseGet(() -> jobNotFound(id));
+    }
+
+    /**
+     * Only async jobs are registered, since that's the only way a client would be able to poll them.
+     */
+    private CountJob createJob(String source, WordNormalizer normalizer, String namespace, boolean async) {
+        CountJob job = async ? jobRegistry.create(source) : new CountJob(source);
+        job.setNormalizer(normalizer);
+        job.setNamespace(namespace);
+        return job;
+    }
+
     /**
      * If the execution is requested to run as {@param async} this method will not wait on the {@param execution}
-     * until it is completed (default sync execution waits).
+     * until it is completed (default sync execution waits), the id of the async {@param job} is returned instead.
      */
-    private ResponseEntity waitForExecutionIfNeeded(boolean async, Future<Void> execution, String methodName) {
+    private ResponseEntity waitForExecutionIfNeeded(boolean async, Future<Void> execution, CountJob job,
+            String methodName) {
         if (!async) {
             try {
                 execution.get();
@@ -92,8 +222,27 @@ public class WordService {
                 log.debug("", e);
                 return handleError(methodName,e);
             }
+            return ResponseEntity.ok().build();
         }
-        return ResponseEntity.ok().build();
+        job.setFuture(execution);
+        return ResponseEntity.accepted()
+                .location(URI.create("jobs/" + job.getId()))
+                .body(job.getId());
+    }
+
+    private ResponseEntity jobNotFound(String id) {
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body("No count job with id '" + id + "'.");
+    }
+
+    /**
+     * The count job executor is saturated, the client is asked to back off and retry later.
+     */
+    private ResponseEntity handleRejection(String resource, CountJob job, TaskRejectedException e) {
+        jobRegistry.remove(job.getId());
+        log.warn("Rejected count request for '{}' : {}", resource, e.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body("Too many count jobs in progress, try again later.");
     }
 
     private ResponseEntity handleError(String resource, Exception e) {
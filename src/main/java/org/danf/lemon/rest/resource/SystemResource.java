@@ -3,6 +3,10 @@ package org.danf.lemon.rest.resource;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import lombok.extern.slf4j.Slf4j;
+import org.danf.lemon.service.StatisticsCacheStats;
+import org.danf.lemon.service.WordCountCache;
+import org.danf.lemon.service.executor.CountExecutorStats;
+import org.danf.lemon.service.executor.CountJobExecutor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -25,6 +29,12 @@ public class SystemResource {
     @Autowired
     private HttpServletRequest request;
 
+    @Autowired
+    private CountJobExecutor countJobExecutor;
+
+    @Autowired
+    private WordCountCache wordCountCache;
+
     /**
      * Ping endpoint to test health of this web service.
      */
@@ -35,6 +45,24 @@ public class SystemResource {
         return "PONG\n";
     }
 
+    /**
+     * Current state of the executor running async count jobs: queue depth, active jobs and completion latency.
+     */
+    @GetMapping(path = "executor", produces = MediaType.APPLICATION_JSON)
+    @ApiOperation(value = "Count job executor statistics")
+    public CountExecutorStats executorStats() {
+        return countJobExecutor.getStats();
+    }
+
+    /**
+     * Hit, miss and eviction counters of the word count cache serving the statistics endpoints.
+     */
+    @GetMapping(path = "cache", produces = MediaType.APPLICATION_JSON)
+    @ApiOperation(value = "Word count cache statistics")
+    public StatisticsCacheStats cacheStats() {
+        return StatisticsCacheStats.of(wordCountCache);
+    }
+
     /**
      * A small easter egg, because why not
      */
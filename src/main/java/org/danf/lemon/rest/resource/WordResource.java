@@ -7,14 +7,26 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.http.HttpStatus;
 import org.danf.lemon.rest.helper.WordService;
 import org.danf.lemon.service.StatisticsService;
+import org.danf.lemon.service.TopWordsService;
+import org.danf.lemon.service.WordExportService;
+import org.danf.lemon.service.WordSearchService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
+import java.util.Locale;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.commons.lang3.StringUtils.isBlank;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 /**
@@ -30,12 +42,22 @@ public class WordResource {
     private HttpServletRequest servletRequest;
 
     private StatisticsService statisticsService;
+    private TopWordsService topWordsService;
     private WordService wordService;
+    private WordExportService exportService;
+    private WordSearchService searchService;
+    private int maxSearchPageSize;
 
     @Autowired
-    public WordResource(StatisticsService statisticsService, WordService wordService) {
+    public WordResource(StatisticsService statisticsService, TopWordsService topWordsService,
+            WordService wordService, WordExportService exportService, WordSearchService searchService,
+            @Value("${lemon.search.max-page-size:1000}") int maxSearchPageSize) {
         this.statisticsService = statisticsService;
+        this.topWordsService = topWordsService;
         this.wordService = wordService;
+        this.exportService = exportService;
+        this.searchService = searchService;
+        this.maxSearchPageSize = maxSearchPageSize;
     }
 
     /**
@@ -43,33 +65,52 @@ public class WordResource {
      * the entire available input to count appearances of words.
      *
      * @param url       Optional: retrieve the word list from the specified url
-     * @param filePath  Optional: retrieve the word list from a path on the local filesystem.
-     * @param async     Optional: allow the user to choose whether they'd like to defer the request.
+     * @param filePath  Optional: retrieve the word list from a path on the local filesystem, a directory or a glob
+     *                  (i.e. <pre>/var/log/app/*.log.gz</pre>) counts all matching files in parallel.
+     * @param async     Optional: allow the user to choose whether they'd like to defer the request, the response of
+     *                  an async request is the id of a job that can be polled through the <pre>jobs/{id}</pre> endpoint.
+     * @param encoding  Optional: compression of the input (gzip / zstd / identity), when not given it's taken from
+     *                  the <pre>Content-Encoding</pre> header or file extension, or detected from the content itself.
+     * @param profile   Optional: name of the normalization profile words are counted with (i.e. <pre>standard</pre>
+     *                  lower-cases words and strips punctuation), the configured default profile when not given.
+     * @param namespace Optional: namespace words are counted under, each namespace has counts of its own that are
+     *                  read and reset through the same <pre>namespace</pre> param of the statistics endpoints.
      *
      * Assumption: read from url / file are sync operations, but since we don't want the user to time out on requests
      * for such resources in case they take a long time to process, we also allow async execution
      * Read from incoming stream must always be sync regardless of this flag (since we must consume the incoming stream).
+     * Url / file requests are answered with 503 when the count job executor is saturated.
      */
     @PostMapping(path = "count", produces = MediaType.TEXT_PLAIN, consumes = MediaType.WILDCARD)
     @ApiOperation(value = "Counts word occurrences in a given resource")
     @ResponseBody
     public ResponseEntity count(
             @ApiParam(value = "URL to read data from") @RequestParam(required = false) String url,
-            @ApiParam(value = "File path to read data from") @RequestParam(required = false) String filePath,
+            @ApiParam(value = "File path to read data from, may be a directory or a glob") @RequestParam(required = false) String filePath,
             @ApiParam(value = "Whether to perform the processing of data async. Passing a stream implies sync execution " +
-                    "regardless of this flag's value.", defaultValue = "false") @RequestParam(required = false, defaultValue = "false") boolean async) {
+                    "regardless of this flag's value.", defaultValue = "false") @RequestParam(required = false, defaultValue = "false") boolean async,
+            @ApiParam(value = "Compression of the input: gzip, zstd or identity, detected if not given")
+            @RequestParam(required = false) String encoding,
+            @ApiParam(value = "Normalization profile words are counted with, see lemon.tokenizer.profiles")
+            @RequestParam(required = false) String profile,
+            @ApiParam(value = "Namespace words are counted under, the default namespace if not given")
+            @RequestParam(required = false) String namespace,
+            @RequestHeader(value = HttpHeaders.CONTENT_ENCODING, required = false) String contentEncoding) {
         ResponseEntity response;
         if (isNotBlank(url) && isNotBlank(filePath)) {
             response = ResponseEntity
                     .status(HttpStatus.SC_BAD_REQUEST)
                     .body("You can either specify a url or a file path, not both.");
         } else if (isNotBlank(url)) {
-            response = wordService.verifyAndCountFromUrl(url, async);
+            response = wordService.verifyAndCountFromUrl(url, encoding, profile, namespace, async);
         } else if (isNotBlank(filePath)) {
-            response = wordService.verifyAndCountFromFile(filePath, async);
+            response = wordService.verifyAndCountFromFile(filePath, encoding, profile, namespace, async);
         } else {
             try (InputStream in = servletRequest.getInputStream()) {
-                response = wordService.countFromStream(in);
+                response = wordService.countFromStream(in, encoding, contentEncoding, profile, namespace);
+            } catch (WebApplicationException e) {
+                // Invalid params, i.e. an unknown encoding, normalization profile or namespace
+                response = invalidParam(e);
             } catch (Exception e) {
                 String err = "Failed to read incoming stream: " + e.getMessage();
                 log.error(err, e);
@@ -80,13 +121,205 @@ public class WordResource {
     }
 
     /**
-     * Gets statistics for the requested {@param word} from the database.
+     * Same as counting the incoming stream with {@link #count}, except that the body is read with non-blocking I/O so
+     * slow (or chunked) uploads don't hold a request thread while waiting on the network. Words are counted as the body
+     * arrives, the response is the final status of the count as JSON.
+     *
+     * @param progress  Optional: stream the status of the count (words counted so far, bytes read etc.) back as a line
+     *                  of NDJSON every <pre>lemon.ingest.progress-interval-ms</pre>, followed by the final status.
+     */
+    @PostMapping(path = "ingest", consumes = MediaType.WILDCARD)
+    @ApiOperation(value = "Counts word occurrences in the request body as it arrives")
+    public void ingest(
+            @ApiParam(value = "Normalization profile words are counted with, see lemon.tokenizer.profiles")
+            @RequestParam(required = false) String profile,
+            @ApiParam(value = "Namespace words are counted under, the default namespace if not given")
+            @RequestParam(required = false) String namespace,
+            @ApiParam(value = "Whether to stream progress updates as NDJSON", defaultValue = "false")
+            @RequestParam(required = false, defaultValue = "false") boolean progress,
+            @ApiParam(value = "Must be identity if given, compressed input isn't supported")
+            @RequestParam(required = false) String encoding,
+            @RequestHeader(value = HttpHeaders.CONTENT_ENCODING, required = false) String contentEncoding,
+            HttpServletRequest request, HttpServletResponse response) throws IOException {
+        try {
+            wordService.ingest(request, encoding, contentEncoding, profile, namespace, progress);
+        } catch (WebApplicationException e) {
+            response.sendError(e.getResponse().getStatus(), e.getMessage());
+        }
+    }
+
+    /**
+     * Gets the state and progress of an async count job: bytes read, words counted, words/sec, elapsed time and the
+     * error the job failed with (if any).
+     */
+    @GetMapping(path = "jobs/{id}")
+    @ApiOperation(value = "Gets the status of an async count job")
+    @ResponseBody
+    public ResponseEntity getJobStatus(@PathVariable String id) {
+        return wordService.getJobStatus(id);
+    }
+
+    /**
+     * Cancels an async count job, words that were already counted by it are kept.
+     */
+    @DeleteMapping(path = "jobs/{id}")
+    @ApiOperation(value = "Cancels an async count job")
+    @ResponseBody
+    public ResponseEntity cancelJob(@PathVariable String id) {
+        return wordService.cancelJob(id);
+    }
+
+    /**
+     * Gets statistics for the requested {@param word} from the database, in {@param namespace} if given.
+     * With a {@param window} (i.e. <pre>1h</pre> or <pre>1d</pre>) only the appearances within that window are
+     * counted, summed from time buckets whose granularity depends on how far back the window reaches (see
+     * <pre>lemon.window</pre>).
      */
     @GetMapping(path = "statistics/{word:.+}")
     @ApiOperation(value = "Gets statistics for a word")
     @ResponseBody
-    public int getWordStatistics(@PathVariable String word) {
-        return statisticsService.getWordCount(word);
+    public ResponseEntity getWordStatistics(@PathVariable String word,
+            @ApiParam(value = "Namespace to read from, the default namespace if not given")
+            @RequestParam(required = false) String namespace,
+            @ApiParam(value = "Only count appearances within this window: minutes, hours or days, i.e. 30m, 1h or 1d")
+            @RequestParam(required = false) String window) {
+        try {
+            String countNamespace = wordService.resolveNamespace(namespace);
+            if (isBlank(window)) {
+                return ResponseEntity.ok(statisticsService.getWordCount(countNamespace, word));
+            }
+            return statisticsService.getWindowedWordCount(countNamespace, word, wordService.resolveWindow(window))
+                    .<ResponseEntity>map(ResponseEntity::ok)
+                    .orElseGet(() -> ResponseEntity.status(HttpStatus.SC_NOT_FOUND)
+                            .body("Windowed counting is disabled, see lemon.window.enabled and lemon.counter.durability."));
+        } catch (WebApplicationException e) {
+            return invalidParam(e);
+        }
+    }
+
+    /**
+     * Gets statistics for all requested {@param words} at once, words are given as repeated <pre>word</pre> query
+     * params (i.e. <pre>statistics?word=lemon&word=lime</pre>).
+     */
+    @GetMapping(path = "statistics", produces = MediaType.APPLICATION_JSON)
+    @ApiOperation(value = "Gets statistics for multiple words")
+    @ResponseBody
+    public ResponseEntity getWordsStatistics(@RequestParam("word") List<String> words,
+            @ApiParam(value = "Namespace to read from, the default namespace if not given")
+            @RequestParam(required = false) String namespace) {
+        return wordsStatistics(words, namespace);
+    }
+
+    /**
+     * Same as {@link #getWordsStatistics}, for clients that would rather post a JSON array of {@param words} than
+     * build a long query string.
+     */
+    @PostMapping(path = "statistics", consumes = MediaType.APPLICATION_JSON, produces = MediaType.APPLICATION_JSON)
+    @ApiOperation(value = "Gets statistics for multiple words")
+    @ResponseBody
+    public ResponseEntity postWordsStatistics(@RequestBody List<String> words,
+            @ApiParam(value = "Namespace to read from, the default namespace if not given")
+            @RequestParam(required = false) String namespace) {
+        return wordsStatistics(words, namespace);
+    }
+
+    /**
+     * Gets the estimated count of {@param word} from the Count-Min Sketch, along with the amount it may overestimate
+     * by (with the probability set by <pre>lemon.sketch.confidence</pre>). Unlike {@link #getWordStatistics} this
+     * includes words that appeared too few times to be persisted, only available with approximate counting enabled.
+     */
+    @GetMapping(path = "estimates/{word:.+}", produces = MediaType.APPLICATION_JSON)
+    @ApiOperation(value = "Gets the estimated count of a word")
+    @ResponseBody
+    public ResponseEntity getWordEstimate(@PathVariable String word) {
+        return statisticsService.estimateWordCount(word)
+                .<ResponseEntity>map(ResponseEntity::ok)
+                .orElseGet(this::approximateCountingDisabled);
+    }
+
+    /**
+     * Gets the estimated number of distinct words counted so far from the HyperLogLog, along with its relative
+     * standard error. Only available with approximate counting enabled.
+     */
+    @GetMapping(path = "distinct", produces = MediaType.APPLICATION_JSON)
+    @ApiOperation(value = "Gets the estimated number of distinct words")
+    @ResponseBody
+    public ResponseEntity getDistinctWords() {
+        return statisticsService.estimateDistinctWords()
+                .<ResponseEntity>map(ResponseEntity::ok)
+                .orElseGet(this::approximateCountingDisabled);
+    }
+
+    /**
+     * Gets the {@param k} most frequent words, highest first.
+     * Counts are approximate (each word reports how much it may be overestimated by) unless {@param exact} is set, in
+     * which case they're confirmed against the database.
+     */
+    @GetMapping(path = "top", produces = MediaType.APPLICATION_JSON)
+    @ApiOperation(value = "Gets the most frequent words")
+    @ResponseBody
+    public ResponseEntity getTopWords(
+            @ApiParam(value = "Number of words to return") @RequestParam(defaultValue = "10") int k,
+            @ApiParam(value = "Whether to confirm counts against the database", defaultValue = "false")
+            @RequestParam(required = false, defaultValue = "false") boolean exact) {
+        if (k < 1) {
+            return ResponseEntity.status(HttpStatus.SC_BAD_REQUEST).body("k must be a positive number.");
+        }
+        return ResponseEntity.ok(topWordsService.getTopWords(k, exact));
+    }
+
+    /**
+     * Gets page {@param page} of the words starting with {@param prefix} (all words if it's not given) with their
+     * counts, sorted by count (highest first) or by word.
+     * Served from an in-memory index of persisted counts, words that weren't flushed yet show up after the next flush.
+     */
+    @GetMapping(path = "search", produces = MediaType.APPLICATION_JSON)
+    @ApiOperation(value = "Searches words by prefix")
+    @ResponseBody
+    public ResponseEntity searchWords(
+            @ApiParam(value = "Prefix of the words to return") @RequestParam(required = false, defaultValue = "") String prefix,
+            @ApiParam(value = "Page number, starting from 0") @RequestParam(defaultValue = "0") int page,
+            @ApiParam(value = "Number of words per page") @RequestParam(defaultValue = "50") int size,
+            @ApiParam(value = "Sort by count or word", defaultValue = "count")
+            @RequestParam(required = false, defaultValue = "count") String sort) {
+        if (page < 0 || size < 1 || size > maxSearchPageSize) {
+            return ResponseEntity.status(HttpStatus.SC_BAD_REQUEST)
+                    .body("page must not be negative and size must be between 1 and " + maxSearchPageSize + ".");
+        }
+        WordSearchService.SortBy sortBy;
+        try {
+            sortBy = WordSearchService.SortBy.valueOf(sort.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.SC_BAD_REQUEST).body("Unsupported sort '" + sort + "'.");
+        }
+        return ResponseEntity.ok(searchService.search(prefix, page, size, sortBy));
+    }
+
+    /**
+     * Streams the counts of all words, optionally only those appearing at least {@param minCount} times and starting
+     * with {@param prefix}, as NDJSON or CSV.
+     * Rows are written to the response as they're read from the database, so exporting the entire table is safe.
+     */
+    @GetMapping(path = "export")
+    @ApiOperation(value = "Exports word counts as NDJSON or CSV")
+    public void export(
+            @ApiParam(value = "Export format, ndjson or csv", defaultValue = "ndjson")
+            @RequestParam(required = false, defaultValue = "ndjson") String format,
+            @ApiParam(value = "Minimum count of exported words") @RequestParam(required = false, defaultValue = "0") long minCount,
+            @ApiParam(value = "Only export words starting with this prefix") @RequestParam(required = false) String prefix,
+            HttpServletResponse response) throws IOException {
+        WordExportService.Format exportFormat;
+        try {
+            exportFormat = WordExportService.Format.valueOf(format.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpStatus.SC_BAD_REQUEST, "Unsupported export format '" + format + "'.");
+            return;
+        }
+        response.setContentType(exportFormat.getContentType());
+        response.setCharacterEncoding(UTF_8.name());
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                "attachment; filename=\"words." + exportFormat.name().toLowerCase(Locale.ROOT) + "\"");
+        exportService.export(response.getOutputStream(), exportFormat, minCount, isNotBlank(prefix) ? prefix : null);
     }
 
     /**
@@ -98,9 +331,50 @@ public class WordResource {
     @DeleteMapping(path = "statistics/{word:.+}")
     @ApiOperation(value = "Resets statistics for a word")
     @ResponseBody
-    public ResponseEntity clearWordStatistics(@PathVariable String word) {
-        statisticsService.clearWordStatistic(word);
+    public ResponseEntity clearWordStatistics(@PathVariable String word,
+            @ApiParam(value = "Namespace to reset the word in, the default namespace if not given")
+            @RequestParam(required = false) String namespace) {
+        try {
+            statisticsService.clearWordStatistic(wordService.resolveNamespace(namespace), word);
+        } catch (WebApplicationException e) {
+            return invalidParam(e);
+        }
         return ResponseEntity.ok()
                 .body("Statistics for word '" + word + "' were cleared.");
     }
+
+    /**
+     * Resets statistics of all words counted under {@param namespace} at once, with a single delete rather than a
+     * delete per word. The default namespace can't be reset this way.
+     */
+    @DeleteMapping(path = "namespaces/{namespace:.+}")
+    @ApiOperation(value = "Resets statistics of all words in a namespace")
+    @ResponseBody
+    public ResponseEntity clearNamespace(@PathVariable String namespace) {
+        int cleared;
+        try {
+            cleared = statisticsService.clearNamespace(wordService.resolveNamespace(namespace));
+        } catch (WebApplicationException e) {
+            return invalidParam(e);
+        }
+        return ResponseEntity.ok()
+                .body("Statistics of " + cleared + " words in namespace '" + namespace + "' were cleared.");
+    }
+
+    private ResponseEntity wordsStatistics(List<String> words, String namespace) {
+        try {
+            return ResponseEntity.ok(statisticsService.getWordCounts(wordService.resolveNamespace(namespace), words));
+        } catch (WebApplicationException e) {
+            return invalidParam(e);
+        }
+    }
+
+    private ResponseEntity invalidParam(WebApplicationException e) {
+        return ResponseEntity.status(e.getResponse().getStatus()).body(e.getMessage());
+    }
+
+    private ResponseEntity approximateCountingDisabled() {
+        return ResponseEntity.status(HttpStatus.SC_NOT_FOUND)
+                .body("Approximate counting is disabled, see lemon.sketch.enabled.");
+    }
 }
@@ -0,0 +1,65 @@
+package org.danf.lemon.service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Fails reading once more than {@link #maxBytes} were read from the underlying stream, so a remote resource can't make
+ * a count request run forever.
+ *
+ * @author Dan Feldman
+ */
+class BoundedInputStream extends FilterInputStream {
+
+    private final long maxBytes;
+    private final String description;
+    private long remaining;
+
+    /**
+     * @param description What the stream holds, for the error message (i.e. <pre>Response body</pre>).
+     */
+    BoundedInputStream(InputStream in, long maxBytes, String description) {
+        super(in);
+        this.maxBytes = maxBytes;
+        this.description = description;
+        this.remaining = maxBytes;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int read = super.read();
+        if (read >= 0) {
+            consumed(1);
+        }
+        return read;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int read = super.read(buffer, offset, length);
+        if (read > 0) {
+            consumed(read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        consumed(skipped);
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void consumed(long bytes) throws IOException {
+        remaining -= bytes;
+        if (remaining < 0) {
+            throw new IOException(description + " exceeds the max size of " + maxBytes + " bytes");
+        }
+    }
+}
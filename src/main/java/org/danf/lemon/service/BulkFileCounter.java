@@ -0,0 +1,133 @@
+package org.danf.lemon.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.danf.lemon.config.FileCountProperties;
+import org.danf.lemon.service.encoding.ContentDecoder;
+import org.danf.lemon.service.encoding.ContentEncoding;
+import org.danf.lemon.service.job.CountJob;
+import org.danf.lemon.service.job.CountJobInputStream;
+import org.danf.lemon.service.tokenizer.WordTokenizer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the words of many files in parallel, on a fixed pool of {@link FileCountProperties#getBulkWorkers()} threads
+ * shared by all requests.
+ * Each worker takes the next file that wasn't counted yet until none are left and counts into its own local map, the
+ * maps of all workers are merged once they're done so the counter (and the database) only see one aggregated batch.
+ *
+ * A file that fails to be counted is marked as failed in its own job and the rest of the files are still counted, the
+ * request fails once all files were processed.
+ *
+ * @author Dan Feldman
+ */
+@Service
+@Slf4j
+public class BulkFileCounter {
+
+    private final ExecutorService workers;
+    private WordTokenizer wordTokenizer;
+    private FileCountProperties properties;
+
+    @Autowired
+    public BulkFileCounter(WordTokenizer wordTokenizer, FileCountProperties properties) {
+        this.wordTokenizer = wordTokenizer;
+        this.properties = properties;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(properties.getBulkWorkers(), runnable -> {
+            Thread thread = new Thread(runnable, "bulk-count-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return The number of appearances of each word in all of {@param files}, each of which is compressed with
+     * {@param encoding} (or detected if it's {@link ContentEncoding#AUTO}). Each file's progress is reported to its
+     * own file job under {@param job}.
+     */
+    public Map<String, Long> count(List<File> files, ContentEncoding encoding, CountJob job) throws IOException {
+        List<CountJob> fileJobs = new ArrayList<>(files.size());
+        files.forEach(file -> fileJobs.add(job.addFile(file.getPath())));
+        AtomicInteger nextFile = new AtomicInteger();
+        LongAdder failedFiles = new LongAdder();
+        int workerCount = Math.min(properties.getBulkWorkers(), files.size());
+        List<Future<Map<String, long[]>>> results = new ArrayList<>(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            results.add(workers.submit(() -> {
+                Map<String, long[]> counts = new HashMap<>();
+                int index;
+                while (!job.isCancelled() && (index = nextFile.getAndIncrement()) < files.size()) {
+                    if (!countFile(files.get(index), encoding, fileJobs.get(index), counts)) {
+                        failedFiles.increment();
+                    }
+                }
+                return counts;
+            }));
+        }
+        Map<String, long[]> counts = new HashMap<>();
+        for (Future<Map<String, long[]>> result : results) {
+            counts = LocalCounts.merge(counts, join(result));
+        }
+        if (failedFiles.sum() > 0 && !job.isCancelled()) {
+            throw new IOException(failedFiles.sum() + " of " + files.size() + " files failed to be counted");
+        }
+        return LocalCounts.toCounts(counts);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * @return Whether {@param file} was counted successfully.
+     */
+    private boolean countFile(File file, ContentEncoding encoding, CountJob fileJob, Map<String, long[]> counts) {
+        fileJob.start();
+        try (InputStream in = new FileInputStream(file)) {
+            InputStream decoded = ContentDecoder.decode(in, ContentDecoder.resolve(file, encoding), fileJob);
+            wordTokenizer.tokenize(new CountJobInputStream(decoded, fileJob), fileJob.getNormalizer(), word -> {
+                fileJob.wordCounted();
+                counts.computeIfAbsent(word, w -> new long[1])[0]++;
+            });
+            fileJob.complete();
+            return true;
+        } catch (IOException | RuntimeException e) {
+            fileJob.fail(e);
+            if (!(e instanceof InterruptedIOException)) {
+                log.error("Failed counting file '{}' : {}", file, e.getMessage());
+                log.debug("", e);
+            }
+            return false;
+        }
+    }
+
+    private Map<String, long[]> join(Future<Map<String, long[]>> result) throws IOException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for file workers");
+        } catch (ExecutionException e) {
+            throw new IOException("File worker failed", e.getCause());
+        }
+    }
+}
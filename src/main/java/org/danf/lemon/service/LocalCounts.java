@@ -0,0 +1,42 @@
+package org.danf.lemon.service;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Word counts kept by a single counting thread in its own map, each count in a one element array so it's incremented
+ * in place. Shared by the file counters that count in parallel and merge the maps of their threads once they're done.
+ *
+ * @author Dan Feldman
+ */
+final class LocalCounts {
+
+    private LocalCounts() {
+    }
+
+    /**
+     * Adds the smaller of {@param first} and {@param second} into the larger one.
+     *
+     * @return The larger map, which now holds the counts of both.
+     */
+    static Map<String, long[]> merge(Map<String, long[]> first, Map<String, long[]> second) {
+        Map<String, long[]> target = first.size() >= second.size() ? first : second;
+        Map<String, long[]> source = target == first ? second : first;
+        source.forEach((word, count) -> {
+            long[] existing = target.putIfAbsent(word, count);
+            if (existing != null) {
+                existing[0] = Math.addExact(existing[0], count[0]);
+            }
+        });
+        return target;
+    }
+
+    /**
+     * @return A copy of {@param counts} with a plain count for each word.
+     */
+    static Map<String, Long> toCounts(Map<String, long[]> counts) {
+        Map<String, Long> result = new HashMap<>(counts.size() * 4 / 3 + 1);
+        counts.forEach((word, count) -> result.put(word, count[0]));
+        return result;
+    }
+}
@@ -0,0 +1,163 @@
+package org.danf.lemon.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.danf.lemon.config.FileCountProperties;
+import org.danf.lemon.service.job.CountJob;
+import org.danf.lemon.service.tokenizer.Utf8TokenScanner;
+import org.danf.lemon.service.tokenizer.WordTokenizer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Counts the words of a large local file in parallel.
+ * The file is split into chunks of roughly {@link FileCountProperties#getChunkSizeBytes()} whose boundaries are moved
+ * forward to the next whitespace (so no word is ever split between chunks), each chunk is memory-mapped and counted on
+ * a dedicated {@link ForkJoinPool} into its own local map, and the maps are merged as the tasks join.
+ *
+ * @author Dan Feldman
+ */
+@Service
+@Slf4j
+public class MappedFileCounter {
+
+    private static final int BOUNDARY_PROBE_SIZE = 4096;
+
+    private final ForkJoinPool pool;
+    private WordTokenizer wordTokenizer;
+    private FileCountProperties properties;
+
+    @Autowired
+    public MappedFileCounter(WordTokenizer wordTokenizer, FileCountProperties properties) {
+        this.wordTokenizer = wordTokenizer;
+        this.properties = properties;
+        this.pool = new ForkJoinPool(properties.getParallelism());
+    }
+
+    /**
+     * @return The number of appearances of each word in {@param file}.
+     */
+    public Map<String, Long> count(File file) throws IOException {
+        return count(file, new CountJob(file.getPath()));
+    }
+
+    /**
+     * Same as {@link #count(File)}, reporting progress to {@param job}. Cancelling the job skips the chunks that didn't
+     * start yet, the words of the chunks that were already counted are returned (and kept, like any cancelled job).
+     */
+    public Map<String, Long> count(File file, CountJob job) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            List<long[]> chunks = split(channel);
+            log.debug("Counting file '{}' in {} chunks", file, chunks.size());
+            Map<String, long[]> counts;
+            try {
+                counts = pool.invoke(new ChunkCountTask(channel, chunks, 0, chunks.size(), job));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            return LocalCounts.toCounts(counts);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * @return Consecutive [start, end) ranges covering the entire file, each ending right before a whitespace byte (or
+     * at the end of the file).
+     */
+    private List<long[]> split(FileChannel channel) throws IOException {
+        long size = channel.size();
+        List<long[]> chunks = new ArrayList<>();
+        long start = 0;
+        while (start < size) {
+            long end = start + properties.getChunkSizeBytes() < size
+                    ? nextWhitespace(channel, start + properties.getChunkSizeBytes(), size)
+                    : size;
+            chunks.add(new long[]{start, end});
+            start = end;
+        }
+        return chunks;
+    }
+
+    private long nextWhitespace(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer probe = ByteBuffer.allocate(BOUNDARY_PROBE_SIZE);
+        while (position < size) {
+            probe.clear();
+            int read = channel.read(probe, position);
+            for (int i = 0; i < read; i++) {
+                if (Utf8TokenScanner.isWhitespace(probe.get(i))) {
+                    return position + i;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    /**
+     * Counts chunks {@code [from, to)}, splitting the range in half until a single chunk is left.
+     */
+    private class ChunkCountTask extends RecursiveTask<Map<String, long[]>> {
+
+        private final FileChannel channel;
+        private final List<long[]> chunks;
+        private final int from;
+        private final int to;
+        private final CountJob job;
+
+        ChunkCountTask(FileChannel channel, List<long[]> chunks, int from, int to, CountJob job) {
+            this.channel = channel;
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+            this.job = job;
+        }
+
+        @Override
+        protected Map<String, long[]> compute() {
+            if (to - from <= 1) {
+                return from < to ? countChunk(chunks.get(from)) : new HashMap<>();
+            }
+            int middle = (from + to) >>> 1;
+            ChunkCountTask left = new ChunkCountTask(channel, chunks, from, middle, job);
+            left.fork();
+            Map<String, long[]> right = new ChunkCountTask(channel, chunks, middle, to, job).compute();
+            return LocalCounts.merge(left.join(), right);
+        }
+
+        private Map<String, long[]> countChunk(long[] chunk) {
+            Map<String, long[]> counts = new HashMap<>();
+            if (job.isCancelled()) {
+                return counts;
+            }
+            try {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, chunk[0], chunk[1] - chunk[0]);
+                wordTokenizer.tokenize(buffer, job.getNormalizer(), word -> {
+                    job.wordCounted();
+                    counts.computeIfAbsent(word, w -> new long[1])[0]++;
+                });
+                job.addBytesRead(chunk[1] - chunk[0]);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return counts;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.danf.lemon.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * The Space-Saving heavy hitters algorithm (Metwally et al.), tracks the most frequent words with a fixed number of
+ * counters.
+ * A word that isn't tracked while all counters are taken replaces the word with the lowest count, and inherits that
+ * count as its possible overestimation ({@link WordCount#getMaxError()}). Any word whose true count is higher than the
+ * lowest tracked count is guaranteed to be tracked.
+ *
+ * Counters are kept in a hash map for lookups and in a tree ordered by count for finding the minimum, so every update
+ * is O(log capacity). Thread-safe.
+ *
+ * @author Dan Feldman
+ */
+public class SpaceSaving {
+
+    private static final Comparator<Counter> BY_COUNT = Comparator.<Counter>comparingLong(counter -> counter.count)
+            .thenComparing(counter -> counter.word);
+
+    private final int capacity;
+    private final Map<String, Counter> counters = new HashMap<>();
+    private final TreeSet<Counter> byCount = new TreeSet<>(BY_COUNT);
+
+    public SpaceSaving(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Adds {@param delta} appearances of {@param word}.
+     */
+    public synchronized void offer(String word, long delta) {
+        Counter counter = counters.get(word);
+        if (counter != null) {
+            byCount.remove(counter);
+            counter.count += delta;
+        } else if (counters.size() < capacity) {
+            counter = new Counter(word, delta, 0);
+            counters.put(word, counter);
+        } else {
+            Counter min = byCount.pollFirst();
+            counters.remove(min.word);
+            counter = new Counter(word, min.count + delta, min.count);
+            counters.put(word, counter);
+        }
+        byCount.add(counter);
+    }
+
+    /**
+     * Stops tracking {@param word}, i.e. when its count was reset.
+     */
+    public synchronized void remove(String word) {
+        Counter counter = counters.remove(word);
+        if (counter != null) {
+            byCount.remove(counter);
+        }
+    }
+
+    /**
+     * @return Up to {@param k} tracked words with the highest counts, highest first.
+     */
+    public synchronized List<WordCount> top(int k) {
+        List<WordCount> top = new ArrayList<>(Math.min(k, counters.size()));
+        Iterator<Counter> highestFirst = byCount.descendingIterator();
+        while (top.size() < k && highestFirst.hasNext()) {
+            Counter counter = highestFirst.next();
+            top.add(new WordCount(counter.word, counter.count, counter.error));
+        }
+        return top;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private static class Counter {
+
+        private final String word;
+        private long count;
+        private final long error;
+
+        Counter(String word, long count, long error) {
+            this.word = word;
+            this.count = count;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package org.danf.lemon.service;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * A point-in-time snapshot of the {@link WordCountCache}'s counters.
+ *
+ * @author Dan Feldman
+ */
+@Value
+@Builder
+public class StatisticsCacheStats {
+
+    long size;
+    long hits;
+    long misses;
+    double hitRate;
+    long evictions;
+
+    public static StatisticsCacheStats of(WordCountCache cache) {
+        CacheStats stats = cache.getStats();
+        return StatisticsCacheStats.builder()
+                .size(cache.size())
+                .hits(stats.hitCount())
+                .misses(stats.missCount())
+                .hitRate(stats.hitRate())
+                .evictions(stats.evictionCount())
+                .build();
+    }
+}
@@ -1,16 +1,26 @@
 package org.danf.lemon.service;
 
 import lombok.extern.slf4j.Slf4j;
-import org.danf.lemon.db.entity.WordEntity;
-import org.danf.lemon.db.repo.WordsRepo;
+import org.danf.lemon.db.storage.WordKeys;
+import org.danf.lemon.service.metrics.CountMetrics;
+import org.danf.lemon.service.sketch.DistinctWords;
+import org.danf.lemon.service.sketch.WordSketches;
+import org.danf.lemon.service.window.WindowedCounts;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import javax.transaction.Transactional;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
 
 /**
  * Statistics are served on a best-effort basis, if an operation is actively updating the database with count information
  * this service's methods will return partial information (which is up-to-date with the point in time the api was called).
+ * Counts that were not yet flushed by the {@link WriteBehindWordCounter} are included in the returned statistics,
+ * persisted counts are read through the {@link WordCountCache}.
+ * Words are counted in the default namespace unless a namespace is given, each namespace has counts of its own.
  *
  * @author Dan Feldman
  */
@@ -18,26 +28,119 @@ import javax.transaction.Transactional;
 @Slf4j
 public class StatisticsService {
 
-    private WordsRepo wordsRepo;
+    private WordCountCache wordCountCache;
+    private WriteBehindWordCounter wordCounter;
+    private CountMetrics metrics;
+    private WordSketches sketches;
+    private WindowedCounts windowedCounts;
 
     @Autowired
-    public StatisticsService(WordsRepo wordsRepo) {
-        this.wordsRepo = wordsRepo;
+    public StatisticsService(WordCountCache wordCountCache, WriteBehindWordCounter wordCounter,
+            CountMetrics metrics, WordSketches sketches, WindowedCounts windowedCounts) {
+        this.wordCountCache = wordCountCache;
+        this.wordCounter = wordCounter;
+        this.metrics = metrics;
+        this.sketches = sketches;
+        this.windowedCounts = windowedCounts;
     }
 
     /**
      * @return The number of times {@param word} has appeared in any of the given user inputs until now.
      */
-    public int getWordCount(String word) {
-        return wordsRepo.findById(word).orElse(WordEntity.builder().word(word).build()).getCount();
+    public long getWordCount(String word) {
+        return getWordCount(WordKeys.DEFAULT_NAMESPACE, word);
+    }
+
+    /**
+     * @return The number of times {@param word} has appeared in the user inputs counted under {@param namespace}.
+     */
+    public long getWordCount(String namespace, String word) {
+        String key = WordKeys.key(namespace, word);
+        return metrics.timeLookup(() -> wordCounter.read(() ->
+                Math.addExact(wordCountCache.getPersistedCount(key), wordCounter.getPendingCount(key))));
+    }
+
+    /**
+     * @return The number of times {@param word} has appeared in the user inputs counted under {@param namespace}
+     * within the last {@param window} (rounded outwards to whole buckets, see {@link WindowedCounts}), or empty if
+     * windowed counting is disabled. Pending counts are included as if they were all counted within the window.
+     */
+    public Optional<Long> getWindowedWordCount(String namespace, String word, Duration window) {
+        if (!windowedCounts.isEnabled()) {
+            return Optional.empty();
+        }
+        String key = WordKeys.key(namespace, word);
+        return Optional.of(metrics.timeLookup(() -> wordCounter.read(() ->
+                Math.addExact(windowedCounts.getCount(key, window), wordCounter.getPendingCount(key)))));
+    }
+
+    /**
+     * @return The number of times each of {@param words} has appeared in any of the given user inputs until now, in
+     * the order the words were given (without duplicates).
+     */
+    public Map<String, Long> getWordCounts(Collection<String> words) {
+        return getWordCounts(WordKeys.DEFAULT_NAMESPACE, words);
+    }
+
+    /**
+     * Same as {@link #getWordCounts(Collection)}, for the user inputs counted under {@param namespace}.
+     */
+    public Map<String, Long> getWordCounts(String namespace, Collection<String> words) {
+        return metrics.timeBatchLookup(() -> wordCounter.read(() -> lookupWordCounts(namespace, words)));
+    }
+
+    private Map<String, Long> lookupWordCounts(String namespace, Collection<String> words) {
+        Map<String, String> keys = new LinkedHashMap<>();
+        for (String word : words) {
+            keys.putIfAbsent(word, WordKeys.key(namespace, word));
+        }
+        Map<String, Long> persisted = wordCountCache.getPersistedCounts(keys.values());
+        Map<String, Long> counts = new LinkedHashMap<>();
+        keys.forEach((word, key) ->
+                counts.put(word, Math.addExact(persisted.getOrDefault(key, 0L), wordCounter.getPendingCount(key))));
+        return counts;
+    }
+
+    /**
+     * @return The estimated number of times {@param word} has appeared, including appearances of words that are below
+     * the exact threshold of approximate counting, or empty if approximate counting is disabled.
+     */
+    public Optional<WordCount> estimateWordCount(String word) {
+        if (!sketches.isEnabled()) {
+            return Optional.empty();
+        }
+        return Optional.of(wordCounter.read(() -> sketches.estimate(word, wordCounter.getPendingCount(word))));
+    }
+
+    /**
+     * @return The estimated number of distinct words flushed so far, or empty if approximate counting is disabled.
+     */
+    public Optional<DistinctWords> estimateDistinctWords() {
+        return sketches.isEnabled() ? Optional.of(sketches.getDistinctWords()) : Optional.empty();
     }
 
     /**
      * Clears the statistics data for {@param word}.
      */
-    @Transactional
     public void clearWordStatistic(String word) {
-        log.info("Clearing counter for word {}", word);
-        wordsRepo.deleteById(word);
+        clearWordStatistic(WordKeys.DEFAULT_NAMESPACE, word);
+    }
+
+    /**
+     * Clears the statistics data for {@param word} in {@param namespace}.
+     */
+    public void clearWordStatistic(String namespace, String word) {
+        log.info("Clearing counter for word {}{}", word, namespace.isEmpty() ? "" : " in namespace " + namespace);
+        wordCounter.reset(WordKeys.key(namespace, word));
+    }
+
+    /**
+     * Clears the statistics data of all words in {@param namespace}.
+     *
+     * @return The number of words that were cleared.
+     */
+    public int clearNamespace(String namespace) {
+        log.info("Clearing all counters of namespace {}", namespace);
+        return wordCounter.resetNamespace(namespace);
     }
 }
@@ -0,0 +1,90 @@
+package org.danf.lemon.service;
+
+import org.danf.lemon.service.job.CountJob;
+import org.danf.lemon.service.job.CountJobStatus;
+import org.danf.lemon.service.metrics.CountMetrics;
+import org.danf.lemon.service.tokenizer.Utf8TokenScanner;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Counts the words of a UTF-8 input whose bytes are pushed in with {@link #feed} as they arrive, for callers that can't
+ * block on reading their input (i.e. a servlet reading its request body with non-blocking I/O).
+ * Words are aggregated and handed to the {@link WriteBehindWordCounter} in batches, the same way
+ * {@link WordOperationsService#countFromStream} does.
+ *
+ * Not thread-safe, but may be fed by different threads one after the other (as servlet containers do with their read
+ * callbacks). Created by {@link WordOperationsService#startStreamingCount}.
+ *
+ * @author Dan Feldman
+ */
+public class StreamingCount {
+
+    private final CountJob job;
+    private final Utf8TokenScanner scanner;
+    private final Map<String, Long> batch = new HashMap<>();
+    private final int batchWords;
+    private final WriteBehindWordCounter wordCounter;
+    private final CountMetrics metrics;
+
+    StreamingCount(CountJob job, int maxInternedWords, int batchWords, WriteBehindWordCounter wordCounter,
+            CountMetrics metrics) {
+        this.job = job;
+        this.batchWords = batchWords;
+        this.wordCounter = wordCounter;
+        this.metrics = metrics;
+        this.scanner = new Utf8TokenScanner(this::count, job.getNormalizer(), maxInternedWords);
+        job.start();
+    }
+
+    /**
+     * Counts the words in {@code len} bytes of {@param bytes} starting at {@param offset}, a word that's cut off at the
+     * end is completed by the next call.
+     */
+    public void feed(byte[] bytes, int offset, int len) {
+        job.addBytesRead(len);
+        scanner.feed(bytes, offset, len);
+    }
+
+    /**
+     * Called once the entire input was fed, waits for its counts to be durable (see
+     * {@link WriteBehindWordCounter#requestCompleted()}).
+     */
+    public void complete() throws IOException {
+        try {
+            scanner.finish();
+            wordCounter.addAll(job.getNamespace(), batch);
+            batch.clear();
+            wordCounter.requestCompleted();
+            job.complete();
+        } catch (IOException | RuntimeException e) {
+            job.fail(e);
+            throw e;
+        } finally {
+            metrics.requestFinished(CountMetrics.SOURCE_STREAM, job);
+        }
+    }
+
+    /**
+     * Called if reading the input failed, words of batches that were already handed over are kept.
+     */
+    public void fail(Throwable e) {
+        job.fail(e);
+        metrics.requestFinished(CountMetrics.SOURCE_STREAM, job);
+    }
+
+    public CountJobStatus getStatus() {
+        return job.getStatus();
+    }
+
+    private void count(String word) {
+        job.wordCounted();
+        batch.merge(word, 1L, Long::sum);
+        if (batch.size() >= batchWords) {
+            wordCounter.addAll(job.getNamespace(), batch);
+            batch.clear();
+        }
+    }
+}
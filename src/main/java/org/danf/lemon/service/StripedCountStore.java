@@ -0,0 +1,313 @@
+package org.danf.lemon.service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * A concurrent word to count map built for many threads incrementing counts at the same time.
+ *
+ * Words are spread over independent stripes by their hash, each stripe being an open-addressing table of words and
+ * primitive counts (so no {@link Long} is allocated per increment).
+ * Incrementing a word that's already in its stripe is lock-free, it's found with plain volatile reads and its count is
+ * updated with a CAS. Only inserting a new word, growing a stripe and draining it take the stripe's lock, so threads
+ * counting different words almost never wait for each other and threads counting the same word only retry a CAS.
+ *
+ * Implementation notes:
+ * Tables are never modified in place once they're replaced: growing or draining a stripe first seals every count of
+ * its current table (swapping it with {@link #SEALED}) and only then publishes the new table. An increment whose CAS
+ * meets a sealed count falls back to the locked path and retries against the new table, so every increment either
+ * lands before its count was sealed (and is carried over or drained with it) or after the new table was published -
+ * none are lost.
+ * A word's slot is published by writing its count before the word itself, a reader that sees the word always sees an
+ * initialized count.
+ *
+ * @author Dan Feldman
+ */
+public class StripedCountStore {
+
+    private static final long SEALED = Long.MIN_VALUE;
+    private static final int INITIAL_STRIPE_CAPACITY = 64;
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+
+    /**
+     * @param stripes Number of stripes, rounded up to a power of two.
+     */
+    public StripedCountStore(int stripes) {
+        int count = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.stripes = new Stripe[count];
+        this.stripeMask = count - 1;
+        for (int i = 0; i < count; i++) {
+            this.stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Adds {@param delta} to the count of {@param word}.
+     *
+     * @return Whether {@param word} wasn't in the store before.
+     */
+    public boolean add(String word, long delta) {
+        int hash = spread(word.hashCode());
+        return stripeOf(hash).add(word, hash, delta);
+    }
+
+    /**
+     * @return The current count of {@param word}, 0 if it's not in the store.
+     */
+    public long get(String word) {
+        int hash = spread(word.hashCode());
+        return stripeOf(hash).get(word, hash);
+    }
+
+    /**
+     * Drops the count of {@param word}.
+     */
+    public void remove(String word) {
+        int hash = spread(word.hashCode());
+        stripeOf(hash).remove(word, hash);
+    }
+
+    /**
+     * Drops the counts of all words matching {@param filter}.
+     */
+    public void removeIf(Predicate<String> filter) {
+        for (Stripe stripe : stripes) {
+            stripe.removeIf(filter);
+        }
+    }
+
+    /**
+     * @return The number of distinct words in the store.
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size;
+        }
+        return size;
+    }
+
+    /**
+     * Empties the store.
+     *
+     * @return The counts the store held, words whose count was dropped are left out.
+     */
+    public Map<String, Long> drain() {
+        Map<String, Long> drained = new HashMap<>();
+        for (Stripe stripe : stripes) {
+            stripe.drainTo(drained);
+        }
+        return drained;
+    }
+
+    private Stripe stripeOf(int hash) {
+        return stripes[(hash >>> 16) & stripeMask];
+    }
+
+    /**
+     * Mixes the high bits into the low ones, the low bits pick the slot and the high bits pick the stripe.
+     */
+    private static int spread(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 15);
+    }
+
+    private static final class Stripe {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile Table table = new Table(INITIAL_STRIPE_CAPACITY);
+        private volatile int size;
+
+        boolean add(String word, int hash, long delta) {
+            if (table.increment(word, hash, delta)) {
+                return false;
+            }
+            lock.lock();
+            try {
+                Table current = table;
+                if (current.increment(word, hash, delta)) {
+                    return false;
+                }
+                if ((size + 1) * 2 > current.capacity()) {
+                    current = grow(current);
+                }
+                current.insert(word, hash, delta);
+                size++;
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long get(String word, int hash) {
+            long count = table.get(word, hash);
+            if (count != SEALED) {
+                return count;
+            }
+            lock.lock();
+            try {
+                return Math.max(0, table.get(word, hash));
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void remove(String word, int hash) {
+            lock.lock();
+            try {
+                table.reset(word, hash);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void removeIf(Predicate<String> filter) {
+            lock.lock();
+            try {
+                table.resetIf(filter);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void drainTo(Map<String, Long> drained) {
+            lock.lock();
+            try {
+                Table current = table;
+                if (size == 0) {
+                    return;
+                }
+                current.sealAll((word, count) -> {
+                    if (count != 0) {
+                        drained.put(word, count);
+                    }
+                });
+                table = new Table(INITIAL_STRIPE_CAPACITY);
+                size = 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private Table grow(Table current) {
+            Table grown = new Table(current.capacity() * 2);
+            current.sealAll((word, count) -> grown.insert(word, spread(word.hashCode()), count));
+            table = grown;
+            return grown;
+        }
+    }
+
+    private static final class Table {
+
+        private final AtomicReferenceArray<String> words;
+        private final AtomicLongArray counts;
+        private final int mask;
+
+        Table(int capacity) {
+            this.words = new AtomicReferenceArray<>(capacity);
+            this.counts = new AtomicLongArray(capacity);
+            this.mask = capacity - 1;
+        }
+
+        int capacity() {
+            return mask + 1;
+        }
+
+        /**
+         * @return Whether {@param word} was found and its count wasn't sealed.
+         */
+        boolean increment(String word, int hash, long delta) {
+            int slot = find(word, hash);
+            if (slot < 0) {
+                return false;
+            }
+            while (true) {
+                long count = counts.get(slot);
+                if (count == SEALED) {
+                    return false;
+                }
+                if (counts.compareAndSet(slot, count, Math.addExact(count, delta))) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * @return The count of {@param word}, 0 if it's absent or {@link #SEALED} if it was moved to a resized table
+         * (callers then read it again under the stripe's lock, from the new table).
+         */
+        long get(String word, int hash) {
+            int slot = find(word, hash);
+            return slot < 0 ? 0 : counts.get(slot);
+        }
+
+        /**
+         * Called under the stripe's lock with a word that isn't in the table.
+         */
+        void insert(String word, int hash, long count) {
+            int slot = hash & mask;
+            while (words.get(slot) != null) {
+                slot = (slot + 1) & mask;
+            }
+            counts.set(slot, count);
+            words.set(slot, word);
+        }
+
+        /**
+         * Called under the stripe's lock.
+         */
+        void reset(String word, int hash) {
+            int slot = find(word, hash);
+            if (slot >= 0) {
+                counts.set(slot, 0);
+            }
+        }
+
+        /**
+         * Called under the stripe's lock.
+         */
+        void resetIf(Predicate<String> filter) {
+            for (int slot = 0; slot <= mask; slot++) {
+                String word = words.get(slot);
+                if (word != null && filter.test(word)) {
+                    counts.set(slot, 0);
+                }
+            }
+        }
+
+        /**
+         * Called under the stripe's lock, hands each word with the count it had when it was sealed to {@param sink}.
+         */
+        void sealAll(CountSink sink) {
+            for (int slot = 0; slot <= mask; slot++) {
+                String word = words.get(slot);
+                if (word != null) {
+                    sink.accept(word, counts.getAndSet(slot, SEALED));
+                }
+            }
+        }
+
+        private int find(String word, int hash) {
+            int slot = hash & mask;
+            String candidate;
+            while ((candidate = words.get(slot)) != null) {
+                if (candidate.equals(word)) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+    }
+
+    @FunctionalInterface
+    private interface CountSink {
+        void accept(String word, long count);
+    }
+}
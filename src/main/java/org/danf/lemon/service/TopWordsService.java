@@ -0,0 +1,89 @@
+package org.danf.lemon.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.danf.lemon.db.storage.WordCountStorage;
+import org.danf.lemon.db.storage.WordKeys;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Serves the most frequent words from an in-memory {@link SpaceSaving} structure rather than by sorting the entire
+ * <pre>words</pre> table.
+ * The structure is seeded with the top words in the database on startup and is then kept up-to-date with every batch
+ * of counts flushed by the {@link WriteBehindWordCounter}, which means words still pending a flush are not reflected
+ * in it yet. Only words of the default namespace are tracked.
+ *
+ * Tracked counts may overestimate, exact counts of the top words are only read from the database when requested.
+ * Requests for more words than are tracked are served by a query over the index on the <pre>count</pre> column.
+ *
+ * @author Dan Feldman
+ */
+@Service
+@Slf4j
+public class TopWordsService implements WordCountListener {
+
+    private final SpaceSaving heavyHitters;
+
+    private WordCountStorage storage;
+    private StatisticsService statisticsService;
+
+    @Autowired
+    public TopWordsService(WordCountStorage storage, StatisticsService statisticsService,
+            @Value("${lemon.top.capacity:1000}") int capacity) {
+        this.storage = storage;
+        this.statisticsService = statisticsService;
+        this.heavyHitters = new SpaceSaving(capacity);
+    }
+
+    @PostConstruct
+    void seed() {
+        storage.findTopCounts(heavyHitters.getCapacity())
+                .forEach(entity -> heavyHitters.offer(entity.getWord(), entity.getCount()));
+        log.debug("Seeded top words tracker from the database");
+    }
+
+    /**
+     * @return The {@param k} most frequent words, highest first. If {@param exact} is set the counts of the tracked
+     * top words are confirmed against the database (pending counts included).
+     */
+    public List<WordCount> getTopWords(int k, boolean exact) {
+        if (k > heavyHitters.getCapacity()) {
+            return storage.findTopCounts(k).stream()
+                    .map(entity -> new WordCount(entity.getWord(), entity.getCount(), 0))
+                    .collect(Collectors.toList());
+        }
+        List<WordCount> top = heavyHitters.top(k);
+        if (!exact) {
+            return top;
+        }
+        Map<String, Long> counts = statisticsService.getWordCounts(
+                top.stream().map(WordCount::getWord).collect(Collectors.toList()));
+        return counts.entrySet().stream()
+                .map(entry -> new WordCount(entry.getKey(), entry.getValue(), 0))
+                .sorted(Comparator.comparingLong(WordCount::getCount).reversed())
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public void onFlushed(Map<String, Long> deltas) {
+        deltas.forEach((key, delta) -> {
+            if (WordKeys.isDefaultNamespace(key)) {
+                heavyHitters.offer(WordKeys.wordOf(key), delta);
+            }
+        });
+    }
+
+    @Override
+    public void onReset(String key) {
+        if (WordKeys.isDefaultNamespace(key)) {
+            heavyHitters.remove(WordKeys.wordOf(key));
+        }
+    }
+}
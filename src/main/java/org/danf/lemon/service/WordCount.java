@@ -0,0 +1,17 @@
+package org.danf.lemon.service;
+
+import lombok.Value;
+
+/**
+ * A word and the number of times it appeared.
+ * Approximate counts may overestimate the true count by up to {@link #maxError}, exact counts have no error.
+ *
+ * @author Dan Feldman
+ */
+@Value
+public class WordCount {
+
+    String word;
+    long count;
+    long maxError;
+}
@@ -0,0 +1,210 @@
+package org.danf.lemon.service;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.danf.lemon.config.StatisticsCacheProperties;
+import org.danf.lemon.db.storage.WordCountStorage;
+import org.danf.lemon.db.storage.WordKeys;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * A bounded read-through cache of persisted word counts, evicting by size and by time since a word was loaded.
+ * Words that don't exist in the database are cached as well (with a count of 0) so polling absent words doesn't hit
+ * the database either.
+ * Multiple words that miss the cache are read together with <pre>WHERE word IN (...)</pre> queries of at most
+ * <pre>lemon.db.max-in-clause-size</pre> words each.
+ * Every namespace that has data has a cache of its own, bounded by the same size, so reading lots of words of one
+ * namespace can't evict the words of another. A namespace's cache is only created once a read found any of its words,
+ * until then its words are read from the database directly, so reading namespaces that don't exist can't grow the
+ * caches. Resetting a namespace drops its cache along with its meters.
+ *
+ * Implementation note:
+ * Flushed and reset words are invalidated rather than updated in place, so a value read before the flush was committed
+ * must never be cached after the invalidation. A single word is loaded by the cache itself, and an invalidation waits
+ * for any load of the same word that's in progress. Words read together aren't loaded through the cache, since Caffeine
+ * stores the result of a bulk load without waiting for invalidations in between. Instead each of them is only cached
+ * if no invalidation happened since the read started (tracked by {@link #generation}), checked while holding the
+ * word's entry so that an invalidation of the word either comes before the check or removes the cached value.
+ *
+ * @author Dan Feldman
+ */
+@Service
+@Slf4j
+public class WordCountCache implements WordCountListener, MeterBinder {
+
+    private final ConcurrentMap<String, LoadingCache<String, Long>> caches = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+    private final WordCountStorage storage;
+    private final StatisticsCacheProperties properties;
+    private final int maxInClauseSize;
+    private volatile MeterRegistry registry;
+
+    @Autowired
+    public WordCountCache(WordCountStorage storage, StatisticsCacheProperties properties,
+            @Value("${lemon.db.max-in-clause-size:500}") int maxInClauseSize) {
+        this.storage = storage;
+        this.properties = properties;
+        this.maxInClauseSize = maxInClauseSize;
+        cacheOf(WordKeys.DEFAULT_NAMESPACE);
+    }
+
+    /**
+     * @return The persisted count of {@param word}, 0 if it doesn't exist.
+     */
+    public long getPersistedCount(String word) {
+        LoadingCache<String, Long> cache = caches.get(WordKeys.namespaceOf(word));
+        return cache != null ? cache.get(word) : loadAll(Collections.singletonList(word)).get(word);
+    }
+
+    /**
+     * @return The persisted count of each of {@param words}, 0 for words that don't exist.
+     */
+    public Map<String, Long> getPersistedCounts(Iterable<String> words) {
+        Map<String, List<String>> byNamespace = new HashMap<>();
+        for (String word : words) {
+            byNamespace.computeIfAbsent(WordKeys.namespaceOf(word), namespace -> new ArrayList<>()).add(word);
+        }
+        Map<String, Long> counts = new HashMap<>();
+        List<String> misses = new ArrayList<>();
+        byNamespace.forEach((namespace, keys) -> {
+            LoadingCache<String, Long> cache = caches.get(namespace);
+            if (cache == null) {
+                misses.addAll(keys);
+                return;
+            }
+            Map<String, Long> present = cache.getAllPresent(keys);
+            counts.putAll(present);
+            keys.stream().filter(key -> !present.containsKey(key)).forEach(misses::add);
+        });
+        if (!misses.isEmpty()) {
+            counts.putAll(loadAll(misses));
+        }
+        return counts;
+    }
+
+    /**
+     * @return The stats of the caches of all namespaces combined.
+     */
+    public CacheStats getStats() {
+        return caches.values().stream()
+                .map(LoadingCache::stats)
+                .reduce(CacheStats.empty(), CacheStats::plus);
+    }
+
+    public long size() {
+        return caches.values().stream().mapToLong(LoadingCache::estimatedSize).sum();
+    }
+
+    @Override
+    public void onFlushed(Map<String, Long> deltas) {
+        generation.incrementAndGet();
+        deltas.keySet().stream()
+                .collect(Collectors.groupingBy(WordKeys::namespaceOf))
+                .forEach((namespace, keys) -> {
+                    LoadingCache<String, Long> cache = caches.get(namespace);
+                    if (cache != null) {
+                        cache.invalidateAll(keys);
+                    }
+                });
+    }
+
+    @Override
+    public void onReset(String word) {
+        generation.incrementAndGet();
+        LoadingCache<String, Long> cache = caches.get(WordKeys.namespaceOf(word));
+        if (cache != null) {
+            cache.invalidate(word);
+        }
+    }
+
+    @Override
+    public void onNamespaceReset(String namespace) {
+        generation.incrementAndGet();
+        LoadingCache<String, Long> cache = caches.remove(namespace);
+        if (cache != null) {
+            cache.invalidateAll();
+            MeterRegistry meterRegistry = registry;
+            if (meterRegistry != null) {
+                String name = cacheName(namespace);
+                meterRegistry.getMeters().stream()
+                        .filter(meter -> name.equals(meter.getId().getTag("cache")))
+                        .forEach(meterRegistry::remove);
+            }
+        }
+    }
+
+    /**
+     * The default namespace's cache is reported as <pre>words</pre>, other namespaces as <pre>words:namespace</pre>.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.registry = registry;
+        caches.forEach((namespace, cache) -> monitor(registry, namespace, cache));
+    }
+
+    private LoadingCache<String, Long> cacheOf(String namespace) {
+        return caches.computeIfAbsent(namespace, this::newCache);
+    }
+
+    private LoadingCache<String, Long> newCache(String namespace) {
+        LoadingCache<String, Long> cache = Caffeine.newBuilder()
+                .maximumSize(properties.getMaxSize())
+                .expireAfterWrite(properties.getTtlMs(), TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build(storage::getCount);
+        MeterRegistry meterRegistry = registry;
+        if (meterRegistry != null) {
+            monitor(meterRegistry, namespace, cache);
+        }
+        return cache;
+    }
+
+    private static void monitor(MeterRegistry registry, String namespace, LoadingCache<String, Long> cache) {
+        CaffeineCacheMetrics.monitor(registry, cache, cacheName(namespace));
+    }
+
+    private static String cacheName(String namespace) {
+        return WordKeys.DEFAULT_NAMESPACE.equals(namespace) ? "words" : "words:" + namespace;
+    }
+
+    /**
+     * Reads {@param words} from the storage, caching the counts that weren't invalidated in the meantime.
+     * Words of a namespace without a cache are only cached if the namespace turned out to have data.
+     */
+    private Map<String, Long> loadAll(List<String> words) {
+        long readAt = generation.get();
+        Map<String, Long> counts = new HashMap<>();
+        for (int i = 0; i < words.size(); i += maxInClauseSize) {
+            List<String> chunk = words.subList(i, Math.min(i + maxInClauseSize, words.size()));
+            chunk.forEach(word -> counts.put(word, 0L));
+            counts.putAll(storage.getCounts(chunk));
+        }
+        counts.forEach((word, count) -> {
+            String namespace = WordKeys.namespaceOf(word);
+            LoadingCache<String, Long> cache = count > 0 && generation.get() == readAt
+                    ? cacheOf(namespace) : caches.get(namespace);
+            if (cache != null) {
+                cache.asMap().computeIfAbsent(word, key -> generation.get() == readAt ? count : null);
+            }
+        });
+        return counts;
+    }
+}
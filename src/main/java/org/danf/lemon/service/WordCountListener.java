@@ -0,0 +1,30 @@
+package org.danf.lemon.service;
+
+import java.util.Map;
+
+/**
+ * Notified by the {@link WriteBehindWordCounter} whenever persisted counts change.
+ * Listeners are called on the flushing thread while flushes are blocked, so they're expected to return quickly.
+ *
+ * @author Dan Feldman
+ */
+public interface WordCountListener {
+
+    /**
+     * Called after {@param deltas} were committed to the database.
+     */
+    void onFlushed(Map<String, Long> deltas);
+
+    /**
+     * Called after the count of {@param word} was reset.
+     * Words of a named namespace are passed as keys (see {@link org.danf.lemon.db.storage.WordKeys}), here and to
+     * {@link #onFlushed}.
+     */
+    void onReset(String word);
+
+    /**
+     * Called after all counts of {@param namespace} were reset.
+     */
+    default void onNamespaceReset(String namespace) {
+    }
+}
@@ -0,0 +1,110 @@
+package org.danf.lemon.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.danf.lemon.db.storage.WordCountStorage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Exports the entire <pre>words</pre> table (or a filtered part of it) in a line-oriented format.
+ * Rows are read through a forward-only cursor and written to the output as they're read, so memory usage doesn't
+ * depend on the size of the table.
+ * Pending counts are flushed before the export starts so that it reflects every word counted up to that point.
+ *
+ * @author Dan Feldman
+ */
+@Service
+@Slf4j
+public class WordExportService {
+
+    public enum Format {
+        /**
+         * One <pre>{"word":"lemon","count":3}</pre> object per line.
+         */
+        NDJSON("application/x-ndjson"),
+        /**
+         * A <pre>word,count</pre> header followed by one row per word, quoted as per RFC 4180 where required.
+         */
+        CSV("text/csv");
+
+        private final String contentType;
+
+        Format(String contentType) {
+            this.contentType = contentType;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+    }
+
+    private WordCountStorage storage;
+    private WriteBehindWordCounter wordCounter;
+    private JsonFactory jsonFactory;
+
+    @Autowired
+    public WordExportService(WordCountStorage storage, WriteBehindWordCounter wordCounter, ObjectMapper objectMapper) {
+        this.storage = storage;
+        this.wordCounter = wordCounter;
+        this.jsonFactory = objectMapper.getFactory();
+    }
+
+    /**
+     * Writes all words with a count of at least {@param minCount} that start with {@param prefix} (if given) to
+     * {@param out} in the requested {@param format}.
+     */
+    public void export(OutputStream out, Format format, long minCount, String prefix) throws IOException {
+        wordCounter.flush();
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, UTF_8));
+        if (format == Format.NDJSON) {
+            exportNdjson(writer, minCount, prefix);
+        } else {
+            exportCsv(writer, minCount, prefix);
+        }
+        writer.flush();
+    }
+
+    private void exportNdjson(Writer writer, long minCount, String prefix) throws IOException {
+        JsonGenerator generator = jsonFactory.createGenerator(writer)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+        generator.setRootValueSeparator(null);
+        storage.forEachWord(minCount, prefix, (word, count) -> {
+            generator.writeStartObject();
+            generator.writeStringField("word", word);
+            generator.writeNumberField("count", count);
+            generator.writeEndObject();
+            generator.flush();
+            writer.write('\n');
+        });
+        generator.close();
+    }
+
+    private void exportCsv(Writer writer, long minCount, String prefix) throws IOException {
+        writer.write("word,count\r\n");
+        storage.forEachWord(minCount, prefix, (word, count) -> {
+            writer.write(csvField(word));
+            writer.write(',');
+            writer.write(Long.toString(count));
+            writer.write("\r\n");
+        });
+    }
+
+    private static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
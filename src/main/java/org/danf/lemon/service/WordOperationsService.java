@@ -1,24 +1,45 @@
 package org.danf.lemon.service;
 
 import lombok.extern.slf4j.Slf4j;
-import org.apache.http.client.fluent.Request;
-import org.danf.lemon.db.entity.WordEntity;
-import org.danf.lemon.db.repo.WordsRepo;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.danf.lemon.config.CounterProperties;
+import org.danf.lemon.config.FileCountProperties;
+import org.danf.lemon.config.TokenizerProperties;
+import org.danf.lemon.config.UrlFetchProperties;
+import org.danf.lemon.db.storage.WordKeys;
+import org.danf.lemon.service.encoding.ContentDecoder;
+import org.danf.lemon.service.encoding.ContentEncoding;
+import org.danf.lemon.service.job.CountJob;
+import org.danf.lemon.service.job.CountJobInputStream;
+import org.danf.lemon.service.metrics.CountMetrics;
+import org.danf.lemon.service.tokenizer.NormalizationProfiles;
+import org.danf.lemon.service.tokenizer.WordNormalizer;
+import org.danf.lemon.service.tokenizer.WordTokenizer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.scheduling.annotation.AsyncResult;
 import org.springframework.stereotype.Service;
 
-import javax.transaction.Transactional;
 import javax.validation.constraints.NotNull;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
-import java.util.Scanner;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Future;
 
+import static org.apache.commons.lang3.StringUtils.defaultString;
+
 /**
  * This service provides word counting functionality for the REST endpoints of this application.
  *
@@ -27,72 +48,237 @@ import java.util.concurrent.Future;
  * a correct status to the user (i.e. if the request to get the resource fails).
  * I chose to let the user have the option to decide  if they'd like to wait for the execution to finish or not by
  * waiting on the returned {@link Future}.
+ * The progress of each request is reported to a {@link CountJob}, which async requests can be polled by.
  * Error handling is made as if the requests are run in sync mode (i.e. attempting to return meaningful status codes
  * and errors to the user), they are also backed by logging each error so that errors originating async calls can also
  * be traced.
+ * Counting doesn't write to the database directly, words are handed to the {@link WriteBehindWordCounter} which
+ * persists them in batches. Streamed requests aggregate their words locally and hand them over in batches of
+ * {@link CounterProperties#getRequestBatchWords()} distinct words.
+ * Totals of each request are reported to {@link CountMetrics} once it finishes, never per word.
  *
  * @author Dan Feldman
  */
 @Service
-@Transactional
 @Slf4j
 public class WordOperationsService {
 
-    private WordsRepo wordsRepo;
+    private static final String ACCEPTED_ENCODINGS = "gzip, zstd";
+
+    private WriteBehindWordCounter wordCounter;
+    private WordTokenizer wordTokenizer;
+    private MappedFileCounter mappedFileCounter;
+    private BulkFileCounter bulkFileCounter;
+    private FileCountProperties fileCountProperties;
+    private CountMetrics metrics;
+    private CloseableHttpClient httpClient;
+    private UrlFetchProperties urlFetchProperties;
+    private NormalizationProfiles normalizationProfiles;
+    private CounterProperties counterProperties;
+    private TokenizerProperties tokenizerProperties;
 
     @Autowired
-    public WordOperationsService(WordsRepo wordsRepo) {
-        this.wordsRepo = wordsRepo;
+    public WordOperationsService(WriteBehindWordCounter wordCounter, WordTokenizer wordTokenizer,
+            MappedFileCounter mappedFileCounter, BulkFileCounter bulkFileCounter, FileCountProperties fileCountProperties,
+            CountMetrics metrics, CloseableHttpClient httpClient, UrlFetchProperties urlFetchProperties,
+            NormalizationProfiles normalizationProfiles, CounterProperties counterProperties,
+            TokenizerProperties tokenizerProperties) {
+        this.wordCounter = wordCounter;
+        this.wordTokenizer = wordTokenizer;
+        this.mappedFileCounter = mappedFileCounter;
+        this.bulkFileCounter = bulkFileCounter;
+        this.fileCountProperties = fileCountProperties;
+        this.metrics = metrics;
+        this.httpClient = httpClient;
+        this.urlFetchProperties = urlFetchProperties;
+        this.normalizationProfiles = normalizationProfiles;
+        this.counterProperties = counterProperties;
+        this.tokenizerProperties = tokenizerProperties;
     }
 
     /**
      * Receives a valid {@param url} and sends the data returned from a GET request executed against it.
-     * The content is then sent for processing by {@link #countFromStream}
+     * The response body is streamed into {@link #countFromStream} as it arrives (it's never buffered in full), bodies
+     * larger than {@link UrlFetchProperties#getMaxBodyBytes()} fail the request.
+     * A compressed response is decompressed according to its <pre>Content-Encoding</pre> header, or
+     * {@param encoding} if it has none, and fails the request once it decompressed to more than
+     * {@link UrlFetchProperties#getMaxDecodedBodyBytes()}.
      */
     @Async
-    public Future<Void> countFromUrl(URI url) throws IOException {
-        Request getRequest = Request.Get(url)
-                .connectTimeout(3000)
-                .socketTimeout(3000);
-        try (InputStream in = getRequest.execute().returnContent().asStream()) {
-            countFromStream(in);
-        }
-        return new AsyncResult<>(null);
+    public Future<Void> countFromUrl(URI url, ContentEncoding encoding, CountJob job) throws IOException {
+        return runJob(CountMetrics.SOURCE_URL, job, () -> {
+            HttpGet get = new HttpGet(url);
+            get.setHeader(HttpHeaders.ACCEPT_ENCODING, ACCEPTED_ENCODINGS);
+            try (CloseableHttpResponse response = httpClient.execute(get)) {
+                HttpEntity entity = validateResponse(url, response);
+                Header contentEncoding = entity.getContentEncoding();
+                ContentEncoding responseEncoding = contentEncoding == null
+                        ? encoding
+                        : ContentEncoding.fromName(contentEncoding.getValue());
+                try (InputStream in = limit(entity.getContent(), urlFetchProperties.getMaxBodyBytes(),
+                        "Response body")) {
+                    InputStream decoded = ContentDecoder.decode(in, responseEncoding, job);
+                    countDecoded(limit(decoded, urlFetchProperties.getMaxDecodedBodyBytes(),
+                            "Decompressed response body"), job);
+                }
+            } catch (IOException | RuntimeException e) {
+                // Don't let closing the response drain the rest of a large body into a pooled connection
+                get.abort();
+                throw e;
+            }
+        });
     }
 
     /**
      * Receives a valid, existing {@param file} and creates a stream from its content.
      * The content is then sent for processing by {@link #countFromStream}
+     * Uncompressed files larger than {@link FileCountProperties#getParallelThresholdBytes()} are counted in parallel
+     * by the {@link MappedFileCounter} instead. Compressed files (by {@param encoding}, their extension or their first
+     * bytes) are always streamed.
      */
     @Async
-    public Future<Void> countFromFile(@NotNull File file) throws IOException {
-        try (InputStream in = new FileInputStream(file)){
-            countFromStream(in);
-        }
-        return new AsyncResult<>(null);
+    public Future<Void> countFromFile(@NotNull File file, ContentEncoding encoding, CountJob job) throws IOException {
+        return runJob(CountMetrics.SOURCE_FILE, job, () -> {
+            ContentEncoding fileEncoding = ContentDecoder.resolve(file, encoding);
+            if (fileEncoding == ContentEncoding.IDENTITY &&
+                    file.length() >= fileCountProperties.getParallelThresholdBytes()) {
+                log.debug("Counting file '{}' of {} bytes in parallel", file, file.length());
+                wordCounter.addAll(job.getNamespace(), mappedFileCounter.count(file, job));
+                wordCounter.requestCompleted();
+            } else {
+                try (InputStream in = new FileInputStream(file)) {
+                    countFromStream(in, fileEncoding, job);
+                }
+            }
+        });
+    }
+
+    /**
+     * Counts all of {@param files} in parallel with the {@link BulkFileCounter} as a single job, the counts of all files
+     * are handed to the {@link WriteBehindWordCounter} together once every file was counted.
+     */
+    @Async
+    public Future<Void> countFromFiles(List<File> files, ContentEncoding encoding, CountJob job) throws IOException {
+        return runJob(CountMetrics.SOURCE_FILE, job, () -> {
+            log.debug("Counting {} files", files.size());
+            wordCounter.addAll(job.getNamespace(), bulkFileCounter.count(files, encoding, job));
+            wordCounter.requestCompleted();
+        });
     }
 
     /**
-     * Receives a stream of characters and reads it word-by-word.
-     * Each word's counter
+     * Receives a stream of UTF-8 characters and reads it word-by-word using the configured {@link WordTokenizer}.
+     * Each word's counter is incremented in the {@link WriteBehindWordCounter}.
+     * Compressed streams are detected and decompressed on the fly, words are normalized by the default normalization
+     * profile.
      */
-    public void countFromStream(InputStream in) {
-        Scanner scanner = new Scanner(in);
-        scanner.useDelimiter("\\s+");
-        while(scanner.hasNext()) {
-            String word = scanner.next();
-            log.info("Found word {} in stream.", word);
-            createOrUpdate(word);
+    public void countFromStream(InputStream in) throws IOException {
+        countFromStream(in, ContentEncoding.AUTO);
+    }
+
+    /**
+     * Same as {@link #countFromStream(InputStream)} for a stream compressed with {@param encoding}.
+     */
+    public void countFromStream(InputStream in, ContentEncoding encoding) throws IOException {
+        countFromStream(in, encoding, normalizationProfiles.getDefault());
+    }
+
+    /**
+     * Same as {@link #countFromStream(InputStream, ContentEncoding)}, words are normalized by {@param normalizer}.
+     */
+    public void countFromStream(InputStream in, ContentEncoding encoding, WordNormalizer normalizer)
+            throws IOException {
+        countFromStream(in, encoding, normalizer, WordKeys.DEFAULT_NAMESPACE);
+    }
+
+    /**
+     * Same as {@link #countFromStream(InputStream, ContentEncoding, WordNormalizer)}, words are counted under
+     * {@param namespace}.
+     */
+    public void countFromStream(InputStream in, ContentEncoding encoding, WordNormalizer normalizer, String namespace)
+            throws IOException {
+        CountJob job = new CountJob("incoming stream");
+        job.setNormalizer(normalizer);
+        job.setNamespace(namespace);
+        runJob(CountMetrics.SOURCE_STREAM, job, () -> countFromStream(in, encoding, job));
+    }
+
+    /**
+     * Same as {@link #countFromStream(InputStream, ContentEncoding)}, reporting progress to {@param job} and
+     * normalizing words by its {@link CountJob#getNormalizer()}.
+     */
+    public void countFromStream(InputStream in, ContentEncoding encoding, CountJob job) throws IOException {
+        countDecoded(ContentDecoder.decode(in, encoding, job), job);
+    }
+
+    /**
+     * Counts the words of {@param decoded}, which is already decompressed, in batches of
+     * {@link CounterProperties#getRequestBatchWords()}.
+     */
+    private void countDecoded(InputStream decoded, CountJob job) throws IOException {
+        Map<String, Long> batch = new HashMap<>();
+        wordTokenizer.tokenize(new CountJobInputStream(decoded, job), job.getNormalizer(), word -> {
+            job.wordCounted();
+            batch.merge(word, 1L, Long::sum);
+            if (batch.size() >= counterProperties.getRequestBatchWords()) {
+                wordCounter.addAll(job.getNamespace(), batch);
+                batch.clear();
+            }
+        });
+        wordCounter.addAll(job.getNamespace(), batch);
+        wordCounter.requestCompleted();
+    }
+
+    /**
+     * Starts counting an uncompressed stream whose bytes are pushed in as they arrive instead of being read, words are
+     * normalized by {@param normalizer} and counted under {@param namespace}.
+     */
+    public StreamingCount startStreamingCount(String source, WordNormalizer normalizer, String namespace) {
+        CountJob job = new CountJob(source);
+        job.setNormalizer(normalizer);
+        job.setNamespace(namespace);
+        return new StreamingCount(job, tokenizerProperties.getMaxInternedWords(),
+                counterProperties.getRequestBatchWords(), wordCounter, metrics);
+    }
+
+    private HttpEntity validateResponse(URI url, HttpResponse response) throws IOException {
+        StatusLine status = response.getStatusLine();
+        if (status.getStatusCode() < 200 || status.getStatusCode() >= 300) {
+            throw new IOException(("GET " + url + " returned " + status.getStatusCode() + " " +
+                    defaultString(status.getReasonPhrase())).trim());
+        }
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            throw new IOException("GET " + url + " returned no content");
+        }
+        long maxBodyBytes = urlFetchProperties.getMaxBodyBytes();
+        if (maxBodyBytes >= 0 && entity.getContentLength() > maxBodyBytes) {
+            throw new IOException("Content of " + url + " is " + entity.getContentLength() + " bytes long, max " +
+                    "allowed size is " + maxBodyBytes + " bytes");
         }
+        return entity;
     }
 
-    private void createOrUpdate(String word) {
-        if (wordsRepo.existsById(word)) {
-            log.info("word '{}' exists, incrementing count", word);
-            wordsRepo.incrementCount(word);
-        } else {
-            log.info("word '{}' doesn't exist, creating", word);
-            wordsRepo.save(WordEntity.builder().word(word).count(1).build());
+    private static InputStream limit(InputStream in, long maxBytes, String description) {
+        return maxBytes < 0 ? in : new BoundedInputStream(in, maxBytes, description);
+    }
+
+    private Future<Void> runJob(String source, CountJob job, CountTask task) throws IOException {
+        job.start();
+        try {
+            task.run();
+            job.complete();
+        } catch (IOException | RuntimeException e) {
+            job.fail(e);
+            throw e;
+        } finally {
+            metrics.requestFinished(source, job);
         }
+        return new AsyncResult<>(null);
+    }
+
+    @FunctionalInterface
+    private interface CountTask {
+        void run() throws IOException;
     }
 }
@@ -0,0 +1,128 @@
+package org.danf.lemon.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.danf.lemon.db.storage.SortedWords;
+import org.danf.lemon.db.storage.WordCountStorage;
+import org.danf.lemon.db.storage.WordKeys;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Collectors;
+
+/**
+ * Finds the words starting with a prefix, with their counts, from an in-memory sorted index of all persisted words
+ * rather than by a prefix query against the {@link WordCountStorage} (a <pre>LIKE</pre> scan of the <pre>words</pre>
+ * table with the JPA backend).
+ * The index is loaded from the storage on startup and is then kept up-to-date with every batch of counts flushed by
+ * the {@link WriteBehindWordCounter}, which means words still pending a flush are not reflected in it yet.
+ * Only words of the default namespace are indexed.
+ *
+ * Words of a prefix are a contiguous range of the index so sorting by word only reads the requested page, sorting by
+ * count reads the whole range and keeps the top words up to the requested page in a bounded heap.
+ * The index can be disabled with <pre>lemon.search.index-enabled</pre> (i.e. to save memory on huge vocabularies) in
+ * which case searches fall back to the storage prefix query.
+ *
+ * @author Dan Feldman
+ */
+@Service
+@Slf4j
+public class WordSearchService implements WordCountListener {
+
+    public enum SortBy {
+        /**
+         * Alphabetical (by UTF-16 code units, as the database sorts them).
+         */
+        WORD,
+        /**
+         * Highest count first, ties sorted by word.
+         */
+        COUNT
+    }
+
+    private static final Comparator<WordCount> BY_COUNT = Comparator.comparingLong(WordCount::getCount).reversed()
+            .thenComparing(WordCount::getWord);
+
+    private final ConcurrentSkipListMap<String, Long> index = new ConcurrentSkipListMap<>();
+
+    private WordCountStorage storage;
+    private boolean indexEnabled;
+
+    @Autowired
+    public WordSearchService(WordCountStorage storage,
+            @Value("${lemon.search.index-enabled:true}") boolean indexEnabled) {
+        this.storage = storage;
+        this.indexEnabled = indexEnabled;
+    }
+
+    /**
+     * Reloads the index from the storage.
+     */
+    @PostConstruct
+    public void rebuild() {
+        if (!indexEnabled) {
+            log.info("Word search index is disabled, prefix searches will query the storage");
+            return;
+        }
+        index.clear();
+        storage.forEachWord(0, null, index::put);
+        log.debug("Loaded {} words into the search index", index.size());
+    }
+
+    /**
+     * @return Page {@param page} (0 based) of {@param size} words starting with {@param prefix} (all words if it's
+     * empty), sorted by {@param sortBy}.
+     */
+    public List<WordCount> search(String prefix, int page, int size, SortBy sortBy) {
+        if (!indexEnabled) {
+            return searchStorage(prefix, page, size, sortBy);
+        }
+        NavigableMap<String, Long> range = SortedWords.withPrefix(index, prefix);
+        long offset = (long) page * size;
+        if (sortBy == SortBy.WORD) {
+            return range.entrySet().stream()
+                    .skip(offset)
+                    .limit(size)
+                    .map(entry -> new WordCount(entry.getKey(), entry.getValue(), 0))
+                    .collect(Collectors.toList());
+        }
+        return SortedWords.topPage(range.entrySet().stream()
+                .map(entry -> new WordCount(entry.getKey(), entry.getValue(), 0)), offset, size, BY_COUNT);
+    }
+
+    @Override
+    public void onFlushed(Map<String, Long> deltas) {
+        if (indexEnabled) {
+            deltas.forEach((key, delta) -> {
+                if (WordKeys.isDefaultNamespace(key)) {
+                    index.merge(WordKeys.wordOf(key), delta, Math::addExact);
+                }
+            });
+        }
+    }
+
+    @Override
+    public void onReset(String key) {
+        if (WordKeys.isDefaultNamespace(key)) {
+            index.remove(WordKeys.wordOf(key));
+        }
+    }
+
+    private List<WordCount> searchStorage(String prefix, int page, int size, SortBy sortBy) {
+        Sort order = sortBy == SortBy.WORD
+                ? Sort.by("word")
+                : Sort.by(Direction.DESC, "count").and(Sort.by("word"));
+        return storage.findByPrefix(prefix, PageRequest.of(page, size, order)).stream()
+                .map(entity -> new WordCount(entity.getWord(), entity.getCount(), 0))
+                .collect(Collectors.toList());
+    }
+}
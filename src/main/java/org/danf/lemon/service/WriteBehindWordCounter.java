@@ -0,0 +1,359 @@
+package org.danf.lemon.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.danf.lemon.config.CounterProperties;
+import org.danf.lemon.config.CounterProperties.Durability;
+import org.danf.lemon.db.storage.WordCountStorage;
+import org.danf.lemon.db.storage.WordKeys;
+import org.danf.lemon.service.metrics.CountMetrics;
+import org.danf.lemon.service.sketch.WordSketches;
+import org.danf.lemon.service.wal.WriteAheadLog;
+import org.danf.lemon.service.window.WindowedCounts;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * A write-behind layer between the counting path and the {@link WordCountStorage}.
+ * Word appearances are folded into an in-memory {@link StripedCountStore} and written to the database in batches, either at the end of each
+ * request, periodically or on shutdown (see {@link Durability}). A flush is also forced whenever the number of distinct
+ * pending words crosses {@link CounterProperties#getMaxPendingWords()}.
+ *
+ * Implementation notes:
+ * Flushes are serialized, only a single thread writes pending counts to the database at any given time which also
+ * means two concurrent requests can never race on inserting the same new word.
+ * Pending counts that are being written by an ongoing flush are kept aside in {@link #inFlight} so that readers can
+ * still see them. Right after the flush commits a reader could see them both in {@link #inFlight} and in the database,
+ * so reads that overlap a flush are detected by {@link #flushVersion} and repeated until one doesn't (see
+ * {@link #read}). The version turns odd in the same critical section that drains the pending counts, before they're
+ * moved to {@link #inFlight}, so no read can miss them unnoticed.
+ * If writing a flush's batch fails it's merged back into the pending map so it's retried by the next flush.
+ * Every committed flush and reset is published to the registered {@link WordCountListener}s.
+ * When the {@link WriteAheadLog} is enabled every batch is appended to it before it's added to the pending counts, and
+ * requests wait for their batches to be on disk (instead of in the database) before completing. Appending and adding
+ * share {@link #walLock} with a flush draining the pending counts, so every record up to the LSN a flush checkpoints is
+ * part of its batch or of an earlier one. Failed flushes don't append their batch again, its records are still in the
+ * log until a later flush checkpoints past them.
+ * Words of a named namespace are handled as keys (see {@link WordKeys}) all the way down to the storage.
+ *
+ * @author Dan Feldman
+ */
+@Service
+@Slf4j
+public class WriteBehindWordCounter {
+
+    private static final long READ_RETRY_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final StripedCountStore pending;
+    private volatile Map<String, Long> inFlight = Collections.emptyMap();
+    /**
+     * Odd while a flush is in progress, incremented when it starts and when it ends.
+     */
+    private volatile long flushVersion;
+    private final Object flushLock = new Object();
+    /**
+     * Shared by appends to the write-ahead log, exclusive while a flush drains the pending counts.
+     */
+    private final ReadWriteLock walLock = new ReentrantReadWriteLock();
+
+    private WordCountStorage storage;
+    private CounterProperties properties;
+    private ObjectProvider<WordCountListener> listeners;
+    private CountMetrics metrics;
+    private WriteAheadLog wal;
+    private WordSketches sketches;
+    private WindowedCounts windowedCounts;
+    private int maxInClauseSize;
+
+    @Autowired
+    public WriteBehindWordCounter(WordCountStorage storage, CounterProperties properties, ObjectProvider<WordCountListener> listeners, CountMetrics metrics,
+            WriteAheadLog wal, WordSketches sketches, WindowedCounts windowedCounts,
+            @Value("${lemon.db.max-in-clause-size:500}") int maxInClauseSize) {
+        this.storage = storage;
+        this.maxInClauseSize = maxInClauseSize;
+        this.wal = wal;
+        this.sketches = sketches;
+        this.windowedCounts = windowedCounts;
+        this.properties = properties;
+        this.listeners = listeners;
+        this.metrics = metrics;
+        this.pending = new StripedCountStore(properties.getStripes());
+        metrics.monitorPendingWords(pending);
+    }
+
+    /**
+     * Counts that were logged but not flushed before the last shutdown are pending again, and flushed as usual.
+     */
+    @PostConstruct
+    void recover() {
+        Map<String, Long> recovered = wal.takeRecovered();
+        if (!recovered.isEmpty()) {
+            log.info("Recovered pending counts of {} words from the write-ahead log", recovered.size());
+            recovered.forEach(pending::add);
+        }
+    }
+
+    /**
+     * Records a single appearance of {@param word}.
+     */
+    public void add(String word) {
+        add(word, 1L);
+    }
+
+    /**
+     * Records {@param delta} appearances of {@param word}.
+     */
+    public void add(String word, long delta) {
+        if (wal.isEnabled()) {
+            addAll(Collections.singletonMap(word, delta));
+        } else if (addPending(word, delta)) {
+            flushOnThreshold();
+        }
+    }
+
+    /**
+     * Records the appearances of all words in {@param counts}, as a single record of the write-ahead log if it's
+     * enabled.
+     */
+    public void addAll(Map<String, Long> counts) {
+        if (!wal.isEnabled()) {
+            counts.forEach(this::add);
+            return;
+        }
+        boolean thresholdReached = false;
+        walLock.readLock().lock();
+        try {
+            wal.append(counts);
+            for (Map.Entry<String, Long> count : counts.entrySet()) {
+                thresholdReached |= addPending(count.getKey(), count.getValue());
+            }
+        } finally {
+            walLock.readLock().unlock();
+        }
+        if (thresholdReached) {
+            flushOnThreshold();
+        }
+    }
+
+    /**
+     * Records the appearances of all words in {@param counts} under {@param namespace}.
+     */
+    public void addAll(String namespace, Map<String, Long> counts) {
+        if (WordKeys.DEFAULT_NAMESPACE.equals(namespace)) {
+            addAll(counts);
+            return;
+        }
+        Map<String, Long> keys = new HashMap<>(counts.size() * 4 / 3 + 1);
+        counts.forEach((word, count) -> keys.put(WordKeys.key(namespace, word), count));
+        addAll(keys);
+    }
+
+    /**
+     * @return The number of appearances of {@param word} that were counted but not yet persisted.
+     */
+    public long getPendingCount(String word) {
+        return Math.addExact(pending.get(word), inFlight.getOrDefault(word, 0L));
+    }
+
+    /**
+     * Runs {@param reader}, which combines persisted and pending counts, so that it doesn't overlap a flush.
+     * Reads never take a lock, a read that ran concurrently with a flush is repeated once that flush ended. It doesn't
+     * wait for any flush that starts later or for a reset, which both share {@link #flushLock}.
+     */
+    public <T> T read(Supplier<T> reader) {
+        while (true) {
+            long version = flushVersion;
+            if ((version & 1) == 0) {
+                T result = reader.get();
+                if (flushVersion == version) {
+                    return result;
+                }
+            } else {
+                LockSupport.parkNanos(READ_RETRY_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Called by the counting path once a request finished processing its input, waits for its counts to be durable
+     * if the durability mode or the write-ahead log require it.
+     */
+    public void requestCompleted() throws IOException {
+        if (properties.getDurability() == Durability.REQUEST) {
+            flush();
+        } else if (wal.isEnabled()) {
+            wal.awaitDurable(wal.getLastAppendedLsn());
+        }
+    }
+
+    /**
+     * Drops any pending count of {@param word} and removes it from the database.
+     * Waits for an ongoing flush to finish so that it can't re-insert the word after it was removed.
+     */
+    public void reset(String word) {
+        synchronized (flushLock) {
+            walLock.writeLock().lock();
+            try {
+                wal.appendReset(word);
+                pending.remove(word);
+            } finally {
+                walLock.writeLock().unlock();
+            }
+            storage.delete(word);
+            listeners.orderedStream().forEach(listener -> listener.onReset(word));
+        }
+    }
+
+    /**
+     * Drops all pending counts of {@param namespace} and removes all of its words from the database in one go.
+     * Waits for an ongoing flush to finish, like {@link #reset}.
+     *
+     * @return The number of words removed from the database.
+     */
+    public int resetNamespace(String namespace) {
+        String prefix = WordKeys.prefixOf(namespace);
+        synchronized (flushLock) {
+            walLock.writeLock().lock();
+            try {
+                wal.appendResetNamespace(namespace);
+                pending.removeIf(key -> key.startsWith(prefix));
+            } finally {
+                walLock.writeLock().unlock();
+            }
+            int deleted = storage.deleteNamespace(namespace);
+            listeners.orderedStream().forEach(listener -> listener.onNamespaceReset(namespace));
+            return deleted;
+        }
+    }
+
+    private boolean addPending(String word, long delta) {
+        return pending.add(word, delta) && pending.size() >= properties.getMaxPendingWords();
+    }
+
+    private void flushOnThreshold() {
+        log.debug("Pending words reached threshold of {}, flushing", properties.getMaxPendingWords());
+        flush();
+    }
+
+    @Scheduled(fixedDelayString = "${lemon.counter.flush-interval-ms:1000}")
+    void flushOnInterval() {
+        if (properties.getDurability() == Durability.INTERVAL) {
+            try {
+                flush();
+            } catch (Exception e) {
+                log.error("Periodic flush of pending word counts failed: {}", e.getMessage());
+                log.debug("", e);
+            }
+        }
+    }
+
+    /**
+     * Pending counts are always flushed on shutdown regardless of the durability mode.
+     */
+    @PreDestroy
+    void flushOnShutdown() {
+        log.info("Flushing pending word counts before shutdown");
+        flush();
+    }
+
+    /**
+     * Writes all pending counts to the {@link WordCountStorage} in a single write, along with the checkpoint of the
+     * write-ahead log records they cover.
+     * With approximate counting enabled only the counts admitted by the {@link WordSketches} are written (and
+     * published to the listeners), the entire batch is added to the sketches once it was written.
+     * The entire batch is also added to the {@link WindowedCounts}, in the bucket of the time it was written.
+     * Only a failed write puts the batch back in the pending counts, anything that fails after the write committed is
+     * logged instead since retrying the batch would count it twice.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            Map<String, Long> batch = Collections.emptyMap();
+            long lsn;
+            int created;
+            long start = System.nanoTime();
+            walLock.writeLock().lock();
+            flushVersion++;
+            try {
+                try {
+                    lsn = wal.roll();
+                    batch = pending.drain();
+                    inFlight = batch;
+                } finally {
+                    walLock.writeLock().unlock();
+                }
+                if (batch.isEmpty()) {
+                    return;
+                }
+                created = write(batch, lsn);
+            } finally {
+                inFlight = Collections.emptyMap();
+                flushVersion++;
+            }
+            afterCommit("delete the flushed write-ahead log segments", () -> wal.deleteSegmentsUpTo(lsn));
+            metrics.flushed(batch.size(), created, System.nanoTime() - start);
+            log.debug("Flushed counts of {} words, {} of them new", batch.size(), created);
+        }
+    }
+
+    /**
+     * Writes {@param batch} and publishes it, while it's still visible to readers as in flight.
+     *
+     * @return The number of words created by the write.
+     */
+    private int write(Map<String, Long> batch, long lsn) {
+        Map<String, Long> admitted;
+        int created;
+        try {
+            admitted = sketches.admit(batch, this::persistedCounts);
+            created = storage.addToCounts(admitted, lsn);
+        } catch (RuntimeException e) {
+            batch.forEach(pending::add);
+            throw e;
+        }
+        afterCommit("add the flushed batch to the sketches", () -> sketches.record(batch));
+        afterCommit("add the flushed batch to the windowed counts", () -> windowedCounts.record(batch));
+        listeners.orderedStream().forEach(listener ->
+                afterCommit("publish the flushed batch to " + listener.getClass().getName(),
+                        () -> listener.onFlushed(admitted)));
+        return created;
+    }
+
+    /**
+     * Reads the persisted counts of {@param words} with queries of at most <pre>lemon.db.max-in-clause-size</pre>
+     * words each.
+     */
+    private Map<String, Long> persistedCounts(Collection<String> words) {
+        List<String> all = new ArrayList<>(words);
+        Map<String, Long> counts = new HashMap<>();
+        for (int i = 0; i < all.size(); i += maxInClauseSize) {
+            counts.putAll(storage.getCounts(all.subList(i, Math.min(i + maxInClauseSize, all.size()))));
+        }
+        return counts;
+    }
+
+    private static void afterCommit(String action, Runnable hook) {
+        try {
+            hook.run();
+        } catch (RuntimeException e) {
+            log.error("Failed to {} after a committed flush: {}", action, e.getMessage());
+            log.debug("", e);
+        }
+    }
+}
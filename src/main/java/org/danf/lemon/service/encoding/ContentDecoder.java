@@ -0,0 +1,85 @@
+package org.danf.lemon.service.encoding;
+
+import io.airlift.compress.zstd.ZstdInputStream;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import org.danf.lemon.service.job.CountJob;
+import org.danf.lemon.service.job.CountJobInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Decompresses count sources on the fly, the compressed content is never stored in full.
+ * Compressed bytes are reported to the {@link CountJob} as they're read, the decompressed bytes are counted by the
+ * caller as usual.
+ *
+ * Implementation note:
+ * Content whose encoding isn't declared is detected by its magic number. Neither the gzip nor the zstd magic number is
+ * a valid start of UTF-8 text, so plain text can't be mistaken for compressed content.
+ *
+ * @author Dan Feldman
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class ContentDecoder {
+
+    private static final int MAGIC_LENGTH = 4;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * @return A stream of the decompressed content of {@param in}, which is encoded with {@param encoding}.
+     */
+    public static InputStream decode(InputStream in, ContentEncoding encoding, CountJob job) throws IOException {
+        if (encoding == ContentEncoding.AUTO) {
+            PushbackInputStream pushback = new PushbackInputStream(in, MAGIC_LENGTH);
+            byte[] header = new byte[MAGIC_LENGTH];
+            int length = readHeader(pushback, header);
+            pushback.unread(header, 0, length);
+            in = pushback;
+            encoding = ContentEncoding.fromMagicBytes(header, length);
+        }
+        job.setEncoding(encoding);
+        switch (encoding) {
+            case GZIP:
+                return new GZIPInputStream(new CountJobInputStream(in, job, true), BUFFER_SIZE);
+            case ZSTD:
+                return new ZstdInputStream(new BufferedInputStream(new CountJobInputStream(in, job, true), BUFFER_SIZE));
+            default:
+                return in;
+        }
+    }
+
+    /**
+     * @return The encoding of {@param file}, resolving {@link ContentEncoding#AUTO} by its extension and then by its
+     * first bytes.
+     */
+    public static ContentEncoding resolve(File file, ContentEncoding encoding) throws IOException {
+        if (encoding == ContentEncoding.AUTO) {
+            encoding = ContentEncoding.fromFileName(file.getName());
+        }
+        if (encoding == ContentEncoding.AUTO) {
+            try (InputStream in = new FileInputStream(file)) {
+                byte[] header = new byte[MAGIC_LENGTH];
+                encoding = ContentEncoding.fromMagicBytes(header, readHeader(in, header));
+            }
+        }
+        return encoding;
+    }
+
+    private static int readHeader(InputStream in, byte[] header) throws IOException {
+        int length = 0;
+        while (length < header.length) {
+            int read = in.read(header, length, header.length - length);
+            if (read < 0) {
+                break;
+            }
+            length += read;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,73 @@
+package org.danf.lemon.service.encoding;
+
+import java.util.Locale;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+/**
+ * Compression formats count sources may be encoded with.
+ *
+ * @author Dan Feldman
+ */
+public enum ContentEncoding {
+
+    /**
+     * Not declared, detected from the first bytes of the content.
+     */
+    AUTO,
+    IDENTITY,
+    GZIP,
+    ZSTD;
+
+    /**
+     * @return The encoding named {@param name} (as given in a <pre>Content-Encoding</pre> header or a request param),
+     * {@link #AUTO} if it's blank.
+     * @throws IllegalArgumentException if the encoding isn't supported.
+     */
+    public static ContentEncoding fromName(String name) {
+        if (isBlank(name)) {
+            return AUTO;
+        }
+        switch (name.trim().toLowerCase(Locale.ROOT)) {
+            case "auto":
+                return AUTO;
+            case "identity":
+                return IDENTITY;
+            case "gzip":
+            case "x-gzip":
+                return GZIP;
+            case "zstd":
+                return ZSTD;
+            default:
+                throw new IllegalArgumentException("Unsupported content encoding '" + name + "'");
+        }
+    }
+
+    /**
+     * @return The encoding implied by the extension of {@param fileName}, {@link #AUTO} if there's none.
+     */
+    public static ContentEncoding fromFileName(String fileName) {
+        String name = fileName.toLowerCase(Locale.ROOT);
+        if (name.endsWith(".gz") || name.endsWith(".gzip")) {
+            return GZIP;
+        } else if (name.endsWith(".zst") || name.endsWith(".zstd")) {
+            return ZSTD;
+        }
+        return AUTO;
+    }
+
+    /**
+     * @return The encoding identified by the magic number at the start of {@param header}, which holds the first
+     * {@param length} bytes of the content.
+     */
+    static ContentEncoding fromMagicBytes(byte[] header, int length) {
+        if (length >= 2 && header[0] == (byte) 0x1f && header[1] == (byte) 0x8b) {
+            return GZIP;
+        }
+        if (length >= 4 && header[0] == (byte) 0x28 && header[1] == (byte) 0xb5 && header[2] == (byte) 0x2f &&
+                header[3] == (byte) 0xfd) {
+            return ZSTD;
+        }
+        return IDENTITY;
+    }
+}
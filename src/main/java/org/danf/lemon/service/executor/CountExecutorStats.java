@@ -0,0 +1,23 @@
+package org.danf.lemon.service.executor;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * A point-in-time snapshot of the {@link CountJobExecutor}'s state.
+ *
+ * @author Dan Feldman
+ */
+@Value
+@Builder
+public class CountExecutorStats {
+
+    boolean virtualThreads;
+    int queuedJobs;
+    int activeJobs;
+    long completedJobs;
+    long failedJobs;
+    long rejectedJobs;
+    long averageLatencyMs;
+    long maxLatencyMs;
+}
@@ -0,0 +1,250 @@
+package org.danf.lemon.service.executor;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.danf.lemon.config.CountExecutorProperties;
+import org.danf.lemon.config.CountExecutorProperties.RejectionPolicy;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, instrumented {@link AsyncTaskExecutor} for count jobs.
+ *
+ * By default jobs run on a thread pool with a bounded queue, once both the pool and the queue are full new jobs are
+ * either rejected with a {@link TaskRejectedException} or run on the submitting thread, according to the
+ * {@link RejectionPolicy}.
+ * When virtual threads are enabled (and supported by the running JDK) every job gets its own virtual thread and the
+ * number of jobs in flight is bounded by a semaphore instead, there is no queue in this mode.
+ *
+ * Every job is wrapped to keep track of queued, active, completed (failed included) and failed jobs and of the
+ * latency from submission to completion, see {@link #getStats()}. The same figures are published as meters, the
+ * latency as the <pre>lemon.executor.jobs.latency</pre> timer.
+ *
+ * @author Dan Feldman
+ */
+@Slf4j
+public class CountJobExecutor implements AsyncTaskExecutor, DisposableBean, MeterBinder {
+
+    private final ExecutorService delegate;
+    private final Semaphore inFlightPermits;
+    private final RejectionPolicy rejectionPolicy;
+    private final boolean virtualThreads;
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder totalLatencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+    private volatile Timer latencyTimer;
+
+    public CountJobExecutor(CountExecutorProperties properties) {
+        this.rejectionPolicy = properties.getRejectionPolicy();
+        ExecutorService virtualThreadExecutor = properties.isVirtualThreads() ? createVirtualThreadExecutor() : null;
+        this.virtualThreads = virtualThreadExecutor != null;
+        if (virtualThreads) {
+            delegate = virtualThreadExecutor;
+            inFlightPermits = new Semaphore(properties.getMaxSize() + properties.getQueueCapacity());
+        } else {
+            delegate = new ThreadPoolExecutor(properties.getCoreSize(), properties.getMaxSize(), 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(Math.max(1, properties.getQueueCapacity())), new CountJobThreadFactory(),
+                    (job, executor) -> {
+                        throw new RejectedExecutionException();
+                    });
+            inFlightPermits = null;
+        }
+        log.info("Count job executor started using {}", virtualThreads ? "virtual threads" : "a thread pool");
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        InstrumentedJob job = new InstrumentedJob(task);
+        queued.incrementAndGet();
+        if (inFlightPermits != null) {
+            if (!inFlightPermits.tryAcquire()) {
+                reject(job);
+                return;
+            }
+            job.holdsPermit = true;
+        }
+        try {
+            delegate.execute(job);
+        } catch (RejectedExecutionException e) {
+            job.releasePermit();
+            reject(job);
+        }
+    }
+
+    @Override
+    public void execute(Runnable task, long startTimeout) {
+        execute(task);
+    }
+
+    @Override
+    public Future<?> submit(Runnable task) {
+        FutureTask<Object> future = new TrackedFuture<>(Executors.callable(task, null));
+        execute(future);
+        return future;
+    }
+
+    @Override
+    public <T> Future<T> submit(Callable<T> task) {
+        FutureTask<T> future = new TrackedFuture<>(task);
+        execute(future);
+        return future;
+    }
+
+    public CountExecutorStats getStats() {
+        long completedJobs = completed.sum();
+        return CountExecutorStats.builder()
+                .virtualThreads(virtualThreads)
+                .queuedJobs(queued.get())
+                .activeJobs(active.get())
+                .completedJobs(completedJobs)
+                .failedJobs(failed.sum())
+                .rejectedJobs(rejected.sum())
+                .averageLatencyMs(completedJobs == 0 ? 0 :
+                        TimeUnit.NANOSECONDS.toMillis(totalLatencyNanos.sum() / completedJobs))
+                .maxLatencyMs(TimeUnit.NANOSECONDS.toMillis(maxLatencyNanos.get()))
+                .build();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("lemon.executor.jobs.queued", queued, AtomicInteger::get)
+                .description("Count jobs waiting for a thread")
+                .register(registry);
+        Gauge.builder("lemon.executor.jobs.active", active, AtomicInteger::get)
+                .description("Count jobs currently running")
+                .register(registry);
+        FunctionCounter.builder("lemon.executor.jobs.completed", completed, LongAdder::sum)
+                .register(registry);
+        FunctionCounter.builder("lemon.executor.jobs.failed", failed, LongAdder::sum)
+                .register(registry);
+        FunctionCounter.builder("lemon.executor.jobs.rejected", rejected, LongAdder::sum)
+                .register(registry);
+        latencyTimer = Timer.builder("lemon.executor.jobs.latency")
+                .description("Time from submitting a count job until it completed")
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    @Override
+    public void destroy() {
+        delegate.shutdownNow();
+    }
+
+    private void reject(InstrumentedJob job) {
+        if (rejectionPolicy == RejectionPolicy.CALLER_RUNS) {
+            log.debug("Count job executor is saturated, running job on the calling thread");
+            job.run();
+        } else {
+            queued.decrementAndGet();
+            rejected.increment();
+            throw new TaskRejectedException("Count job executor is saturated, job was rejected");
+        }
+    }
+
+    /**
+     * Uses reflection since the application is compiled against java 8, virtual threads are available from java 21.
+     */
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            log.warn("Virtual threads were requested but aren't supported by this JDK ({}), using a thread pool",
+                    System.getProperty("java.version"));
+            return null;
+        }
+    }
+
+    private class InstrumentedJob implements Runnable {
+
+        private final Runnable task;
+        private final long submitted = System.nanoTime();
+        private boolean holdsPermit;
+
+        InstrumentedJob(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            queued.decrementAndGet();
+            active.incrementAndGet();
+            try {
+                task.run();
+            } catch (RuntimeException | Error e) {
+                failed.increment();
+                throw e;
+            } finally {
+                active.decrementAndGet();
+                completed.increment();
+                long latency = System.nanoTime() - submitted;
+                totalLatencyNanos.add(latency);
+                maxLatencyNanos.accumulateAndGet(latency, Math::max);
+                Timer timer = latencyTimer;
+                if (timer != null) {
+                    timer.record(latency, TimeUnit.NANOSECONDS);
+                }
+                releasePermit();
+            }
+        }
+
+        void releasePermit() {
+            if (holdsPermit) {
+                holdsPermit = false;
+                inFlightPermits.release();
+            }
+        }
+    }
+
+    /**
+     * Jobs submitted as futures never throw, their failures are counted when the future completes exceptionally.
+     */
+    private class TrackedFuture<T> extends FutureTask<T> {
+
+        TrackedFuture(Callable<T> callable) {
+            super(callable);
+        }
+
+        @Override
+        protected void setException(Throwable t) {
+            failed.increment();
+            super.setException(t);
+        }
+    }
+
+    private static class CountJobThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "count-job-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package org.danf.lemon.service.job;
+
+import lombok.Getter;
+import org.danf.lemon.db.storage.WordKeys;
+import org.danf.lemon.service.encoding.ContentEncoding;
+import org.danf.lemon.service.tokenizer.WordNormalizer;
+
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Tracks the progress of a single count request: its state, how many bytes were read (before and after decompression,
+ * if the input is compressed) and how many words were counted.
+ * Progress is updated by the thread(s) doing the counting and may be read concurrently by any other thread.
+ *
+ * Cancellation is cooperative, {@link #cancel()} interrupts the job's {@link Future} and raises a flag that the
+ * counting path checks as it reads its input. Words counted up until the job was cancelled are kept.
+ *
+ * A job counting multiple files tracks each of them with a job of its own (see {@link #addFile}).
+ *
+ * @author Dan Feldman
+ */
+public class CountJob {
+
+    @Getter
+    private final String id = UUID.randomUUID().toString();
+    @Getter
+    private final String source;
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder compressedBytesRead = new LongAdder();
+    private final LongAdder wordsCounted = new LongAdder();
+
+    private volatile CountJobState state = CountJobState.QUEUED;
+    private volatile boolean cancelled;
+    private volatile Future<?> future;
+    private volatile long startedNanos;
+    private volatile long finishedNanos;
+    @Getter
+    private volatile long finishedAtMillis;
+    private volatile String error;
+    private volatile ContentEncoding encoding = ContentEncoding.IDENTITY;
+    @Getter
+    private volatile WordNormalizer normalizer = WordNormalizer.NONE;
+    @Getter
+    private volatile String namespace = WordKeys.DEFAULT_NAMESPACE;
+
+    private final CountJob parent;
+    private final Queue<CountJob> files = new ConcurrentLinkedQueue<>();
+
+    public CountJob(String source) {
+        this(source, null);
+    }
+
+    private CountJob(String source, CountJob parent) {
+        this.source = source;
+        this.parent = parent;
+        if (parent != null) {
+            this.normalizer = parent.normalizer;
+            this.namespace = parent.namespace;
+        }
+    }
+
+    /**
+     * Creates a job tracking a single file of a multi-file job. Its progress is added to this job's progress and it's
+     * cancelled along with it.
+     */
+    public CountJob addFile(String path) {
+        CountJob file = new CountJob(path, this);
+        files.add(file);
+        return file;
+    }
+
+    public void setFuture(Future<?> future) {
+        this.future = future;
+        if (cancelled) {
+            future.cancel(true);
+        }
+    }
+
+    public void start() {
+        startedNanos = System.nanoTime();
+        state = CountJobState.RUNNING;
+    }
+
+    public void complete() {
+        finish(cancelled ? CountJobState.CANCELLED : CountJobState.COMPLETED);
+    }
+
+    public void fail(Throwable e) {
+        if (!cancelled) {
+            error = e.getMessage();
+        }
+        finish(cancelled ? CountJobState.CANCELLED : CountJobState.FAILED);
+    }
+
+    /**
+     * Requests cancellation of this job, a job that didn't start yet will never run.
+     */
+    public void cancel() {
+        if (state.isFinished()) {
+            return;
+        }
+        cancelled = true;
+        Future<?> execution = future;
+        if (execution != null) {
+            execution.cancel(true);
+        }
+        if (state == CountJobState.QUEUED) {
+            finish(CountJobState.CANCELLED);
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled || (parent != null && parent.isCancelled());
+    }
+
+    public void addBytesRead(long bytes) {
+        bytesRead.add(bytes);
+        if (parent != null) {
+            parent.addBytesRead(bytes);
+        }
+    }
+
+    /**
+     * Counts bytes of compressed input, {@link #addBytesRead} counts the decompressed bytes.
+     */
+    public void addCompressedBytesRead(long bytes) {
+        compressedBytesRead.add(bytes);
+        if (parent != null) {
+            parent.addCompressedBytesRead(bytes);
+        }
+    }
+
+    public void setEncoding(ContentEncoding encoding) {
+        this.encoding = encoding;
+    }
+
+    /**
+     * Sets the normalization profile words of this job are counted with, file jobs added after this call inherit it.
+     */
+    public void setNormalizer(WordNormalizer normalizer) {
+        this.normalizer = normalizer;
+    }
+
+    /**
+     * Sets the namespace words of this job are counted under, file jobs added after this call inherit it.
+     */
+    public void setNamespace(String namespace) {
+        this.namespace = namespace;
+    }
+
+    public void wordCounted() {
+        wordsCounted.increment();
+        if (parent != null) {
+            parent.wordCounted();
+        }
+    }
+
+    public CountJobState getState() {
+        return state;
+    }
+
+    public CountJobStatus getStatus() {
+        long words = wordsCounted.sum();
+        long bytes = bytesRead.sum();
+        long compressedBytes = compressedBytesRead.sum();
+        long elapsedNanos = startedNanos == 0 ? 0 : (finishedNanos == 0 ? System.nanoTime() : finishedNanos) - startedNanos;
+        return CountJobStatus.builder()
+                .id(id)
+                .source(source)
+                .state(state)
+                .encoding(encoding)
+                .profile(normalizer.getName())
+                .namespace(namespace.isEmpty() ? null : namespace)
+                .bytesRead(bytes)
+                .compressedBytesRead(compressedBytes)
+                .wordsCounted(words)
+                .wordsPerSecond(perSecond(words, elapsedNanos))
+                .bytesPerSecond(perSecond(bytes, elapsedNanos))
+                .compressedBytesPerSecond(perSecond(compressedBytes, elapsedNanos))
+                .elapsedMs(TimeUnit.NANOSECONDS.toMillis(elapsedNanos))
+                .error(error)
+                .files(files.isEmpty() ? null : files.stream().map(CountJob::getStatus).collect(Collectors.toList()))
+                .build();
+    }
+
+    private static long perSecond(long amount, long elapsedNanos) {
+        return elapsedNanos == 0 ? 0 : (long) (amount / (elapsedNanos / 1e9));
+    }
+
+    private void finish(CountJobState finalState) {
+        finishedNanos = System.nanoTime();
+        finishedAtMillis = System.currentTimeMillis();
+        state = finalState;
+    }
+}
@@ -0,0 +1,72 @@
+package org.danf.lemon.service.job;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Reports the bytes read from the wrapped stream to a {@link CountJob}, and stops reading once the job is cancelled.
+ *
+ * @author Dan Feldman
+ */
+public class CountJobInputStream extends FilterInputStream {
+
+    private final CountJob job;
+    private final boolean compressed;
+
+    public CountJobInputStream(InputStream in, CountJob job) {
+        this(in, job, false);
+    }
+
+    /**
+     * @param compressed Whether {@param in} is compressed, in which case bytes are counted as compressed bytes.
+     */
+    public CountJobInputStream(InputStream in, CountJob job, boolean compressed) {
+        super(in);
+        this.job = job;
+        this.compressed = compressed;
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkCancelled();
+        int b = super.read();
+        if (b != -1) {
+            bytesRead(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int len) throws IOException {
+        checkCancelled();
+        int read = super.read(bytes, offset, len);
+        if (read > 0) {
+            bytesRead(read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        checkCancelled();
+        long skipped = super.skip(n);
+        bytesRead(skipped);
+        return skipped;
+    }
+
+    private void bytesRead(long bytes) {
+        if (compressed) {
+            job.addCompressedBytesRead(bytes);
+        } else {
+            job.addBytesRead(bytes);
+        }
+    }
+
+    private void checkCancelled() throws InterruptedIOException {
+        if (job.isCancelled()) {
+            throw new InterruptedIOException("Count job " + job.getId() + " was cancelled");
+        }
+    }
+}
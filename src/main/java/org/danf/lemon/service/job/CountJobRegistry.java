@@ -0,0 +1,72 @@
+package org.danf.lemon.service.job;
+
+import lombok.extern.slf4j.Slf4j;
+import org.danf.lemon.config.JobProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps async {@link CountJob}s so clients can poll their progress or cancel them.
+ * Running jobs are always kept, finished ones are evicted once they're older than {@link JobProperties#getTtlMs()} or
+ * when there are more than {@link JobProperties#getMaxFinishedJobs()} of them (oldest first), so the registry itself
+ * can't grow without bound.
+ *
+ * @author Dan Feldman
+ */
+@Service
+@Slf4j
+public class CountJobRegistry {
+
+    private final ConcurrentMap<String, CountJob> jobs = new ConcurrentHashMap<>();
+
+    private JobProperties properties;
+
+    @Autowired
+    public CountJobRegistry(JobProperties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * Creates and registers a new job counting words from {@param source}.
+     */
+    public CountJob create(String source) {
+        CountJob job = new CountJob(source);
+        jobs.put(job.getId(), job);
+        if (jobs.size() > properties.getMaxFinishedJobs()) {
+            evict();
+        }
+        return job;
+    }
+
+    public Optional<CountJob> get(String id) {
+        return Optional.ofNullable(jobs.get(id));
+    }
+
+    public void remove(String id) {
+        jobs.remove(id);
+    }
+
+    @Scheduled(fixedDelay = 60_000)
+    void evict() {
+        long expiry = System.currentTimeMillis() - properties.getTtlMs();
+        List<CountJob> finished = jobs.values().stream()
+                .filter(job -> job.getState().isFinished())
+                .sorted(Comparator.comparingLong(CountJob::getFinishedAtMillis))
+                .collect(Collectors.toList());
+        int excess = finished.size() - properties.getMaxFinishedJobs();
+        for (CountJob job : finished) {
+            if (excess-- > 0 || job.getFinishedAtMillis() < expiry) {
+                jobs.remove(job.getId());
+            }
+        }
+        log.debug("Count job registry holds {} jobs", jobs.size());
+    }
+}
@@ -0,0 +1,16 @@
+package org.danf.lemon.service.job;
+
+/**
+ * @author Dan Feldman
+ */
+public enum CountJobState {
+    QUEUED,
+    RUNNING,
+    COMPLETED,
+    FAILED,
+    CANCELLED;
+
+    public boolean isFinished() {
+        return this == COMPLETED || this == FAILED || this == CANCELLED;
+    }
+}
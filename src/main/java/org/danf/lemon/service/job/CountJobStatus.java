@@ -0,0 +1,45 @@
+package org.danf.lemon.service.job;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Builder;
+import lombok.Value;
+import org.danf.lemon.service.encoding.ContentEncoding;
+
+import java.util.List;
+
+/**
+ * A point-in-time snapshot of a {@link CountJob}'s progress, as returned to clients.
+ *
+ * @author Dan Feldman
+ */
+@Value
+@Builder
+public class CountJobStatus {
+
+    String id;
+    String source;
+    CountJobState state;
+    ContentEncoding encoding;
+    /**
+     * Name of the normalization profile words are counted with.
+     */
+    String profile;
+    /**
+     * Namespace words are counted under, absent for the default namespace.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    String namespace;
+    long bytesRead;
+    long compressedBytesRead;
+    long wordsCounted;
+    long wordsPerSecond;
+    long bytesPerSecond;
+    long compressedBytesPerSecond;
+    long elapsedMs;
+    String error;
+    /**
+     * Status of each file of a multi-file job, in the order they were started.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    List<CountJobStatus> files;
+}
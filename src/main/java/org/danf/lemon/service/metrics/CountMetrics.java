@@ -0,0 +1,120 @@
+package org.danf.lemon.service.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.danf.lemon.service.StripedCountStore;
+import org.danf.lemon.service.job.CountJob;
+import org.danf.lemon.service.job.CountJobStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Micrometer meters of the ingest and query paths, exposed through the actuator <pre>metrics</pre> and
+ * <pre>prometheus</pre> endpoints.
+ *
+ * Implementation note:
+ * Nothing here is called per word. Bytes and words are already tallied by each {@link CountJob} as it runs, they're
+ * added to the meters once the job finishes, and flushes are measured once per batch. Rates (i.e. tokens/sec over
+ * time) are derived from the counters by the monitoring system, the per-request throughput is recorded as well so
+ * that a single slow request is visible.
+ *
+ * @author Dan Feldman
+ */
+@Component
+public class CountMetrics {
+
+    public static final String SOURCE_STREAM = "stream";
+    public static final String SOURCE_URL = "url";
+    public static final String SOURCE_FILE = "file";
+
+    private MeterRegistry registry;
+    private Counter newWords;
+    private Timer flushLatency;
+    private DistributionSummary flushBatchSize;
+    private Timer singleLookupLatency;
+    private Timer batchLookupLatency;
+
+    @Autowired
+    public CountMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.newWords = Counter.builder("lemon.words.new")
+                .description("Distinct words inserted to the database for the first time")
+                .register(registry);
+        this.flushLatency = Timer.builder("lemon.flush.latency")
+                .description("Time it took to write a batch of pending counts to the database")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.flushBatchSize = DistributionSummary.builder("lemon.flush.batch.size")
+                .description("Distinct words written by a single flush")
+                .baseUnit("words")
+                .register(registry);
+        this.singleLookupLatency = lookupTimer("single");
+        this.batchLookupLatency = lookupTimer("batch");
+    }
+
+    /**
+     * Records the totals of a finished count request that read from {@param source}.
+     * Bytes of compressed input are recorded both as read (compressed) and after decompression.
+     */
+    public void requestFinished(String source, CountJob job) {
+        CountJobStatus status = job.getStatus();
+        registry.counter("lemon.ingest.bytes", "source", source).increment(status.getBytesRead());
+        registry.counter("lemon.ingest.bytes.compressed", "source", source, "encoding", encoding(status))
+                .increment(status.getCompressedBytesRead());
+        registry.counter("lemon.ingest.tokens", "source", source).increment(status.getWordsCounted());
+        String state = status.getState().name().toLowerCase(Locale.ROOT);
+        registry.timer("lemon.ingest.requests", "source", source, "state", state)
+                .record(status.getElapsedMs(), TimeUnit.MILLISECONDS);
+        DistributionSummary.builder("lemon.ingest.throughput")
+                .description("Words per second of a single count request")
+                .baseUnit("words/sec")
+                .tag("source", source)
+                .register(registry)
+                .record(status.getWordsPerSecond());
+    }
+
+    /**
+     * Records a flush of {@param batchSize} words, {@param createdWords} of which were new, that took
+     * {@param elapsedNanos}.
+     */
+    public void flushed(int batchSize, int createdWords, long elapsedNanos) {
+        flushLatency.record(elapsedNanos, TimeUnit.NANOSECONDS);
+        flushBatchSize.record(batchSize);
+        newWords.increment(createdWords);
+    }
+
+    /**
+     * Publishes the number of distinct words that are waiting in {@param pending} to be flushed.
+     */
+    public void monitorPendingWords(StripedCountStore pending) {
+        Gauge.builder("lemon.counter.pending.words", pending, StripedCountStore::size)
+                .description("Distinct words counted but not yet flushed to the database")
+                .register(registry);
+    }
+
+    public <T> T timeLookup(Supplier<T> lookup) {
+        return singleLookupLatency.record(lookup);
+    }
+
+    public <T> T timeBatchLookup(Supplier<T> lookup) {
+        return batchLookupLatency.record(lookup);
+    }
+
+    private static String encoding(CountJobStatus status) {
+        return status.getEncoding().name().toLowerCase(Locale.ROOT);
+    }
+
+    private Timer lookupTimer(String type) {
+        return Timer.builder("lemon.statistics.lookup")
+                .description("Latency of word statistics lookups")
+                .tag("type", type)
+                .register(registry);
+    }
+}
@@ -0,0 +1,125 @@
+package org.danf.lemon.service.sketch;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The Count-Min Sketch (Cormode and Muthukrishnan), estimates the count of any word in a fixed amount of memory.
+ * Every word maps to one counter in each of {@link #depth} rows of {@link #width} counters, its estimate is the lowest
+ * of them. Estimates never underestimate and overestimate by at most <pre>e / width</pre> of the total count with a
+ * probability of <pre>1 - e^-depth</pre>.
+ *
+ * Implementation notes:
+ * Updates are conservative: a word's counters are only raised as far as its new estimate, which leaves counters
+ * shared with other words lower and tightens their estimates, without breaking the bound.
+ * The row indexes of a word are derived from a single 64-bit hash (Kirsch and Mitzenmacher).
+ * Not thread-safe.
+ *
+ * @author Dan Feldman
+ */
+public class CountMinSketch {
+
+    private final int width;
+    private final int depth;
+    private final long[] counters;
+    private long totalCount;
+
+    public CountMinSketch(int width, int depth) {
+        if (width < 1 || depth < 1) {
+            throw new IllegalArgumentException("Count-Min Sketch width and depth must be positive, got " + width +
+                    " x " + depth);
+        }
+        this.width = width;
+        this.depth = depth;
+        this.counters = new long[Math.multiplyExact(width, depth)];
+    }
+
+    /**
+     * @return A sketch whose estimates overestimate by at most {@param relativeError} of the total count, with a
+     * probability of {@param confidence}.
+     */
+    public static CountMinSketch withErrorBounds(double relativeError, double confidence) {
+        if (relativeError <= 0 || relativeError >= 1 || confidence <= 0 || confidence >= 1) {
+            throw new IllegalArgumentException("Count-Min Sketch relative error and confidence must be between 0 and " +
+                    "1 (exclusive), got " + relativeError + " and " + confidence);
+        }
+        return new CountMinSketch((int) Math.ceil(Math.E / relativeError),
+                (int) Math.ceil(Math.log(1 / (1 - confidence))));
+    }
+
+    /**
+     * Adds {@param delta} appearances of {@param word}.
+     */
+    public void add(String word, long delta) {
+        long hash = WordHash.hash(word);
+        long estimate = Math.addExact(estimate(hash), delta);
+        for (int row = 0; row < depth; row++) {
+            int index = index(hash, row);
+            if (counters[index] < estimate) {
+                counters[index] = estimate;
+            }
+        }
+        totalCount = Math.addExact(totalCount, delta);
+    }
+
+    /**
+     * @return The estimated count of {@param word}, at least its true count.
+     */
+    public long estimate(String word) {
+        return estimate(WordHash.hash(word));
+    }
+
+    /**
+     * @return The amount an estimate may overestimate by (with the probability the sketch was sized for).
+     */
+    public long getMaxError() {
+        return (long) Math.ceil(Math.E / width * totalCount);
+    }
+
+    /**
+     * @return The sum of all counts added.
+     */
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(width);
+        out.writeInt(depth);
+        out.writeLong(totalCount);
+        for (long counter : counters) {
+            out.writeLong(counter);
+        }
+    }
+
+    public static CountMinSketch readFrom(DataInputStream in) throws IOException {
+        CountMinSketch sketch = new CountMinSketch(in.readInt(), in.readInt());
+        sketch.totalCount = in.readLong();
+        for (int i = 0; i < sketch.counters.length; i++) {
+            sketch.counters[i] = in.readLong();
+        }
+        return sketch;
+    }
+
+    private long estimate(long hash) {
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            min = Math.min(min, counters[index(hash, row)]);
+        }
+        return min;
+    }
+
+    private int index(long hash, int row) {
+        int combined = (int) hash + row * (int) (hash >>> 32);
+        return row * width + (combined & Integer.MAX_VALUE) % width;
+    }
+}
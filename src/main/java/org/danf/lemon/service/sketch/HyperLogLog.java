@@ -0,0 +1,96 @@
+package org.danf.lemon.service.sketch;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * HyperLogLog (Flajolet et al.), estimates the number of distinct words in a fixed amount of memory.
+ * The first {@link #precision} bits of a word's hash pick one of <pre>2^precision</pre> registers, which keeps the
+ * longest run of leading zeros seen in the remaining bits. The estimate is the normalized harmonic mean of the
+ * registers, with a relative standard error of <pre>1.04 / sqrt(2^precision)</pre>.
+ *
+ * Implementation note:
+ * Small cardinalities (while many registers are still empty) are estimated by linear counting instead, as suggested
+ * by the original paper. The hash is 64 bits wide so the large range correction isn't needed. Not thread-safe.
+ *
+ * @author Dan Feldman
+ */
+public class HyperLogLog {
+
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 18) {
+            throw new IllegalArgumentException("HyperLogLog precision must be between 4 and 18, got " + precision);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    public void add(String word) {
+        long hash = WordHash.hash(word);
+        int index = (int) (hash >>> (64 - precision));
+        // The marker bit caps the run at 64 - precision zeros
+        byte rank = (byte) (Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1);
+        if (registers[index] < rank) {
+            registers[index] = rank;
+        }
+    }
+
+    /**
+     * @return The estimated number of distinct words added.
+     */
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int empty = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                empty++;
+            }
+        }
+        double estimate = alpha(m) * m * m / sum;
+        if (estimate <= 2.5 * m && empty > 0) {
+            estimate = m * Math.log((double) m / empty);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * @return The relative standard error of {@link #estimate()}.
+     */
+    public double getStandardError() {
+        return 1.04 / Math.sqrt(registers.length);
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(precision);
+        out.write(registers);
+    }
+
+    public static HyperLogLog readFrom(DataInputStream in) throws IOException {
+        HyperLogLog hll = new HyperLogLog(in.readInt());
+        in.readFully(hll.registers);
+        return hll;
+    }
+
+    private static double alpha(int m) {
+        switch (m) {
+            case 16:
+                return 0.673;
+            case 32:
+                return 0.697;
+            case 64:
+                return 0.709;
+            default:
+                return 0.7213 / (1 + 1.079 / m);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package org.danf.lemon.service.sketch;
+
+/**
+ * A 64-bit hash of words shared by the sketches: FNV-1a over the UTF-16 chars of the word, followed by the finalizer
+ * of MurmurHash3 so that every bit of the result depends on every char (FNV alone leaves the high bits poorly mixed,
+ * which HyperLogLog relies on).
+ *
+ * @author Dan Feldman
+ */
+final class WordHash {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private WordHash() {
+    }
+
+    static long hash(CharSequence word) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < word.length(); i++) {
+            hash = (hash ^ word.charAt(i)) * FNV_PRIME;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,225 @@
+package org.danf.lemon.service.sketch;
+
+import lombok.extern.slf4j.Slf4j;
+import org.danf.lemon.config.SketchProperties;
+import org.danf.lemon.service.WordCount;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Approximate counting for inputs with unbounded vocabularies (i.e. ids or hashes), where keeping a row per distinct
+ * word would grow the storage without bound.
+ * When enabled every flushed word is counted by a {@link CountMinSketch} and a {@link HyperLogLog}, but only words
+ * estimated to have appeared at least <pre>lemon.sketch.exact-threshold</pre> times are persisted (see
+ * {@link #admit}). A word crossing the threshold is persisted with its estimated count so far, and counted exactly
+ * from then on, so its persisted count may overestimate by up to {@link CountMinSketch#getMaxError()}. Words below
+ * the threshold only exist in the sketch, their counts are served by the estimate endpoints.
+ *
+ * The sketches are snapshotted to <pre>lemon.sketch.directory</pre> periodically and on shutdown, and loaded on
+ * startup. A crash loses the updates since the last snapshot, which makes estimates lower and can drop words that were
+ * already persisted back below the threshold. That's why admission doesn't rely on the estimate alone: a word that's
+ * already persisted is always admitted with its exact counts, so it's never dropped or persisted with its estimate a
+ * second time. A snapshot taken with different sketch dimensions is discarded.
+ *
+ * Implementation note:
+ * Sketches are only updated by the {@link org.danf.lemon.service.WriteBehindWordCounter}, a single flush at a time,
+ * and only after the flush was written to the storage so a failed flush that's retried isn't counted twice. Reads and
+ * snapshots share a lock with updates, each held for a single batch.
+ *
+ * @author Dan Feldman
+ */
+@Service
+@Slf4j
+public class WordSketches {
+
+    private static final String SNAPSHOT_FILE = "sketches.dat";
+
+    private final Object lock = new Object();
+    private SketchProperties properties;
+    private CountMinSketch counts;
+    private HyperLogLog distinct;
+    private long updatesSinceSnapshot;
+
+    @Autowired
+    public WordSketches(SketchProperties properties) {
+        this.properties = properties;
+    }
+
+    @PostConstruct
+    public void load() throws IOException {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        counts = CountMinSketch.withErrorBounds(properties.getRelativeError(), properties.getConfidence());
+        distinct = new HyperLogLog(properties.getHllPrecision());
+        Path snapshot = Paths.get(properties.getDirectory()).resolve(SNAPSHOT_FILE);
+        if (!Files.exists(snapshot)) {
+            return;
+        }
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(snapshot)), crc))) {
+            CountMinSketch loadedCounts = CountMinSketch.readFrom(in);
+            HyperLogLog loadedDistinct = HyperLogLog.readFrom(in);
+            long expected = crc.getValue();
+            if (in.readInt() != (int) expected) {
+                throw new IOException("Corrupted sketch snapshot '" + snapshot + "'");
+            }
+            if (loadedCounts.getWidth() != counts.getWidth() || loadedCounts.getDepth() != counts.getDepth()
+                    || loadedDistinct.getPrecision() != distinct.getPrecision()) {
+                log.warn("Discarding sketch snapshot '{}' taken with different dimensions", snapshot);
+                return;
+            }
+            counts = loadedCounts;
+            distinct = loadedDistinct;
+            log.info("Loaded sketches of {} counted words from '{}'", counts.getTotalCount(), snapshot);
+        }
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * @return The counts of {@param batch} that should be persisted: the counts of words that were already
+     * estimated to reach the threshold or are already persisted, and the estimated counts so far of words that reach
+     * it with this batch. All of {@param batch} if approximate counting is disabled. Doesn't update the sketches, see
+     * {@link #record}.
+     * {@param persistedCounts} returns the persisted counts of the given words, it's only asked about words estimated
+     * below the threshold.
+     */
+    public Map<String, Long> admit(Map<String, Long> batch,
+            Function<Collection<String>, Map<String, Long>> persistedCounts) {
+        if (!isEnabled()) {
+            return batch;
+        }
+        long threshold = properties.getExactThreshold();
+        Map<String, Long> admitted = new HashMap<>();
+        Map<String, Long> below = new HashMap<>();
+        synchronized (lock) {
+            for (Map.Entry<String, Long> count : batch.entrySet()) {
+                long before = counts.estimate(count.getKey());
+                if (before >= threshold) {
+                    admitted.put(count.getKey(), count.getValue());
+                } else {
+                    below.put(count.getKey(), before);
+                }
+            }
+        }
+        if (below.isEmpty()) {
+            return admitted;
+        }
+        Map<String, Long> persisted = persistedCounts.apply(below.keySet());
+        below.forEach((word, before) -> {
+            long delta = batch.get(word);
+            if (persisted.containsKey(word)) {
+                admitted.put(word, delta);
+            } else if (before + delta >= threshold) {
+                admitted.put(word, before + delta);
+            }
+        });
+        return admitted;
+    }
+
+    /**
+     * Adds all counts of {@param batch} to the sketches, once they were persisted.
+     */
+    public void record(Map<String, Long> batch) {
+        if (!isEnabled()) {
+            return;
+        }
+        synchronized (lock) {
+            batch.forEach((word, count) -> {
+                counts.add(word, count);
+                distinct.add(word);
+            });
+            updatesSinceSnapshot += batch.size();
+        }
+    }
+
+    /**
+     * Only available when approximate counting is enabled, as is {@link #getDistinctWords()}.
+     *
+     * @return The estimated count of {@param word} with {@param pendingCount} added (which is exact), and the amount
+     * it may overestimate by.
+     */
+    public WordCount estimate(String word, long pendingCount) {
+        synchronized (lock) {
+            return new WordCount(word, Math.addExact(counts.estimate(word), pendingCount), counts.getMaxError());
+        }
+    }
+
+    /**
+     * @return The estimated number of distinct words flushed so far.
+     */
+    public DistinctWords getDistinctWords() {
+        synchronized (lock) {
+            return new DistinctWords(distinct.estimate(), distinct.getStandardError());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${lemon.sketch.snapshot-interval-ms:60000}")
+    void snapshotOnInterval() {
+        try {
+            snapshot();
+        } catch (IOException e) {
+            log.error("Periodic snapshot of sketches failed: {}", e.getMessage());
+            log.debug("", e);
+        }
+    }
+
+    /**
+     * Runs after the counter's final flush, since the counter depends on this bean.
+     */
+    @PreDestroy
+    public void snapshot() throws IOException {
+        if (!isEnabled()) {
+            return;
+        }
+        Path directory = Files.createDirectories(Paths.get(properties.getDirectory()));
+        Path snapshot = directory.resolve(SNAPSHOT_FILE);
+        Path temp = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        synchronized (lock) {
+            if (updatesSinceSnapshot == 0 && Files.exists(snapshot)) {
+                return;
+            }
+            CRC32 crc = new CRC32();
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                        new BufferedOutputStream(Channels.newOutputStream(channel)), crc));
+                counts.writeTo(out);
+                distinct.writeTo(out);
+                out.writeInt((int) crc.getValue());
+                out.flush();
+                channel.force(true);
+            }
+            Files.move(temp, snapshot, StandardCopyOption.ATOMIC_MOVE);
+            updatesSinceSnapshot = 0;
+        }
+        log.debug("Snapshotted sketches to '{}'", snapshot);
+    }
+}
@@ -0,0 +1,108 @@
+package org.danf.lemon.service.tokenizer;
+
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * An open-addressing hash table mapping UTF-8 byte slices to the String they decode to, so that a word that was
+ * already seen is resolved by comparing bytes rather than by decoding it again.
+ * A String is only created the first time a distinct word is seen, and it's the same instance every time after that
+ * (which also means its hash code is only ever computed once).
+ *
+ * The table stops growing once it holds {@code maxEntries} words, slices that miss after that point are decoded on
+ * every appearance. Not thread-safe, meant to be used by a single tokenization at a time.
+ *
+ * @author Dan Feldman
+ */
+public class ByteSliceInterner {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final int maxEntries;
+    private byte[][] keys;
+    private String[] values;
+    private int[] hashes;
+    private int size;
+
+    public ByteSliceInterner(int maxEntries) {
+        this.maxEntries = maxEntries;
+        init(INITIAL_CAPACITY);
+    }
+
+    /**
+     * @return The String represented by {@code len} bytes of {@param bytes} starting at {@param offset}.
+     */
+    public String intern(byte[] bytes, int offset, int len) {
+        int hash = hash(bytes, offset, len);
+        int mask = keys.length - 1;
+        int index = hash & mask;
+        byte[] key;
+        while ((key = keys[index]) != null) {
+            if (hashes[index] == hash && sliceEquals(key, bytes, offset, len)) {
+                return values[index];
+            }
+            index = (index + 1) & mask;
+        }
+        String word = new String(bytes, offset, len, UTF_8);
+        if (size < maxEntries) {
+            keys[index] = Arrays.copyOfRange(bytes, offset, offset + len);
+            values[index] = word;
+            hashes[index] = hash;
+            if (++size > keys.length >> 1) {
+                resize();
+            }
+        }
+        return word;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void init(int capacity) {
+        keys = new byte[capacity][];
+        values = new String[capacity];
+        hashes = new int[capacity];
+    }
+
+    private void resize() {
+        byte[][] oldKeys = keys;
+        String[] oldValues = values;
+        int[] oldHashes = hashes;
+        init(oldKeys.length << 1);
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int index = oldHashes[i] & mask;
+                while (keys[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+                hashes[index] = oldHashes[i];
+            }
+        }
+    }
+
+    private static int hash(byte[] bytes, int offset, int len) {
+        int hash = 1;
+        for (int i = offset, end = offset + len; i < end; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        // Spread the high bits since the table index only uses the low ones
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean sliceEquals(byte[] key, byte[] bytes, int offset, int len) {
+        if (key.length != len) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (key[i] != bytes[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,56 @@
+package org.danf.lemon.service.tokenizer;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+/**
+ * The named {@link WordNormalizer}s count requests may pick from. The <pre>raw</pre> profile, which counts words as
+ * they are, is always available.
+ *
+ * @author Dan Feldman
+ */
+public class NormalizationProfiles {
+
+    public static final String RAW = "raw";
+
+    private final Map<String, WordNormalizer> profiles = new TreeMap<>();
+    private final WordNormalizer defaultProfile;
+
+    /**
+     * @param normalizers     Normalizers of all configured profiles, by their name.
+     * @param defaultProfile  Name of the profile used when a request doesn't name one.
+     */
+    public NormalizationProfiles(Collection<WordNormalizer> normalizers, String defaultProfile) {
+        profiles.put(RAW, WordNormalizer.NONE);
+        normalizers.forEach(normalizer -> profiles.put(normalizer.getName(), normalizer));
+        this.defaultProfile = get(defaultProfile);
+    }
+
+    /**
+     * @return The normalizer of profile {@param name}, or of the default profile if it's blank.
+     * @throws IllegalArgumentException if there's no such profile.
+     */
+    public WordNormalizer get(String name) {
+        if (isBlank(name)) {
+            return defaultProfile;
+        }
+        WordNormalizer normalizer = profiles.get(name);
+        if (normalizer == null) {
+            throw new IllegalArgumentException("Unknown normalization profile '" + name + "', available profiles " +
+                    "are " + profiles.keySet());
+        }
+        return normalizer;
+    }
+
+    public WordNormalizer getDefault() {
+        return defaultProfile;
+    }
+
+    public Collection<String> getNames() {
+        return Collections.unmodifiableSet(profiles.keySet());
+    }
+}
@@ -0,0 +1,33 @@
+package org.danf.lemon.service.tokenizer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Scanner;
+import java.util.function.Consumer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * The original {@link Scanner}-based tokenizer: splits on the <pre>\s+</pre> regex and creates a String per word.
+ * Kept as a reference implementation for {@link Utf8WhitespaceTokenizer} (and selectable through
+ * <pre>lemon.tokenizer.type</pre>), input is decoded as UTF-8 rather than the platform's default charset.
+ *
+ * @author Dan Feldman
+ */
+public class ScannerWordTokenizer implements WordTokenizer {
+
+    @Override
+    public void tokenize(InputStream in, WordNormalizer normalizer, Consumer<String> consumer) throws IOException {
+        Scanner scanner = new Scanner(in, UTF_8.name());
+        scanner.useDelimiter("\\s+");
+        while (scanner.hasNext()) {
+            String word = normalizer.isIdentity() ? scanner.next() : normalizer.normalize(scanner.next());
+            if (word != null) {
+                consumer.accept(word);
+            }
+        }
+        if (scanner.ioException() != null) {
+            throw scanner.ioException();
+        }
+    }
+}
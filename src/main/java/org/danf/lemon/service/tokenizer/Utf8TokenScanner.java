@@ -0,0 +1,152 @@
+package org.danf.lemon.service.tokenizer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Incrementally splits UTF-8 encoded bytes into words, bytes are pushed in with {@link #feed} as they become available
+ * and {@link #finish} is called once the input is exhausted.
+ *
+ * Words are delimited by runs of the same whitespace characters matched by the <pre>\s</pre> regex class (space, tab,
+ * line feed, vertical tab, form feed and carriage return). All of these are single-byte ASCII characters which can
+ * never appear inside a multi-byte UTF-8 sequence, so splitting is done on the raw bytes without decoding them.
+ * A word that spans two fed chunks is carried over in an internal buffer, any other word is resolved directly from the
+ * fed array through a {@link ByteSliceInterner}.
+ * Words are normalized before they're interned: pure ASCII words are normalized by the {@link WordNormalizer} into a
+ * reusable scratch array, so a word that was already seen is still resolved without allocating. Other words are
+ * decoded and normalized as Strings, with the result cached per distinct raw word.
+ *
+ * Not thread-safe, a new scanner should be created for every input.
+ *
+ * @author Dan Feldman
+ */
+public class Utf8TokenScanner {
+
+    /**
+     * Marks raw words that the normalizer drops in {@link #normalized}.
+     */
+    private static final String DROPPED = new String();
+
+    private final Consumer<String> consumer;
+    private final WordNormalizer normalizer;
+    private final ByteSliceInterner interner;
+    private final int maxInternedWords;
+    private byte[] carry = new byte[64];
+    private int carryLen;
+    private byte[] scratch;
+    private Map<String, String> normalized;
+
+    public Utf8TokenScanner(Consumer<String> consumer, int maxInternedWords) {
+        this(consumer, WordNormalizer.NONE, maxInternedWords);
+    }
+
+    public Utf8TokenScanner(Consumer<String> consumer, WordNormalizer normalizer, int maxInternedWords) {
+        this.consumer = consumer;
+        this.normalizer = normalizer;
+        this.interner = new ByteSliceInterner(maxInternedWords);
+        this.maxInternedWords = maxInternedWords;
+        if (!normalizer.isIdentity()) {
+            this.scratch = new byte[64];
+            this.normalized = new HashMap<>();
+        }
+    }
+
+    /**
+     * Scans {@code len} bytes of {@param bytes} starting at {@param offset}, the array may be reused by the caller
+     * once this method returns.
+     */
+    public void feed(byte[] bytes, int offset, int len) {
+        int end = offset + len;
+        int wordStart = carryLen > 0 ? offset : -1;
+        for (int i = offset; i < end; i++) {
+            if (isWhitespace(bytes[i])) {
+                if (wordStart >= 0) {
+                    emit(bytes, wordStart, i - wordStart);
+                    wordStart = -1;
+                }
+            } else if (wordStart < 0) {
+                wordStart = i;
+            }
+        }
+        if (wordStart >= 0) {
+            appendToCarry(bytes, wordStart, end - wordStart);
+        }
+    }
+
+    /**
+     * Emits the last word if the input didn't end with whitespace.
+     */
+    public void finish() {
+        if (carryLen > 0) {
+            accept(carry, 0, carryLen);
+            carryLen = 0;
+        }
+    }
+
+    /**
+     * @return true if {@param b} is one of the bytes that delimit words.
+     */
+    public static boolean isWhitespace(byte b) {
+        return b == ' ' || (b >= '\t' && b <= '\r');
+    }
+
+    private void emit(byte[] bytes, int offset, int len) {
+        if (carryLen > 0) {
+            appendToCarry(bytes, offset, len);
+            accept(carry, 0, carryLen);
+            carryLen = 0;
+        } else {
+            accept(bytes, offset, len);
+        }
+    }
+
+    private void accept(byte[] bytes, int offset, int len) {
+        if (normalizer.isIdentity()) {
+            consumer.accept(interner.intern(bytes, offset, len));
+            return;
+        }
+        if (len > scratch.length) {
+            scratch = new byte[Math.max(scratch.length << 1, len)];
+        }
+        int normalizedLen = normalizer.normalizeAscii(bytes, offset, len, scratch);
+        String word;
+        if (normalizedLen > 0) {
+            word = interner.intern(scratch, 0, normalizedLen);
+            if (normalizer.isStopWord(word)) {
+                return;
+            }
+        } else if (normalizedLen == 0) {
+            return;
+        } else {
+            word = normalizeDecoded(interner.intern(bytes, offset, len));
+            if (word == DROPPED) {
+                return;
+            }
+        }
+        consumer.accept(word);
+    }
+
+    private String normalizeDecoded(String raw) {
+        String word = normalized.get(raw);
+        if (word == null) {
+            word = normalizer.normalize(raw);
+            if (word == null) {
+                word = DROPPED;
+            }
+            if (normalized.size() < maxInternedWords) {
+                normalized.put(raw, word);
+            }
+        }
+        return word;
+    }
+
+    private void appendToCarry(byte[] bytes, int offset, int len) {
+        if (carryLen + len > carry.length) {
+            carry = Arrays.copyOf(carry, Math.max(carry.length << 1, carryLen + len));
+        }
+        System.arraycopy(bytes, offset, carry, carryLen, len);
+        carryLen += len;
+    }
+}
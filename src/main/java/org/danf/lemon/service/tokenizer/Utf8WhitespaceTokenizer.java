@@ -0,0 +1,60 @@
+package org.danf.lemon.service.tokenizer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * The default {@link WordTokenizer}, reads raw bytes into a buffer and splits them with a {@link Utf8TokenScanner}.
+ * Produces exactly the same words as {@link ScannerWordTokenizer} for valid UTF-8 input without running a regex per
+ * word, and only allocates a String the first time a distinct word is seen in an input.
+ *
+ * @author Dan Feldman
+ */
+public class Utf8WhitespaceTokenizer implements WordTokenizer {
+
+    private final int bufferSize;
+    private final int maxInternedWords;
+
+    public Utf8WhitespaceTokenizer(int bufferSize, int maxInternedWords) {
+        this.bufferSize = bufferSize;
+        this.maxInternedWords = maxInternedWords;
+    }
+
+    @Override
+    public void tokenize(InputStream in, WordNormalizer normalizer, Consumer<String> consumer) throws IOException {
+        Utf8TokenScanner scanner = new Utf8TokenScanner(consumer, normalizer, maxInternedWords);
+        byte[] buffer = new byte[bufferSize];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            scanner.feed(buffer, 0, read);
+        }
+        scanner.finish();
+    }
+
+    @Override
+    public void tokenize(ByteBuffer buffer, Consumer<String> consumer) {
+        tokenize(buffer, WordNormalizer.NONE, consumer);
+    }
+
+    /**
+     * Heap buffers are scanned in place, direct (i.e. memory-mapped) buffers are bulk-copied into a reusable array.
+     */
+    @Override
+    public void tokenize(ByteBuffer buffer, WordNormalizer normalizer, Consumer<String> consumer) {
+        Utf8TokenScanner scanner = new Utf8TokenScanner(consumer, normalizer, maxInternedWords);
+        if (buffer.hasArray()) {
+            scanner.feed(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+        } else {
+            byte[] chunk = new byte[Math.min(bufferSize, buffer.remaining())];
+            while (buffer.hasRemaining()) {
+                int len = Math.min(chunk.length, buffer.remaining());
+                buffer.get(chunk, 0, len);
+                scanner.feed(chunk, 0, len);
+            }
+        }
+        scanner.finish();
+    }
+}
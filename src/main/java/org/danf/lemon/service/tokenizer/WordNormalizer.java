@@ -0,0 +1,181 @@
+package org.danf.lemon.service.tokenizer;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Singular;
+
+import java.text.Normalizer;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * A chain of normalization steps applied to every word before it's counted, so that i.e. <pre>Hello</pre>,
+ * <pre>hello,</pre> and <pre>hello</pre> are counted as the same word. Steps run in this order:
+ * 1. Unicode NFC normalization.
+ * 2. Stripping leading and trailing punctuation (punctuation inside a word, as in <pre>don't</pre>, is kept). ASCII
+ *    characters other than letters and digits count as punctuation, non-ASCII ones by their Unicode category.
+ * 3. Lower-casing with {@link Locale#ROOT}.
+ * 4. Dropping words longer than {@link #maxLength} characters.
+ * 5. Dropping stop words, which are normalized by steps 1-3 themselves so they can be given in any form.
+ * A word that's left empty is dropped as well.
+ *
+ * Words made of ASCII bytes alone (the vast majority of most inputs) are normalized directly on the tokenizer's buffer
+ * by {@link #normalizeAscii} without creating a String, other words go through {@link #normalize(String)}.
+ * Immutable and thread-safe, instances are created per profile by {@link NormalizationProfiles}.
+ *
+ * @author Dan Feldman
+ */
+public class WordNormalizer {
+
+    /**
+     * Counts words exactly as they appear in the input.
+     */
+    public static final WordNormalizer NONE = WordNormalizer.builder().name(NormalizationProfiles.RAW).build();
+
+    @Getter
+    private final String name;
+    private final boolean unicodeNfc;
+    private final boolean stripPunctuation;
+    private final boolean lowercase;
+    /**
+     * 0 means words of any length are counted.
+     */
+    private final int maxLength;
+    private final Set<String> stopWords;
+    private final boolean identity;
+
+    @Builder
+    private WordNormalizer(String name, boolean unicodeNfc, boolean stripPunctuation, boolean lowercase,
+            int maxLength, @Singular Collection<String> stopWords) {
+        this.name = name;
+        this.unicodeNfc = unicodeNfc;
+        this.stripPunctuation = stripPunctuation;
+        this.lowercase = lowercase;
+        this.maxLength = Math.max(0, maxLength);
+        this.stopWords = new HashSet<>();
+        for (String stopWord : stopWords) {
+            String normalized = transform(stopWord);
+            if (!normalized.isEmpty()) {
+                this.stopWords.add(normalized);
+            }
+        }
+        this.identity = !unicodeNfc && !stripPunctuation && !lowercase && this.maxLength == 0 &&
+                this.stopWords.isEmpty();
+    }
+
+    /**
+     * @return true if this normalizer leaves every word as is.
+     */
+    public boolean isIdentity() {
+        return identity;
+    }
+
+    /**
+     * @return {@param word} normalized, or null if it should not be counted.
+     */
+    public String normalize(String word) {
+        String normalized = transform(word);
+        if (normalized.isEmpty() || exceedsMaxLength(normalized.length())) {
+            return null;
+        }
+        return isStopWord(normalized) ? null : normalized;
+    }
+
+    /**
+     * Normalizes {@code len} bytes of {@param bytes} starting at {@param offset} into the start of {@param target},
+     * which must be able to hold at least {@code len} bytes. Stop words are not filtered, see {@link #isStopWord}.
+     *
+     * @return The length of the normalized word, 0 if it should not be counted or -1 if the slice isn't pure ASCII in
+     * which case it should be decoded and given to {@link #normalize(String)} instead.
+     */
+    public int normalizeAscii(byte[] bytes, int offset, int len, byte[] target) {
+        int start = offset;
+        int end = offset + len;
+        for (int i = start; i < end; i++) {
+            if (bytes[i] < 0) {
+                return -1;
+            }
+        }
+        if (stripPunctuation) {
+            while (start < end && !isAsciiLetterOrDigit(bytes[start])) {
+                start++;
+            }
+            while (end > start && !isAsciiLetterOrDigit(bytes[end - 1])) {
+                end--;
+            }
+        }
+        int normalizedLen = end - start;
+        if (exceedsMaxLength(normalizedLen)) {
+            return 0;
+        }
+        for (int i = 0; i < normalizedLen; i++) {
+            byte b = bytes[start + i];
+            target[i] = lowercase && b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+        }
+        return normalizedLen;
+    }
+
+    /**
+     * @return true if {@param word}, which was already normalized, is one of the stop words.
+     */
+    public boolean isStopWord(String word) {
+        return !stopWords.isEmpty() && stopWords.contains(word);
+    }
+
+    /**
+     * Steps 1-3, strings are only copied by the steps that actually change them.
+     */
+    private String transform(String word) {
+        String result = word;
+        if (unicodeNfc && !Normalizer.isNormalized(result, Normalizer.Form.NFC)) {
+            result = Normalizer.normalize(result, Normalizer.Form.NFC);
+        }
+        if (stripPunctuation) {
+            result = strip(result);
+        }
+        if (lowercase) {
+            result = result.toLowerCase(Locale.ROOT);
+        }
+        return result;
+    }
+
+    private boolean exceedsMaxLength(int length) {
+        return maxLength > 0 && length > maxLength;
+    }
+
+    private static String strip(String word) {
+        int start = 0;
+        int end = word.length();
+        while (start < end && isPunctuation(word.codePointAt(start))) {
+            start += Character.charCount(word.codePointAt(start));
+        }
+        while (end > start && isPunctuation(word.codePointBefore(end))) {
+            end -= Character.charCount(word.codePointBefore(end));
+        }
+        return word.substring(start, end);
+    }
+
+    private static boolean isPunctuation(int codePoint) {
+        if (codePoint < 0x80) {
+            return !isAsciiLetterOrDigit((byte) codePoint);
+        }
+        switch (Character.getType(codePoint)) {
+            case Character.CONNECTOR_PUNCTUATION:
+            case Character.DASH_PUNCTUATION:
+            case Character.START_PUNCTUATION:
+            case Character.END_PUNCTUATION:
+            case Character.INITIAL_QUOTE_PUNCTUATION:
+            case Character.FINAL_QUOTE_PUNCTUATION:
+            case Character.OTHER_PUNCTUATION:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isAsciiLetterOrDigit(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9');
+    }
+}
@@ -0,0 +1,44 @@
+package org.danf.lemon.service.tokenizer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * Splits an input into words.
+ * Implementations must be thread-safe, any state required while reading a specific input is kept per-call.
+ *
+ * @author Dan Feldman
+ */
+public interface WordTokenizer {
+
+    /**
+     * Reads {@param in} until it's exhausted and hands every word found in it to {@param consumer}, in order.
+     * The stream is not closed by this method.
+     */
+    default void tokenize(InputStream in, Consumer<String> consumer) throws IOException {
+        tokenize(in, WordNormalizer.NONE, consumer);
+    }
+
+    /**
+     * Same as {@link #tokenize(InputStream, Consumer)}, words are normalized by {@param normalizer} before they're
+     * handed to {@param consumer} and words it drops are skipped.
+     */
+    void tokenize(InputStream in, WordNormalizer normalizer, Consumer<String> consumer) throws IOException;
+
+    /**
+     * Hands every word in the remaining bytes of {@param buffer} to {@param consumer}, in order.
+     */
+    default void tokenize(ByteBuffer buffer, Consumer<String> consumer) throws IOException {
+        tokenize(buffer, WordNormalizer.NONE, consumer);
+    }
+
+    /**
+     * Same as {@link #tokenize(ByteBuffer, Consumer)}, words are normalized by {@param normalizer}.
+     */
+    default void tokenize(ByteBuffer buffer, WordNormalizer normalizer, Consumer<String> consumer)
+            throws IOException {
+        tokenize(new ByteBufferInputStream(buffer), normalizer, consumer);
+    }
+}
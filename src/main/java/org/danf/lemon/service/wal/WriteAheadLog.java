@@ -0,0 +1,485 @@
+package org.danf.lemon.service.wal;
+
+import lombok.extern.slf4j.Slf4j;
+import org.danf.lemon.config.WalProperties;
+import org.danf.lemon.db.storage.WordCountStorage;
+import org.danf.lemon.db.storage.WordKeys;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * An append-only log of the batches of counts handed to the
+ * {@link org.danf.lemon.service.WriteBehindWordCounter}, so that counts which weren't flushed to the database yet
+ * survive a crash. Does nothing unless {@link WalProperties#isEnabled()} is set.
+ *
+ * Every batch (and every reset of a word or a namespace) is a record with an increasing sequence number (LSN), appended to the
+ * current segment file through a {@link FileChannel}. Appends only write to the OS, a background thread forces the
+ * segment to disk every {@link WalProperties#getFsyncIntervalMs()} and {@link #awaitDurable} waits for the next force,
+ * so all records appended in the meantime share a single fsync (group commit).
+ * Each flush of the counter rolls over to a new segment, and stores the last LSN it covers atomically with the counts
+ * themselves (see {@link WordCountStorage#addToCounts(Map, long)}). Segments whose records are all covered by the
+ * checkpoint are then deleted.
+ * On startup all records after the checkpoint are replayed (see {@link #takeRecovered()}), a record that was torn by
+ * a crash is detected by its checksum and truncated along with anything after it.
+ *
+ * Record layout: <pre>[int payload length][int crc32 of payload][payload]</pre>, where the payload is
+ * <pre>[long lsn][byte type][int entries]</pre> followed by <pre>[int word length][utf-8 word][long delta]</pre> per
+ * entry. A namespace reset has a single entry of the namespace's key prefix (see {@link WordKeys#prefixOf}).
+ *
+ * @author Dan Feldman
+ */
+@Component
+@Slf4j
+public class WriteAheadLog {
+
+    private static final byte BATCH = 1;
+    private static final byte RESET = 2;
+    private static final byte RESET_NAMESPACE = 3;
+    private static final int RECORD_HEADER_BYTES = Integer.BYTES * 2;
+    private static final int PAYLOAD_HEADER_BYTES = Long.BYTES + 1 + Integer.BYTES;
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Object appendLock = new Object();
+    private final Object durableLock = new Object();
+    /**
+     * Closed segments, oldest first, with the last LSN each of them holds.
+     */
+    private final Deque<Segment> closedSegments = new ArrayDeque<>();
+
+    private WalProperties properties;
+    private WordCountStorage storage;
+    private ScheduledExecutorService syncer;
+    private Path directory;
+    private FileChannel channel;
+    private Path currentSegment;
+    private long currentSegmentBytes;
+    private long nextLsn = 1;
+    private volatile long lastAppendedLsn;
+    private volatile long durableLsn;
+    private Map<String, Long> recovered = Collections.emptyMap();
+
+    @Autowired
+    public WriteAheadLog(WalProperties properties, WordCountStorage storage) {
+        this.properties = properties;
+        this.storage = storage;
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    @PostConstruct
+    public void open() throws IOException {
+        if (!isEnabled()) {
+            return;
+        }
+        directory = Paths.get(properties.getDirectory()).toAbsolutePath();
+        Files.createDirectories(directory);
+        long checkpoint = storage.getCheckpoint();
+        recovered = replay(checkpoint);
+        nextLsn = Math.max(nextLsn, checkpoint + 1);
+        lastAppendedLsn = nextLsn - 1;
+        durableLsn = lastAppendedLsn;
+        openSegment();
+        deleteSegmentsUpTo(checkpoint);
+        log.info("Write-ahead log opened in '{}', replayed pending counts of {} words after checkpoint {}", directory,
+                recovered.size(), checkpoint);
+        if (properties.getFsyncIntervalMs() > 0) {
+            syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "wal-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            syncer.scheduleWithFixedDelay(this::syncQuietly, properties.getFsyncIntervalMs(),
+                    properties.getFsyncIntervalMs(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return The counts of all batches that weren't flushed to the database before the last shutdown (or crash), only
+     * the first call returns them.
+     */
+    public Map<String, Long> takeRecovered() {
+        Map<String, Long> counts = recovered;
+        recovered = Collections.emptyMap();
+        return counts;
+    }
+
+    /**
+     * Appends {@param deltas} to the log, it's not necessarily on disk when this method returns (see
+     * {@link #awaitDurable}).
+     *
+     * @return The LSN of the appended record, 0 if the log is disabled.
+     */
+    public long append(Map<String, Long> deltas) {
+        if (!isEnabled() || deltas.isEmpty()) {
+            return 0;
+        }
+        List<byte[]> words = new ArrayList<>(deltas.size());
+        int size = PAYLOAD_HEADER_BYTES;
+        for (String word : deltas.keySet()) {
+            byte[] bytes = word.getBytes(UTF_8);
+            words.add(bytes);
+            size += Integer.BYTES + bytes.length + Long.BYTES;
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + size);
+        record.position(RECORD_HEADER_BYTES + Long.BYTES);
+        record.put(BATCH).putInt(deltas.size());
+        int i = 0;
+        for (Long delta : deltas.values()) {
+            byte[] word = words.get(i++);
+            record.putInt(word.length).put(word).putLong(delta);
+        }
+        return write(record);
+    }
+
+    /**
+     * Appends a record that drops all counts of {@param word} logged before it.
+     */
+    public long appendReset(String word) {
+        return appendSingle(RESET, word);
+    }
+
+    /**
+     * Appends a record that drops all counts of words in {@param namespace} logged before it.
+     */
+    public long appendResetNamespace(String namespace) {
+        return appendSingle(RESET_NAMESPACE, WordKeys.prefixOf(namespace));
+    }
+
+    private long appendSingle(byte type, String word) {
+        if (!isEnabled()) {
+            return 0;
+        }
+        byte[] bytes = word.getBytes(UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + PAYLOAD_HEADER_BYTES + Integer.BYTES +
+                bytes.length + Long.BYTES);
+        record.position(RECORD_HEADER_BYTES + Long.BYTES);
+        record.put(type).putInt(1).putInt(bytes.length).put(bytes).putLong(0);
+        return write(record);
+    }
+
+    /**
+     * @return The LSN of the last appended record.
+     */
+    public long getLastAppendedLsn() {
+        return lastAppendedLsn;
+    }
+
+    /**
+     * Blocks until all records up to {@param lsn} were forced to disk.
+     */
+    public void awaitDurable(long lsn) throws InterruptedIOException {
+        if (!isEnabled() || durableLsn >= lsn) {
+            return;
+        }
+        if (syncer == null) {
+            sync();
+            return;
+        }
+        synchronized (durableLock) {
+            while (durableLsn < lsn) {
+                try {
+                    durableLock.wait(properties.getFsyncIntervalMs());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for the write-ahead log to sync");
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the current segment and starts a new one, if anything was appended to it.
+     * Called by a flush right before it drains the pending counts, so all records up to the returned LSN are part of
+     * the drained batch (or of an earlier flush).
+     *
+     * @return The LSN of the last record in the closed segments.
+     */
+    public long roll() {
+        if (!isEnabled()) {
+            return 0;
+        }
+        synchronized (appendLock) {
+            if (currentSegmentBytes > 0) {
+                try {
+                    closeSegment();
+                    openSegment();
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Failed rolling write-ahead log segment", e);
+                }
+            }
+            return lastAppendedLsn;
+        }
+    }
+
+    /**
+     * Deletes closed segments whose records are all covered by the checkpoint {@param lsn}.
+     */
+    public void deleteSegmentsUpTo(long lsn) {
+        if (!isEnabled()) {
+            return;
+        }
+        synchronized (appendLock) {
+            while (!closedSegments.isEmpty() && closedSegments.peekFirst().lastLsn <= lsn) {
+                Path segment = closedSegments.pollFirst().path;
+                try {
+                    Files.deleteIfExists(segment);
+                    log.debug("Deleted write-ahead log segment '{}'", segment);
+                } catch (IOException e) {
+                    log.warn("Failed deleting write-ahead log segment '{}': {}", segment, e.getMessage());
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (!isEnabled()) {
+            return;
+        }
+        if (syncer != null) {
+            syncer.shutdownNow();
+        }
+        synchronized (appendLock) {
+            if (!channel.isOpen()) {
+                return;
+            }
+            channel.force(false);
+            channel.close();
+            durableLsn = lastAppendedLsn;
+        }
+    }
+
+    private long write(ByteBuffer record) {
+        synchronized (appendLock) {
+            long lsn = nextLsn++;
+            record.putLong(RECORD_HEADER_BYTES, lsn);
+            int payloadLength = record.capacity() - RECORD_HEADER_BYTES;
+            CRC32 crc = new CRC32();
+            crc.update(record.array(), RECORD_HEADER_BYTES, payloadLength);
+            record.putInt(0, payloadLength).putInt(Integer.BYTES, (int) crc.getValue());
+            record.rewind();
+            try {
+                while (record.hasRemaining()) {
+                    channel.write(record);
+                }
+                if (properties.getFsyncIntervalMs() <= 0) {
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed appending to write-ahead log", e);
+            }
+            currentSegmentBytes += record.capacity();
+            lastAppendedLsn = lsn;
+            if (properties.getFsyncIntervalMs() <= 0) {
+                markDurable(lsn);
+            }
+            if (currentSegmentBytes >= properties.getSegmentSizeBytes()) {
+                roll();
+            }
+            return lsn;
+        }
+    }
+
+    /**
+     * Forces the current segment outside of the append lock, so appends aren't blocked by the fsync.
+     * A segment that is closed meanwhile was already forced by {@link #closeSegment()}.
+     */
+    private void sync() {
+        long target;
+        FileChannel current;
+        synchronized (appendLock) {
+            target = lastAppendedLsn;
+            current = channel;
+        }
+        if (target <= durableLsn) {
+            return;
+        }
+        try {
+            current.force(false);
+        } catch (ClosedChannelException e) {
+            log.trace("Segment was closed (and forced) while syncing");
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed syncing write-ahead log", e);
+        }
+        markDurable(target);
+    }
+
+    private void syncQuietly() {
+        try {
+            sync();
+        } catch (RuntimeException e) {
+            log.error("Failed syncing write-ahead log: {}", e.getMessage());
+            log.debug("", e);
+        }
+    }
+
+    private void markDurable(long lsn) {
+        synchronized (durableLock) {
+            if (lsn > durableLsn) {
+                durableLsn = lsn;
+                durableLock.notifyAll();
+            }
+        }
+    }
+
+    private void openSegment() throws IOException {
+        currentSegment = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, nextLsn, SEGMENT_SUFFIX));
+        channel = FileChannel.open(currentSegment, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        currentSegmentBytes = 0;
+    }
+
+    private void closeSegment() throws IOException {
+        channel.force(false);
+        channel.close();
+        closedSegments.addLast(new Segment(currentSegment, lastAppendedLsn));
+        markDurable(lastAppendedLsn);
+    }
+
+    /**
+     * Replays all existing segments, oldest first, and keeps them as closed segments.
+     *
+     * @return The counts of all records after {@param checkpoint}.
+     */
+    private Map<String, Long> replay(long checkpoint) throws IOException {
+        List<Path> segments;
+        try (Stream<Path> files = Files.list(directory)) {
+            segments = files.filter(file -> file.getFileName().toString().startsWith(SEGMENT_PREFIX))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        Map<String, Long> counts = new HashMap<>();
+        boolean corrupted = false;
+        for (Path segment : segments) {
+            if (corrupted) {
+                log.error("Dropping write-ahead log segment '{}' which follows a corrupted one", segment);
+                Files.delete(segment);
+                continue;
+            }
+            if (Files.size(segment) == 0) {
+                // Started right before the shutdown (or crash), its name is reused by the next segment
+                Files.delete(segment);
+                continue;
+            }
+            long lastLsn = nextLsn - 1;
+            long validBytes = 0;
+            try (FileChannel segmentChannel = FileChannel.open(segment, StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = segmentChannel.map(FileChannel.MapMode.READ_ONLY, 0, segmentChannel.size());
+                while (buffer.hasRemaining()) {
+                    long lsn = readRecord(buffer, checkpoint, counts);
+                    if (lsn < 0) {
+                        corrupted = true;
+                        break;
+                    }
+                    lastLsn = lsn;
+                    validBytes = buffer.position();
+                }
+            }
+            if (corrupted && validBytes == 0) {
+                // Torn on its first record, so like an empty segment its name is reused by the next segment
+                log.warn("Dropping write-ahead log segment '{}' whose first record is torn", segment);
+                Files.delete(segment);
+                continue;
+            }
+            if (corrupted) {
+                log.warn("Truncating torn write-ahead log record at offset {} of segment '{}'", validBytes, segment);
+                try (FileChannel segmentChannel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+                    segmentChannel.truncate(validBytes);
+                    segmentChannel.force(true);
+                }
+            }
+            nextLsn = lastLsn + 1;
+            closedSegments.addLast(new Segment(segment, lastLsn));
+        }
+        counts.values().removeIf(count -> count == 0);
+        return counts;
+    }
+
+    /**
+     * Reads the record at the position of {@param buffer}, adding its entries to {@param counts} if it's after
+     * {@param checkpoint}.
+     *
+     * @return The LSN of the record, -1 if it's incomplete or corrupted.
+     */
+    private static long readRecord(ByteBuffer buffer, long checkpoint, Map<String, Long> counts) {
+        try {
+            int payloadLength = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (payloadLength < PAYLOAD_HEADER_BYTES || payloadLength > buffer.remaining()) {
+                return -1;
+            }
+            byte[] payload = new byte[payloadLength];
+            buffer.get(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                return -1;
+            }
+            ByteBuffer record = ByteBuffer.wrap(payload);
+            long lsn = record.getLong();
+            byte type = record.get();
+            int entries = record.getInt();
+            for (int i = 0; i < entries; i++) {
+                byte[] word = new byte[record.getInt()];
+                record.get(word);
+                long delta = record.getLong();
+                if (lsn > checkpoint) {
+                    String key = new String(word, UTF_8);
+                    if (type == RESET_NAMESPACE) {
+                        counts.keySet().removeIf(recovered -> recovered.startsWith(key));
+                    } else if (type == RESET) {
+                        counts.remove(key);
+                    } else {
+                        counts.merge(key, delta, Math::addExact);
+                    }
+                }
+            }
+            return lsn;
+        } catch (BufferUnderflowException | NegativeArraySizeException e) {
+            return -1;
+        }
+    }
+
+    private static class Segment {
+
+        private final Path path;
+        private final long lastLsn;
+
+        Segment(Path path, long lastLsn) {
+            this.path = path;
+            this.lastLsn = lastLsn;
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package org.danf.lemon.service.window;
+
+import lombok.extern.slf4j.Slf4j;
+import org.danf.lemon.config.CounterProperties;
+import org.danf.lemon.config.CounterProperties.Durability;
+import org.danf.lemon.config.WindowProperties;
+import org.danf.lemon.db.storage.WordKeys;
+import org.danf.lemon.service.WordCountListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Counts of recent appearances of words (i.e. in the last hour or day), next to their lifetime counts.
+ * Every flushed batch is added to the bucket of the minute it was flushed in. Minute buckets older than
+ * <pre>lemon.window.minute-retention-minutes</pre> are rolled up into a bucket per hour, and hour buckets older than
+ * <pre>lemon.window.hour-retention-hours</pre> are dropped, so memory is bounded by the number of distinct words
+ * counted within the retention.
+ * A window is summed from the buckets it overlaps: minute buckets only for windows within the minute retention, and
+ * hour buckets as well for longer ones, whose start is then rounded down to a whole hour.
+ *
+ * Counts are bucketed by the time they're flushed rather than the time they were counted, and reads add the pending
+ * counts of the {@link org.danf.lemon.service.WriteBehindWordCounter} to any window. That's only accurate to within a
+ * flush interval when counts are flushed on an interval, so windowed counting stays disabled unless
+ * <pre>lemon.counter.durability</pre> is <pre>interval</pre>. Even then, pending counts that outlived a failed flush or
+ * were recovered from the write-ahead log on startup are counted within every window until they're flushed, and are
+ * bucketed by the time of that flush.
+ * The lifetime count path isn't affected, buckets are only updated by the flushing thread once per word of a batch.
+ * Buckets are snapshotted to <pre>lemon.window.directory</pre> periodically and on shutdown, and loaded on startup.
+ * A crash loses the counts flushed since the last snapshot.
+ *
+ * Implementation note:
+ * All counts from before {@link #rolledUpTo} are in hour buckets and all counts since are in minute buckets, so a
+ * window never counts a minute twice, whether or not expired buckets were rolled up yet. Rolling up and dropping
+ * buckets happen on the snapshot interval rather than on updates, so flushes only ever add to the current bucket.
+ * Updates and compactions are exclusive with reads and snapshots.
+ *
+ * @author Dan Feldman
+ */
+@Service
+@Slf4j
+public class WindowedCounts implements WordCountListener {
+
+    private static final String SNAPSHOT_FILE = "windows.dat";
+    private static final long MINUTE_MS = TimeUnit.MINUTES.toMillis(1);
+    private static final long HOUR_MS = TimeUnit.HOURS.toMillis(1);
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object snapshotLock = new Object();
+    private NavigableMap<Long, Map<String, Long>> minutes = new TreeMap<>();
+    private NavigableMap<Long, Map<String, Long>> hours = new TreeMap<>();
+    private long rolledUpTo;
+    private long updatesSinceSnapshot;
+
+    private WindowProperties properties;
+    private CounterProperties counterProperties;
+    private Clock clock;
+
+    @Autowired
+    public WindowedCounts(WindowProperties properties, CounterProperties counterProperties) {
+        this(properties, counterProperties, Clock.systemUTC());
+    }
+
+    public WindowedCounts(WindowProperties properties, CounterProperties counterProperties, Clock clock) {
+        this.properties = properties;
+        this.counterProperties = counterProperties;
+        this.clock = clock;
+    }
+
+    @PostConstruct
+    public void load() throws IOException {
+        if (properties.isEnabled() && !isEnabled()) {
+            log.warn("Windowed counting is disabled since it requires the {} durability mode, not {}",
+                    Durability.INTERVAL, counterProperties.getDurability());
+        }
+        if (!isEnabled()) {
+            return;
+        }
+        Path snapshot = Paths.get(properties.getDirectory()).resolve(SNAPSHOT_FILE);
+        if (Files.exists(snapshot)) {
+            CRC32 crc = new CRC32();
+            try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                    new BufferedInputStream(Files.newInputStream(snapshot)), crc))) {
+                long loadedRolledUpTo = in.readLong();
+                NavigableMap<Long, Map<String, Long>> loadedMinutes = readBuckets(in);
+                NavigableMap<Long, Map<String, Long>> loadedHours = readBuckets(in);
+                long expected = crc.getValue();
+                if (in.readInt() != (int) expected) {
+                    throw new IOException("Corrupted window snapshot '" + snapshot + "'");
+                }
+                lock.writeLock().lock();
+                try {
+                    rolledUpTo = loadedRolledUpTo;
+                    minutes = loadedMinutes;
+                    hours = loadedHours;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                log.info("Loaded {} minute and {} hour buckets of windowed counts from '{}'", loadedMinutes.size(),
+                        loadedHours.size(), snapshot);
+            }
+        }
+        compact();
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled() && counterProperties.getDurability() == Durability.INTERVAL;
+    }
+
+    /**
+     * @return The longest window that can be queried.
+     */
+    public Duration getMaxWindow() {
+        return Duration.ofHours(properties.getHourRetentionHours());
+    }
+
+    /**
+     * Adds all counts of {@param batch} to the bucket of the current minute, once they were persisted.
+     */
+    public void record(Map<String, Long> batch) {
+        if (!isEnabled() || batch.isEmpty()) {
+            return;
+        }
+        long now = clock.millis();
+        lock.writeLock().lock();
+        try {
+            Map<String, Long> bucket = minutes.computeIfAbsent(floor(now, MINUTE_MS), start -> new HashMap<>());
+            batch.forEach((word, count) -> bucket.merge(word, count, Math::addExact));
+            updatesSinceSnapshot += batch.size();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return The flushed count of {@param word} in all buckets that overlap the last {@param window}, which is at
+     * most {@link #getMaxWindow()} long.
+     */
+    public long getCount(String word, Duration window) {
+        long start = clock.millis() - window.toMillis();
+        lock.readLock().lock();
+        try {
+            long count = sum(minutes.tailMap(floor(start, MINUTE_MS), true), word);
+            if (start < rolledUpTo) {
+                count = Math.addExact(count, sum(hours.tailMap(floor(start, HOUR_MS), true), word));
+            }
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Buckets are recorded by the flush itself rather than through this listener, since listeners are only handed
+     * the admitted counts of a batch (see {@link org.danf.lemon.service.sketch.WordSketches#admit}).
+     */
+    @Override
+    public void onFlushed(Map<String, Long> deltas) {
+    }
+
+    @Override
+    public void onReset(String word) {
+        lock.writeLock().lock();
+        try {
+            minutes.values().forEach(bucket -> bucket.remove(word));
+            hours.values().forEach(bucket -> bucket.remove(word));
+            updatesSinceSnapshot++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onNamespaceReset(String namespace) {
+        String prefix = WordKeys.prefixOf(namespace);
+        lock.writeLock().lock();
+        try {
+            minutes.values().forEach(bucket -> bucket.keySet().removeIf(key -> key.startsWith(prefix)));
+            hours.values().forEach(bucket -> bucket.keySet().removeIf(key -> key.startsWith(prefix)));
+            updatesSinceSnapshot++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${lemon.window.snapshot-interval-ms:60000}")
+    void snapshotOnInterval() {
+        try {
+            compact();
+            snapshot();
+        } catch (IOException e) {
+            log.error("Periodic snapshot of windowed counts failed: {}", e.getMessage());
+            log.debug("", e);
+        }
+    }
+
+    /**
+     * Runs after the counter's final flush, since the counter depends on this bean.
+     */
+    @PreDestroy
+    public void snapshot() throws IOException {
+        if (!isEnabled()) {
+            return;
+        }
+        Path directory = Files.createDirectories(Paths.get(properties.getDirectory()));
+        Path snapshot = directory.resolve(SNAPSHOT_FILE);
+        Path temp = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        synchronized (snapshotLock) {
+            lock.readLock().lock();
+            try {
+                if (updatesSinceSnapshot == 0 && Files.exists(snapshot)) {
+                    return;
+                }
+                CRC32 crc = new CRC32();
+                try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                            new BufferedOutputStream(Channels.newOutputStream(channel)), crc));
+                    out.writeLong(rolledUpTo);
+                    writeBuckets(minutes, out);
+                    writeBuckets(hours, out);
+                    out.writeInt((int) crc.getValue());
+                    out.flush();
+                    channel.force(true);
+                }
+                Files.move(temp, snapshot, StandardCopyOption.ATOMIC_MOVE);
+                // Updates are exclusive with the read lock, and snapshots with each other
+                updatesSinceSnapshot = 0;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        log.debug("Snapshotted windowed counts to '{}'", snapshot);
+    }
+
+    /**
+     * Rolls up and drops the buckets that expired by now, runs before every periodic snapshot.
+     */
+    public void compact() {
+        if (!isEnabled()) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            compact(clock.millis());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Called under the write lock, rolls minute buckets past their retention up into hour buckets and drops hour
+     * buckets past theirs.
+     */
+    private void compact(long now) {
+        long minuteCutoff = floor(now, MINUTE_MS) - properties.getMinuteRetentionMinutes() * MINUTE_MS;
+        if (minuteCutoff > rolledUpTo) {
+            NavigableMap<Long, Map<String, Long>> expired = minutes.headMap(minuteCutoff, false);
+            expired.forEach((start, bucket) -> {
+                Map<String, Long> hour = hours.computeIfAbsent(floor(start, HOUR_MS), hourStart -> new HashMap<>());
+                bucket.forEach((word, count) -> hour.merge(word, count, Math::addExact));
+            });
+            if (!expired.isEmpty()) {
+                updatesSinceSnapshot++;
+            }
+            expired.clear();
+            rolledUpTo = minuteCutoff;
+        }
+        NavigableMap<Long, Map<String, Long>> dropped =
+                hours.headMap(floor(now, HOUR_MS) - properties.getHourRetentionHours() * HOUR_MS, false);
+        if (!dropped.isEmpty()) {
+            dropped.clear();
+            updatesSinceSnapshot++;
+        }
+    }
+
+    private static long sum(Map<Long, Map<String, Long>> buckets, String word) {
+        long count = 0;
+        for (Map<String, Long> bucket : buckets.values()) {
+            count = Math.addExact(count, bucket.getOrDefault(word, 0L));
+        }
+        return count;
+    }
+
+    private static long floor(long millis, long unit) {
+        return millis - Math.floorMod(millis, unit);
+    }
+
+    private static void writeBuckets(NavigableMap<Long, Map<String, Long>> buckets, DataOutputStream out)
+            throws IOException {
+        out.writeInt(buckets.size());
+        for (Map.Entry<Long, Map<String, Long>> bucket : buckets.entrySet()) {
+            out.writeLong(bucket.getKey());
+            out.writeInt(bucket.getValue().size());
+            for (Map.Entry<String, Long> count : bucket.getValue().entrySet()) {
+                byte[] word = count.getKey().getBytes(UTF_8);
+                out.writeInt(word.length);
+                out.write(word);
+                out.writeLong(count.getValue());
+            }
+        }
+    }
+
+    private static NavigableMap<Long, Map<String, Long>> readBuckets(DataInputStream in) throws IOException {
+        NavigableMap<Long, Map<String, Long>> buckets = new TreeMap<>();
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            long start = in.readLong();
+            int words = in.readInt();
+            Map<String, Long> bucket = new HashMap<>(words * 4 / 3 + 1);
+            for (int j = 0; j < words; j++) {
+                byte[] word = new byte[in.readInt()];
+                in.readFully(word);
+                bucket.put(new String(word, UTF_8), in.readLong());
+            }
+            buckets.put(start, bucket);
+        }
+        return buckets;
+    }
+}
@@ -0,0 +1,85 @@
+package org.danf.lemon;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.danf.lemon.config.CountExecutorProperties;
+import org.danf.lemon.config.CountExecutorProperties.RejectionPolicy;
+import org.danf.lemon.service.executor.CountJobExecutor;
+import org.junit.Test;
+import org.springframework.core.task.TaskRejectedException;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Verifies the count job executor is bounded and reports its state.
+ *
+ * @author Dan Feldman
+ */
+public class CountJobExecutorTest {
+
+    @Test
+    public void testSaturatedExecutorRejectsJobs() throws Exception {
+        CountJobExecutor executor = new CountJobExecutor(properties(RejectionPolicy.ABORT));
+        MeterRegistry registry = new SimpleMeterRegistry();
+        executor.bindTo(registry);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<?> running = executor.submit(() -> {
+            started.countDown();
+            awaitQuietly(release);
+        });
+        started.await();
+        Future<?> queued = executor.submit(() -> awaitQuietly(release));
+        assertThatThrownBy(() -> executor.submit(() -> { })).isInstanceOf(TaskRejectedException.class);
+        assertThat(executor.getStats().getActiveJobs()).isEqualTo(1);
+        assertThat(executor.getStats().getQueuedJobs()).isEqualTo(1);
+        assertThat(executor.getStats().getRejectedJobs()).isEqualTo(1);
+
+        release.countDown();
+        running.get();
+        queued.get();
+        // Stats are updated right after the future completes
+        long deadline = System.currentTimeMillis() + 5000;
+        while (executor.getStats().getCompletedJobs() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(executor.getStats().getCompletedJobs()).isEqualTo(2);
+        assertThat(executor.getStats().getActiveJobs()).isEqualTo(0);
+        assertThat(registry.get("lemon.executor.jobs.latency").timer().count()).isEqualTo(2);
+        executor.destroy();
+    }
+
+    @Test
+    public void testCallerRunsWhenSaturated() throws Exception {
+        CountJobExecutor executor = new CountJobExecutor(properties(RejectionPolicy.CALLER_RUNS));
+        CountDownLatch release = new CountDownLatch(1);
+        executor.submit(() -> awaitQuietly(release));
+        executor.submit(() -> awaitQuietly(release));
+        Thread caller = Thread.currentThread();
+        Future<Thread> ranOn = executor.submit(Thread::currentThread);
+        assertThat(ranOn.get()).isSameAs(caller);
+        release.countDown();
+        executor.destroy();
+    }
+
+    private static CountExecutorProperties properties(RejectionPolicy rejectionPolicy) {
+        CountExecutorProperties properties = new CountExecutorProperties();
+        properties.setCoreSize(1);
+        properties.setMaxSize(1);
+        properties.setQueueCapacity(1);
+        properties.setRejectionPolicy(rejectionPolicy);
+        return properties;
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
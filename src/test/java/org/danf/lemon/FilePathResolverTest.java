@@ -0,0 +1,88 @@
+package org.danf.lemon;
+
+import org.danf.lemon.config.FileCountProperties;
+import org.danf.lemon.rest.helper.FilePathResolver;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.ForbiddenException;
+import javax.ws.rs.NotFoundException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Verifies resolution of directories and globs, and that files outside of the root directory can't be reached.
+ *
+ * @author Dan Feldman
+ */
+public class FilePathResolverTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path root;
+    private FileCountProperties properties;
+    private FilePathResolver resolver;
+
+    @Before
+    public void init() throws IOException {
+        root = folder.newFolder("root").toPath().toRealPath();
+        Files.createDirectories(root.resolve("sub"));
+        for (String file : new String[]{"a.log", "b.log.gz", "notes.txt", "sub/c.log"}) {
+            Files.write(root.resolve(file), new byte[]{'x'});
+        }
+        Files.write(folder.newFile("secret.txt").toPath(), new byte[]{'x'});
+        properties = new FileCountProperties();
+        resolver = new FilePathResolver(properties);
+    }
+
+    @Test
+    public void testDirectoriesAndGlobs() {
+        assertThat(names(resolver.resolve(root.toString()))).containsExactly("a.log", "b.log.gz", "notes.txt", "c.log");
+        assertThat(names(resolver.resolve(root + "/*.log"))).containsExactly("a.log");
+        assertThat(names(resolver.resolve(root + "/**.log"))).containsExactly("a.log", "c.log");
+        assertThat(names(resolver.resolve(root + "/*.{log,gz}"))).containsExactly("a.log", "b.log.gz");
+        assertThat(names(resolver.resolve(root + "/*/*.log"))).containsExactly("c.log");
+        assertThat(names(resolver.resolve(root + "/{sub/c,a}.log"))).containsExactly("a.log", "c.log");
+        assertThat(resolver.isMultiFile(root.toString())).isTrue();
+        assertThat(resolver.isMultiFile(root + "/a.log")).isFalse();
+        assertThatThrownBy(() -> resolver.resolve(root + "/*.csv")).isInstanceOf(NotFoundException.class);
+        properties.setMaxFiles(2);
+        assertThatThrownBy(() -> resolver.resolve(root.toString())).isInstanceOf(BadRequestException.class);
+    }
+
+    @Test
+    public void testExistingPathWithGlobCharsIsLiteral() throws IOException {
+        Files.write(root.resolve("report[1].txt"), new byte[]{'x'});
+        assertThat(names(resolver.resolve(root + "/report[1].txt"))).containsExactly("report[1].txt");
+        assertThat(resolver.isMultiFile(root + "/report[1].txt")).isFalse();
+        assertThat(names(resolver.resolve(root + "/report*.txt"))).containsExactly("report[1].txt");
+    }
+
+    @Test
+    public void testRootDirectoryRestriction() throws IOException {
+        properties.setRootDir(root.toString());
+        assertThat(names(resolver.resolve("sub/c.log"))).containsExactly("c.log");
+        assertThat(names(resolver.resolve("*.log"))).containsExactly("a.log");
+        assertThatThrownBy(() -> resolver.resolve("../secret.txt")).isInstanceOf(ForbiddenException.class);
+        assertThatThrownBy(() -> resolver.resolve(folder.getRoot() + "/secret.txt"))
+                .isInstanceOf(ForbiddenException.class);
+        Files.createSymbolicLink(root.resolve("link.txt"), folder.getRoot().toPath().resolve("secret.txt"));
+        assertThatThrownBy(() -> resolver.resolve("link.txt")).isInstanceOf(ForbiddenException.class);
+        assertThatThrownBy(() -> resolver.resolve("*.txt")).isInstanceOf(ForbiddenException.class);
+    }
+
+    private static List<String> names(List<File> files) {
+        return files.stream().map(File::getName).collect(Collectors.toList());
+    }
+}
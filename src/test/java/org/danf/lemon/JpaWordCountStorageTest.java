@@ -0,0 +1,44 @@
+package org.danf.lemon;
+
+import org.danf.lemon.db.repo.WordsRepo;
+import org.danf.lemon.db.storage.JpaWordCountStorage;
+import org.danf.lemon.db.storage.WordCountStorage;
+import org.junit.After;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+
+/**
+ * Runs the {@link WordCountStorageContractTest} against the <pre>words</pre> table.
+ * The inherited tests aren't rolled back (the transaction of a test method is looked up on the class declaring it),
+ * so the words they create are deleted after each one.
+ *
+ * @author Dan Feldman
+ */
+@RunWith(SpringRunner.class)
+@DataJpaTest
+public class JpaWordCountStorageTest extends WordCountStorageContractTest {
+
+    @Autowired
+    private WordsRepo wordsRepo;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Override
+    protected WordCountStorage openStorage() {
+        return new JpaWordCountStorage(wordsRepo, jdbcTemplate, transactionManager);
+    }
+
+    @After
+    public void deleteWords() {
+        jdbcTemplate.update("DELETE FROM words WHERE word LIKE 'ctr%' OR namespace LIKE 'ctr%'");
+        jdbcTemplate.update("DELETE FROM wal_checkpoint");
+    }
+}
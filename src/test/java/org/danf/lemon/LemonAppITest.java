@@ -1,9 +1,15 @@
 package org.danf.lemon;
 
+import io.airlift.compress.zstd.ZstdOutputStream;
+import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.StatusLine;
 import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.fluent.Request;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.util.EntityUtils;
+import org.danf.lemon.service.WriteBehindWordCounter;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -12,10 +18,16 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.test.context.junit4.SpringRunner;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
 
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -31,11 +43,24 @@ public class LemonAppITest {
 	private static final String API_ROOT = "api/v1/words";
 	private static final String ENDPOINT_COUNT = "count";
 	private static final String ENDPOINT_STATISTICS = "statistics/";
+	private static final String ENDPOINT_JOBS = "jobs/";
+	private static final String ENDPOINT_INGEST = "ingest";
+	private static final String ENDPOINT_EXPORT = "export";
+	private static final String ENDPOINT_SEARCH = "search";
+	private static final String ENDPOINT_ESTIMATES = "estimates/";
+	private static final String ENDPOINT_DISTINCT = "distinct";
+	private static final String ENDPOINT_NAMESPACES = "namespaces/";
 	private static final String ENDPOINT_PING = "/api/v1/system/ping";
+	private static final String ENDPOINT_EXECUTOR = "/api/v1/system/executor";
+	private static final String ENDPOINT_CACHE = "/api/v1/system/cache";
+	private static final String ENDPOINT_PROMETHEUS = "/actuator/prometheus";
 
 	@Autowired
 	private TestRestTemplate restTemplate;
 
+	@Autowired
+	private WriteBehindWordCounter wordCounter;
+
 	private String rootUrl;
 
 	@Before
@@ -54,6 +79,60 @@ public class LemonAppITest {
 		assertWordCount("Hello", 2);
 	}
 
+	@Test
+	public void testBatchStatistics() throws IOException {
+		countWords("batch of batch words");
+		String counts = Request.Get(url("statistics") + "?word=batch&word=words&word=missing")
+				.execute().returnContent().asString();
+		assertThat(counts).isEqualTo("{\"batch\":2,\"words\":1,\"missing\":0}");
+		counts = Request.Post(url("statistics"))
+				.bodyString("[\"of\", \"batch\", \"of\"]", ContentType.APPLICATION_JSON)
+				.execute().returnContent().asString();
+		assertThat(counts).isEqualTo("{\"of\":1,\"batch\":2}");
+	}
+
+	@Test
+	public void testExport() throws IOException {
+		countWords("exported exported exported, exporter exported exporting");
+		String ndjson = Request.Get(url(ENDPOINT_EXPORT) + "?prefix=exported&minCount=2")
+				.execute().returnContent().asString();
+		assertThat(ndjson).isEqualTo("{\"word\":\"exported\",\"count\":3}\n");
+		String csv = Request.Get(url(ENDPOINT_EXPORT) + "?format=csv&prefix=export")
+				.execute().returnContent().asString();
+		assertThat(csv).startsWith("word,count\r\n")
+				.contains("\"exported,\",1\r\n", "exporter,1\r\n", "exporting,1\r\n", "exported,3\r\n");
+		Request.Get(url(ENDPOINT_EXPORT) + "?format=xml")
+				.execute()
+				.handleResponse(response ->
+						assertThat(response.getStatusLine().getStatusCode()).isEqualTo(HttpStatus.SC_BAD_REQUEST));
+	}
+
+	@Test
+	public void testSearch() throws IOException {
+		countWords("error_disk error_net error_disk warning_disk error_disk error_net");
+		wordCounter.flush();
+		String json = Request.Get(url(ENDPOINT_SEARCH) + "?prefix=error_&size=1&page=1")
+				.execute().returnContent().asString();
+		assertThat(json).isEqualTo("[{\"word\":\"error_net\",\"count\":2,\"maxError\":0}]");
+		json = Request.Get(url(ENDPOINT_SEARCH) + "?prefix=error_&sort=word")
+				.execute().returnContent().asString();
+		assertThat(json).startsWith("[{\"word\":\"error_disk\",\"count\":3");
+		Request.Get(url(ENDPOINT_SEARCH) + "?prefix=error_&size=0")
+				.execute()
+				.handleResponse(response ->
+						assertThat(response.getStatusLine().getStatusCode()).isEqualTo(HttpStatus.SC_BAD_REQUEST));
+	}
+
+	@Test
+	public void testEstimatesDisabled() throws IOException {
+		for (String endpoint : new String[]{ENDPOINT_ESTIMATES + "lemon", ENDPOINT_DISTINCT}) {
+			Request.Get(url(endpoint))
+					.execute()
+					.handleResponse(response ->
+							assertThat(response.getStatusLine().getStatusCode()).isEqualTo(HttpStatus.SC_NOT_FOUND));
+		}
+	}
+
 	@Test
 	public void testResetCounter() throws IOException {
 		countWords("I'm a little teapot");
@@ -64,6 +143,50 @@ public class LemonAppITest {
 		assertWordCount("teapot", 0);
 	}
 
+	@Test
+	public void testWindowedCountDisabledByDefault() throws IOException {
+		Request.Get(url(ENDPOINT_STATISTICS + "trending") + "?window=1h")
+				.execute()
+				.handleResponse(response ->
+						assertThat(response.getStatusLine().getStatusCode()).isEqualTo(HttpStatus.SC_NOT_FOUND));
+		for (String window : new String[]{"1w", "0h", "3d"}) {
+			Request.Get(url(ENDPOINT_STATISTICS + "trending") + "?window=" + window)
+					.execute()
+					.handleResponse(response ->
+							assertThat(response.getStatusLine().getStatusCode()).isEqualTo(HttpStatus.SC_BAD_REQUEST));
+		}
+	}
+
+	@Test
+	public void testNamespaces() throws IOException {
+		Request.Post(url(ENDPOINT_COUNT) + "?namespace=tenant-a")
+				.bodyString("tenanted tenanted", null)
+				.execute()
+				.handleResponse(assertResponseOk());
+		countWords("tenanted");
+		wordCounter.flush();
+		assertWordCount("tenanted", 1);
+		String count = Request.Get(url(ENDPOINT_STATISTICS + "tenanted") + "?namespace=tenant-a")
+				.execute().returnContent().asString();
+		assertThat(count).isEqualTo("2");
+		String counts = Request.Get(url("statistics") + "?word=tenanted&namespace=tenant-a")
+				.execute().returnContent().asString();
+		assertThat(counts).isEqualTo("{\"tenanted\":2}");
+
+		String cleared = Request.Delete(url(ENDPOINT_NAMESPACES + "tenant-a"))
+				.execute().returnContent().asString();
+		assertThat(cleared).contains("1 words");
+		count = Request.Get(url(ENDPOINT_STATISTICS + "tenanted") + "?namespace=tenant-a")
+				.execute().returnContent().asString();
+		assertThat(count).isEqualTo("0");
+		assertWordCount("tenanted", 1);
+
+		StatusLine status = Request.Post(url(ENDPOINT_COUNT) + "?namespace=tenant%2Fa")
+				.bodyString("tenanted", null)
+				.execute().returnResponse().getStatusLine();
+		assertThat(status.getStatusCode()).isEqualTo(HttpStatus.SC_BAD_REQUEST);
+	}
+
 	@Test
 	public void testCountFromUrl() throws IOException {
 		 Request.Post(url(ENDPOINT_COUNT) + "?syncExecution=true" + "&url=" + rootUrl + ENDPOINT_PING)
@@ -72,6 +195,14 @@ public class LemonAppITest {
 		 assertWordCount("PONG", 1);
 	}
 
+	@Test
+	public void testCountFromFailingUrl() throws IOException {
+		HttpResponse response = Request.Post(url(ENDPOINT_COUNT) + "?url=" + rootUrl + "/api/v1/system/coffee")
+				.execute().returnResponse();
+		assertThat(response.getStatusLine().getStatusCode()).isEqualTo(HttpStatus.SC_INTERNAL_SERVER_ERROR);
+		assertThat(EntityUtils.toString(response.getEntity())).contains("returned 418");
+	}
+
 	@Test
 	public void testCountFromFile() throws IOException {
 		Path fileToRead = Files.createTempFile(getClass().getSimpleName(), Long.toString(System.currentTimeMillis()));
@@ -85,6 +216,147 @@ public class LemonAppITest {
 		assertWordCount("lemondb", 1);
 	}
 
+	@Test
+	public void testCountCompressed() throws IOException {
+		byte[] gzipped = gzip("squeezed gzip squeezed");
+		StatusLine status = Request.Post(url(ENDPOINT_COUNT))
+				.addHeader("Content-Encoding", "gzip")
+				.bodyByteArray(gzipped)
+				.execute().returnResponse().getStatusLine();
+		assertThat(status.getStatusCode()).isEqualTo(HttpStatus.SC_OK);
+		// Detected by magic bytes
+		status = Request.Post(url(ENDPOINT_COUNT))
+				.bodyByteArray(gzipped)
+				.execute().returnResponse().getStatusLine();
+		assertThat(status.getStatusCode()).isEqualTo(HttpStatus.SC_OK);
+		assertWordCount("squeezed", 4);
+		assertWordCount("gzip", 2);
+
+		Path zstdFile = Files.createTempFile(getClass().getSimpleName(), ".txt.zst");
+		try (OutputStream out = new ZstdOutputStream(Files.newOutputStream(zstdFile))) {
+			out.write("squeezed zstd".getBytes(StandardCharsets.UTF_8));
+		}
+		Request.Post(url(ENDPOINT_COUNT) + "?filePath=" + zstdFile.toAbsolutePath())
+				.execute()
+				.handleResponse(assertResponseOk());
+		assertWordCount("squeezed", 5);
+		assertWordCount("zstd", 1);
+	}
+
+	@Test
+	public void testCountWithNormalizationProfile() throws IOException {
+		StatusLine status = Request.Post(url(ENDPOINT_COUNT) + "?profile=english")
+				.bodyString("Squash, squash SQUASH! the (squash)", null)
+				.execute().returnResponse().getStatusLine();
+		assertThat(status.getStatusCode()).isEqualTo(HttpStatus.SC_OK);
+		assertWordCount("squash", 4);
+		assertWordCount("the", 0);
+		assertWordCount("Squash,", 0);
+		status = Request.Post(url(ENDPOINT_COUNT) + "?profile=shouting")
+				.bodyString("squash", null)
+				.execute().returnResponse().getStatusLine();
+		assertThat(status.getStatusCode()).isEqualTo(HttpStatus.SC_BAD_REQUEST);
+	}
+
+	@Test
+	public void testIngest() throws IOException {
+		String status = Request.Post(url(ENDPOINT_INGEST) + "?profile=standard")
+				.bodyStream(new ByteArrayInputStream("Ingested, ingested INGESTED piecemeal".getBytes(StandardCharsets.UTF_8)))
+				.execute().returnContent().asString();
+		assertThat(status).contains("\"state\":\"COMPLETED\"", "\"wordsCounted\":4", "\"profile\":\"standard\"");
+		assertWordCount("ingested", 3);
+		assertWordCount("piecemeal", 1);
+
+		HttpResponse response = Request.Post(url(ENDPOINT_INGEST) + "?encoding=gzip")
+				.bodyByteArray(gzip("ingested"))
+				.execute().returnResponse();
+		assertThat(response.getStatusLine().getStatusCode()).isEqualTo(HttpStatus.SC_BAD_REQUEST);
+	}
+
+	@Test
+	public void testIngestProgress() throws IOException {
+		byte[] chunk = new byte[8192];
+		Arrays.fill(chunk, (byte) ' ');
+		byte[] word = "trickle ".getBytes(StandardCharsets.UTF_8);
+		System.arraycopy(word, 0, chunk, 0, word.length);
+		// Sends 8KB every 300ms, so the upload lasts longer than the 1s progress interval
+		InputStream slowBody = new InputStream() {
+			private int chunks;
+			private int position = chunk.length;
+
+			@Override
+			public int read() throws IOException {
+				byte[] single = new byte[1];
+				return read(single, 0, 1) < 0 ? -1 : single[0];
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (position == chunk.length) {
+					if (chunks++ == 8) {
+						return -1;
+					}
+					try {
+						Thread.sleep(300);
+					} catch (InterruptedException e) {
+						throw new IOException(e);
+					}
+					position = 0;
+				}
+				int read = Math.min(len, chunk.length - position);
+				System.arraycopy(chunk, position, b, off, read);
+				position += read;
+				return read;
+			}
+		};
+		String ndjson = Request.Post(url(ENDPOINT_INGEST) + "?progress=true")
+				.body(new InputStreamEntity(slowBody, 8 * chunk.length))
+				.execute().returnContent().asString();
+		String[] lines = ndjson.split("\n");
+		assertThat(lines.length).isGreaterThan(1);
+		assertThat(lines[0]).contains("\"state\":\"RUNNING\"");
+		assertThat(lines[lines.length - 1]).contains("\"state\":\"COMPLETED\"", "\"wordsCounted\":8");
+		assertWordCount("trickle", 8);
+	}
+
+	@Test
+	public void testAsyncCountJob() throws Exception {
+		Path fileToRead = Files.createTempFile(getClass().getSimpleName(), Long.toString(System.currentTimeMillis()));
+		Files.write(fileToRead, "async lemonade async".getBytes(StandardCharsets.UTF_8));
+		HttpResponse response = Request.Post(url(ENDPOINT_COUNT) + "?async=true" + "&filePath=" + fileToRead.toAbsolutePath())
+				.execute()
+				.returnResponse();
+		assertThat(response.getStatusLine().getStatusCode()).isEqualTo(HttpStatus.SC_ACCEPTED);
+		String jobId = EntityUtils.toString(response.getEntity());
+
+		String status = awaitJobState(jobId, "COMPLETED");
+		assertThat(status).contains("\"wordsCounted\":3", "\"bytesRead\":20");
+		assertWordCount("async", 2);
+
+		Request.Delete(url(ENDPOINT_JOBS + "no-such-job"))
+				.execute()
+				.handleResponse(notFound -> assertThat(notFound.getStatusLine().getStatusCode())
+						.isEqualTo(HttpStatus.SC_NOT_FOUND));
+	}
+
+	@Test
+	public void testCountDirectory() throws Exception {
+		Path directory = Files.createTempDirectory(getClass().getSimpleName());
+		Files.write(directory.resolve("first.log"), "rotated rotated".getBytes(StandardCharsets.UTF_8));
+		Files.write(directory.resolve("second.log.gz"), gzip("rotated logs"));
+		Files.write(directory.resolve("ignored.txt"), "rotated".getBytes(StandardCharsets.UTF_8));
+		HttpResponse response = Request.Post(url(ENDPOINT_COUNT) + "?async=true" + "&filePath=" + directory + "/*.log*")
+				.execute()
+				.returnResponse();
+		assertThat(response.getStatusLine().getStatusCode()).isEqualTo(HttpStatus.SC_ACCEPTED);
+
+		String status = awaitJobState(EntityUtils.toString(response.getEntity()), "COMPLETED");
+		assertThat(status).contains("\"wordsCounted\":4", "first.log", "second.log.gz", "\"encoding\":\"GZIP\"")
+				.doesNotContain("ignored.txt");
+		assertWordCount("rotated", 3);
+		assertWordCount("logs", 1);
+	}
+
 	@Test
 	public void testPing() throws IOException {
 		Request.Get(rootUrl + ENDPOINT_PING)
@@ -97,6 +369,38 @@ public class LemonAppITest {
 		assertThat(pingResponse).isEqualTo("PONG\n");
 	}
 
+	@Test
+	public void testExecutorStats() throws IOException {
+		String stats = Request.Get(rootUrl + ENDPOINT_EXECUTOR)
+				.execute()
+				.returnContent()
+				.asString();
+		assertThat(stats).contains("\"activeJobs\"", "\"queuedJobs\"");
+	}
+
+	@Test
+	public void testCacheStats() throws IOException {
+		assertWordCount("absent-word", 0);
+		assertWordCount("absent-word", 0);
+		String stats = Request.Get(rootUrl + ENDPOINT_CACHE)
+				.execute()
+				.returnContent()
+				.asString();
+		assertThat(stats).contains("\"hits\"", "\"misses\"", "\"evictions\"").doesNotContain("\"hits\":0");
+	}
+
+	@Test
+	public void testPrometheusEndpoint() throws IOException {
+		countWords("measured words");
+		assertWordCount("measured", 1);
+		String metrics = Request.Get(rootUrl + ENDPOINT_PROMETHEUS)
+				.execute().returnContent().asString();
+		assertThat(metrics).contains(
+				"lemon_ingest_tokens_total{application=\"dan-lemon-task\",source=\"stream\",}",
+				"lemon_ingest_bytes_total", "lemon_flush_latency_seconds_count", "lemon_statistics_lookup_seconds_count",
+				"lemon_executor_jobs_queued", "lemon_counter_pending_words", "cache_gets_total");
+	}
+
 	@Test
 	public void testSwaggerEndpoint() throws IOException {
 		Request.Get(rootUrl + "/swagger-ui.html")
@@ -104,10 +408,29 @@ public class LemonAppITest {
 				.handleResponse(assertResponseOk());
 	}
 
+	private String awaitJobState(String jobId, String state) throws Exception {
+		long deadline = System.currentTimeMillis() + 10_000;
+		String status;
+		do {
+			Thread.sleep(50);
+			status = Request.Get(url(ENDPOINT_JOBS + jobId)).execute().returnContent().asString();
+		} while (!status.contains("\"state\":\"" + state + "\"") && System.currentTimeMillis() < deadline);
+		assertThat(status).contains("\"state\":\"" + state + "\"");
+		return status;
+	}
+
+	private byte[] gzip(String content) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (OutputStream out = new GZIPOutputStream(bytes)) {
+			out.write(content.getBytes(StandardCharsets.UTF_8));
+		}
+		return bytes.toByteArray();
+	}
+
 	private void assertWordCount(String word, int expected) throws IOException {
 		String count = Request.Get(url(ENDPOINT_STATISTICS + word))
 				.execute().returnContent().asString();
-		assertThat(Integer.parseInt(count)).isEqualTo(expected);
+		assertThat(Long.parseLong(count)).isEqualTo(expected);
 	}
 
 	private void countWords(String words) throws IOException {
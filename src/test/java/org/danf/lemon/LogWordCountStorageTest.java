@@ -0,0 +1,270 @@
+package org.danf.lemon;
+
+import org.danf.lemon.db.storage.LogWordCountStorage;
+import org.danf.lemon.db.storage.WordCountStorage;
+import org.danf.lemon.db.storage.WordKeys;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.danf.lemon.TestUtils.appendTornRecord;
+import static org.danf.lemon.TestUtils.counts;
+
+/**
+ * Runs the {@link WordCountStorageContractTest} against the {@link LogWordCountStorage}, and verifies counts survive
+ * a restart through compactions and torn log records.
+ *
+ * @author Dan Feldman
+ */
+public class LogWordCountStorageTest extends WordCountStorageContractTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private long compactionThresholdBytes = Long.MAX_VALUE;
+
+    @Override
+    protected WordCountStorage openStorage() throws IOException {
+        return LogWordCountStorage.open(folder.getRoot().toPath(), compactionThresholdBytes, false);
+    }
+
+    @After
+    public void closeStorage() throws IOException {
+        ((LogWordCountStorage) storage).close();
+    }
+
+    @Test
+    public void testCountsSurviveRestart() throws IOException {
+        storage.addToCounts(counts("lemon", 3, "lime", 1), 5);
+        storage.addToCounts(counts("lemon", 2, "orange", 4, WordKeys.key("tenant", "lemon"), 1));
+        storage.delete("lime");
+        storage.deleteNamespace("tenant");
+        storage = reopen();
+        assertThat(storage.getCount("lemon")).isEqualTo(5);
+        assertThat(storage.getCount("lime")).isEqualTo(0);
+        assertThat(storage.getCount(WordKeys.key("tenant", "lemon"))).isEqualTo(0);
+        assertThat(storage.getCount("orange")).isEqualTo(4);
+        assertThat(storage.getCheckpoint()).isEqualTo(5);
+    }
+
+    @Test
+    public void testCompaction() throws IOException {
+        compactionThresholdBytes = 256;
+        storage = reopen();
+        for (int i = 0; i < 100; i++) {
+            storage.addToCounts(counts("lemon", 1, "lime" + i % 3, 2), i + 1);
+        }
+        assertThat(folder.getRoot().list()).hasSize(2).anyMatch(name -> name.startsWith("snapshot-"));
+        assertThat(Arrays.stream(folder.getRoot().listFiles()).mapToLong(File::length).sum()).isLessThan(1024);
+        storage = reopen();
+        assertThat(storage.getCount("lemon")).isEqualTo(100);
+        assertThat(storage.getCounts(Arrays.asList("lime0", "lime1", "lime2")))
+                .isEqualTo(counts("lime0", 68, "lime1", 66, "lime2", 66));
+        assertThat(storage.getCheckpoint()).isEqualTo(100);
+
+        ((LogWordCountStorage) storage).compact();
+        storage = reopen();
+        assertThat(storage.getCount("lemon")).isEqualTo(100);
+        assertThat(storage.getCheckpoint()).isEqualTo(100);
+    }
+
+    @Test
+    public void testOnlyStaleStoreFilesAreDeleted() throws IOException {
+        storage.addToCounts(counts("lemon", 2));
+        ((LogWordCountStorage) storage).compact();
+        ((LogWordCountStorage) storage).close();
+        File root = folder.getRoot();
+        // Leftovers of an interrupted compaction, next to files the store doesn't own
+        Files.write(new File(root, String.format("log-%020d.dat", 0)).toPath(), new byte[]{'x'});
+        Files.write(new File(root, String.format("snapshot-%020d.dat.tmp", 2)).toPath(), new byte[]{'x'});
+        Files.write(new File(root, "notes.txt").toPath(), new byte[]{'x'});
+        Files.write(new File(root, "snapshot-backup.dat").toPath(), new byte[]{'x'});
+        Files.write(folder.newFolder("backup").toPath().resolve("log.dat"), new byte[]{'x'});
+        storage = openStorage();
+        assertThat(storage.getCount("lemon")).isEqualTo(2);
+        assertThat(root.list()).containsExactlyInAnyOrder(String.format("snapshot-%020d.dat", 1),
+                String.format("log-%020d.dat", 1), "notes.txt", "snapshot-backup.dat", "backup");
+    }
+
+    @Test
+    public void testTornRecordIsTruncated() throws IOException {
+        storage.addToCounts(counts("lemon", 2));
+        storage.addToCounts(counts("lime", 3), 4);
+        ((LogWordCountStorage) storage).close();
+        File logFile = folder.getRoot().listFiles((dir, name) -> name.startsWith("log-"))[0];
+        long validLength = appendTornRecord(logFile.toPath());
+        storage = openStorage();
+        assertThat(logFile.length()).isEqualTo(validLength);
+        assertThat(storage.getCounts(Arrays.asList("lemon", "lime"))).isEqualTo(counts("lemon", 2, "lime", 3));
+        assertThat(storage.getCheckpoint()).isEqualTo(4);
+        storage.addToCounts(counts("lemon", 1));
+        storage = reopen();
+        assertThat(storage.getCount("lemon")).isEqualTo(3);
+    }
+
+    @Test
+    public void testFailedWriteIsTruncated() throws IOException {
+        ((LogWordCountStorage) storage).close();
+        FailingChannel[] channel = new FailingChannel[1];
+        storage = LogWordCountStorage.open(folder.getRoot().toPath(), Long.MAX_VALUE, false, file ->
+                channel[0] = new FailingChannel(FileChannel.open(file, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE)));
+        storage.addToCounts(counts("lemon", 1));
+        channel[0].failNextWrite = true;
+        assertThatThrownBy(() -> storage.addToCounts(counts("lime", 5)))
+                .isInstanceOf(DataAccessResourceFailureException.class);
+        storage.addToCounts(counts("lemon", 2), 3);
+        storage = reopen();
+        assertThat(storage.getCounts(Arrays.asList("lemon", "lime"))).isEqualTo(counts("lemon", 3));
+        assertThat(storage.getCheckpoint()).isEqualTo(3);
+    }
+
+    @Test
+    public void testWritesAreRejectedOnceTruncationFailed() throws IOException {
+        ((LogWordCountStorage) storage).close();
+        FailingChannel[] channel = new FailingChannel[1];
+        storage = LogWordCountStorage.open(folder.getRoot().toPath(), Long.MAX_VALUE, false, file ->
+                channel[0] = new FailingChannel(FileChannel.open(file, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE)));
+        storage.addToCounts(counts("lemon", 1));
+        channel[0].failNextWrite = true;
+        channel[0].failTruncate = true;
+        assertThatThrownBy(() -> storage.addToCounts(counts("lime", 5)))
+                .isInstanceOf(DataAccessResourceFailureException.class);
+        assertThatThrownBy(() -> storage.addToCounts(counts("lemon", 2)))
+                .isInstanceOf(DataAccessResourceFailureException.class);
+        assertThat(storage.getCount("lemon")).isEqualTo(1);
+    }
+
+    private WordCountStorage reopen() throws IOException {
+        ((LogWordCountStorage) storage).close();
+        return openStorage();
+    }
+
+    /**
+     * Writes only part of a record before failing when asked to, like a disk that filled up mid-write.
+     */
+    private static class FailingChannel extends FileChannel {
+
+        private final FileChannel delegate;
+        private boolean failNextWrite;
+        private boolean failTruncate;
+
+        FailingChannel(FileChannel delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (failNextWrite) {
+                failNextWrite = false;
+                ByteBuffer head = src.duplicate();
+                head.limit(src.position() + src.remaining() / 2);
+                delegate.write(head);
+                throw new IOException("No space left on device");
+            }
+            return delegate.write(src);
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            if (failTruncate) {
+                throw new IOException("Truncate failed on purpose");
+            }
+            delegate.truncate(size);
+            return this;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return delegate.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return delegate.read(dsts, offset, length);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            return delegate.write(srcs, offset, length);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return delegate.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            delegate.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return delegate.size();
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            delegate.force(metaData);
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return delegate.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            return delegate.transferFrom(src, position, count);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return delegate.read(dst, position);
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            return delegate.write(src, position);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return delegate.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return delegate.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return delegate.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            delegate.close();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.danf.lemon;
+
+import org.danf.lemon.config.FileCountProperties;
+import org.danf.lemon.service.MappedFileCounter;
+import org.danf.lemon.service.job.CountJob;
+import org.danf.lemon.service.tokenizer.ScannerWordTokenizer;
+import org.danf.lemon.service.tokenizer.Utf8WhitespaceTokenizer;
+import org.danf.lemon.service.tokenizer.WordNormalizer;
+import org.danf.lemon.service.tokenizer.WordTokenizer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Verifies chunked parallel counting of a file gives the same counts as reading it sequentially, and that cancelling
+ * it keeps the words of the chunks that were already counted.
+ *
+ * @author Dan Feldman
+ */
+public class MappedFileCounterTest {
+
+    private static final String[] WORDS = {"lemon", "lime", "orange", "grapefruit", "日本語", "🍋", "a"};
+    private static final String[] SEPARATORS = {" ", "  ", "\n", "\r\n", "\t"};
+
+    private Path file;
+
+    @Before
+    public void init() throws IOException {
+        Random random = new Random(7);
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            content.append(WORDS[random.nextInt(WORDS.length)]).append(SEPARATORS[random.nextInt(SEPARATORS.length)]);
+        }
+        file = Files.createTempFile(getClass().getSimpleName(), ".txt");
+        Files.write(file, content.toString().getBytes(UTF_8));
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void testParallelCountMatchesSequentialCount() throws IOException {
+        Map<String, Long> expected = new HashMap<>();
+        try (InputStream in = new FileInputStream(file.toFile())) {
+            new ScannerWordTokenizer().tokenize(in, word -> expected.merge(word, 1L, Long::sum));
+        }
+        for (int chunkSize : new int[]{1, 5, 64, 1024, Integer.MAX_VALUE}) {
+            FileCountProperties properties = new FileCountProperties();
+            properties.setChunkSizeBytes(chunkSize);
+            properties.setParallelism(4);
+            MappedFileCounter counter = new MappedFileCounter(new Utf8WhitespaceTokenizer(16, 100), properties);
+            assertThat(counter.count(file.toFile())).as("chunk size %d", chunkSize).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    public void testCancelledCountKeepsCountedChunks() throws IOException {
+        FileCountProperties properties = new FileCountProperties();
+        properties.setChunkSizeBytes(1024);
+        properties.setParallelism(1);
+        CountJob job = new CountJob(file.toString());
+        WordTokenizer tokenizer = new Utf8WhitespaceTokenizer(16, 100);
+        // Cancels the job as soon as the first chunk was counted
+        MappedFileCounter counter = new MappedFileCounter(new WordTokenizer() {
+            @Override
+            public void tokenize(InputStream in, WordNormalizer normalizer, Consumer<String> consumer)
+                    throws IOException {
+                tokenizer.tokenize(in, normalizer, consumer);
+            }
+
+            @Override
+            public void tokenize(ByteBuffer buffer, WordNormalizer normalizer, Consumer<String> consumer)
+                    throws IOException {
+                tokenizer.tokenize(buffer, normalizer, consumer);
+                job.cancel();
+            }
+        }, properties);
+        long counted = counter.count(file.toFile(), job).values().stream().mapToLong(Long::longValue).sum();
+        assertThat(counted).isPositive().isEqualTo(job.getStatus().getWordsCounted()).isLessThan(5000);
+    }
+}
@@ -0,0 +1,95 @@
+package org.danf.lemon;
+
+import org.danf.lemon.service.StripedCountStore;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Hammers the store with parallel writers, while it grows and is concurrently drained, and verifies no increment is
+ * lost or counted twice.
+ *
+ * @author Dan Feldman
+ */
+public class StripedCountStoreTest {
+
+    private static final int WRITERS = 8;
+    private static final int INCREMENTS_PER_WRITER = 200_000;
+    private static final int VOCABULARY = 5_000;
+
+    @Test
+    public void testBasicOperations() {
+        StripedCountStore store = new StripedCountStore(3);
+        assertThat(store.add("lemon", 1)).isTrue();
+        assertThat(store.add("lemon", 2)).isFalse();
+        assertThat(store.add("lime", 5)).isTrue();
+        assertThat(store.get("lemon")).isEqualTo(3);
+        assertThat(store.get("orange")).isZero();
+        assertThat(store.size()).isEqualTo(2);
+        store.remove("lime");
+        assertThat(store.get("lime")).isZero();
+        Map<String, Long> drained = store.drain();
+        assertThat(drained).containsOnlyKeys("lemon").containsEntry("lemon", 3L);
+        assertThat(store.size()).isZero();
+        assertThat(store.drain()).isEmpty();
+    }
+
+    @Test
+    public void testParallelWritersWithConcurrentDrains() throws Exception {
+        StripedCountStore store = new StripedCountStore(4);
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS + 1);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        Map<String, Long> totals = new HashMap<>();
+        try {
+            Future<?> drainer = executor.submit(() -> {
+                start.await();
+                while (writing.get()) {
+                    store.drain().forEach((word, count) -> totals.merge(word, count, Long::sum));
+                    Thread.yield();
+                }
+                return null;
+            });
+            Future<?>[] writers = new Future<?>[WRITERS];
+            for (int i = 0; i < WRITERS; i++) {
+                int writer = i;
+                writers[i] = executor.submit(() -> {
+                    start.await();
+                    for (int j = 0; j < INCREMENTS_PER_WRITER; j++) {
+                        // Skewed so that a few words are contended by all writers while many others make stripes grow
+                        int word = j % 10 == 0 ? j % 7 : (j * 31 + writer) % VOCABULARY;
+                        store.add("w" + word, 1 + (j & 1));
+                    }
+                    return null;
+                });
+            }
+            start.countDown();
+            for (Future<?> writer : writers) {
+                writer.get(1, TimeUnit.MINUTES);
+            }
+            writing.set(false);
+            drainer.get(1, TimeUnit.MINUTES);
+        } finally {
+            executor.shutdownNow();
+        }
+        store.drain().forEach((word, count) -> totals.merge(word, count, Long::sum));
+
+        Map<String, Long> expected = new HashMap<>();
+        for (int writer = 0; writer < WRITERS; writer++) {
+            for (int j = 0; j < INCREMENTS_PER_WRITER; j++) {
+                int word = j % 10 == 0 ? j % 7 : (j * 31 + writer) % VOCABULARY;
+                expected.merge("w" + word, 1L + (j & 1), Long::sum);
+            }
+        }
+        assertThat(totals).isEqualTo(expected);
+    }
+}
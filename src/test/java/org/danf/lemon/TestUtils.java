@@ -0,0 +1,42 @@
+package org.danf.lemon;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fixtures shared by the storage, write-ahead log and sketch tests.
+ *
+ * @author Dan Feldman
+ */
+final class TestUtils {
+
+    private TestUtils() {
+    }
+
+    /**
+     * @return A batch of counts from alternating words and counts, i.e. <pre>counts("lemon", 2, "lime", 1)</pre>.
+     */
+    static Map<String, Long> counts(Object... wordsAndCounts) {
+        Map<String, Long> counts = new HashMap<>();
+        for (int i = 0; i < wordsAndCounts.length; i += 2) {
+            counts.put((String) wordsAndCounts[i], ((Number) wordsAndCounts[i + 1]).longValue());
+        }
+        return counts;
+    }
+
+    /**
+     * Appends the head of a copy of the last record of {@param file}, as if the process died while writing it.
+     *
+     * @return The length of {@param file} before the torn record.
+     */
+    static long appendTornRecord(Path file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOfRange(bytes, bytes.length - 20, bytes.length - 5), StandardOpenOption.APPEND);
+        return bytes.length;
+    }
+}
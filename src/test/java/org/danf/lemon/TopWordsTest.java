@@ -0,0 +1,67 @@
+package org.danf.lemon;
+
+import org.danf.lemon.service.SpaceSaving;
+import org.danf.lemon.service.TopWordsService;
+import org.danf.lemon.service.WordCount;
+import org.danf.lemon.service.WriteBehindWordCounter;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Verifies the heavy hitters structure and the top words it serves.
+ *
+ * @author Dan Feldman
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "lemon.counter.durability=shutdown")
+public class TopWordsTest {
+
+    @Autowired
+    private WriteBehindWordCounter wordCounter;
+
+    @Autowired
+    private TopWordsService topWordsService;
+
+    @Test
+    public void testSpaceSavingKeepsHeavyHitters() {
+        SpaceSaving spaceSaving = new SpaceSaving(10);
+        for (int i = 0; i < 100; i++) {
+            spaceSaving.offer("frequent", 1);
+            spaceSaving.offer("rare" + i, 1);
+            if (i % 2 == 0) {
+                spaceSaving.offer("common", 1);
+            }
+        }
+        List<WordCount> top = spaceSaving.top(2);
+        assertThat(top).extracting(WordCount::getWord).containsExactly("frequent", "common");
+        // Tracked counts never underestimate and overestimate by at most the reported error
+        assertThat(top.get(0).getCount()).isGreaterThanOrEqualTo(100);
+        assertThat(top.get(0).getCount() - top.get(0).getMaxError()).isLessThanOrEqualTo(100);
+
+        spaceSaving.remove("frequent");
+        assertThat(spaceSaving.top(1)).extracting(WordCount::getWord).containsExactly("common");
+    }
+
+    @Test
+    public void testTopWordsFollowFlushes() {
+        wordCounter.add("top-first", 1_000_000);
+        wordCounter.add("top-second", 500_000);
+        wordCounter.flush();
+        wordCounter.add("top-second", 1);
+
+        assertThat(topWordsService.getTopWords(2, false))
+                .containsExactly(new WordCount("top-first", 1_000_000, 0), new WordCount("top-second", 500_000, 0));
+        assertThat(topWordsService.getTopWords(2, true))
+                .containsExactly(new WordCount("top-first", 1_000_000, 0), new WordCount("top-second", 500_001, 0));
+        // Served from the database when asking for more words than are tracked
+        assertThat(topWordsService.getTopWords(5_000, false).subList(0, 2))
+                .extracting(WordCount::getWord).containsExactly("top-first", "top-second");
+    }
+}
@@ -0,0 +1,145 @@
+package org.danf.lemon;
+
+import org.danf.lemon.config.CounterProperties;
+import org.danf.lemon.config.WindowProperties;
+import org.danf.lemon.db.storage.WordKeys;
+import org.danf.lemon.service.window.WindowedCounts;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Verifies windows are summed from the buckets they overlap as minute buckets are rolled up into hour buckets and hour
+ * buckets expire, that buckets survive a restart, and that windows are only kept when counts are flushed on an
+ * interval.
+ *
+ * @author Dan Feldman
+ */
+public class WindowedCountsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final TestClock clock = new TestClock();
+    private WindowProperties properties;
+    private WindowedCounts counts;
+
+    @Before
+    public void init() throws IOException {
+        properties = new WindowProperties();
+        properties.setEnabled(true);
+        properties.setMinuteRetentionMinutes(60);
+        properties.setHourRetentionHours(24);
+        properties.setDirectory(folder.getRoot().getAbsolutePath());
+        counts = new WindowedCounts(properties, new CounterProperties(), clock);
+        counts.load();
+    }
+
+    @Test
+    public void testMinuteBuckets() {
+        counts.record(Collections.singletonMap("lemon", 2L));
+        clock.advance(Duration.ofMinutes(10));
+        counts.record(Collections.singletonMap("lemon", 3L));
+        assertThat(counts.getCount("lemon", Duration.ofMinutes(5))).isEqualTo(3);
+        assertThat(counts.getCount("lemon", Duration.ofMinutes(10))).isEqualTo(5);
+        assertThat(counts.getCount("lemon", Duration.ofHours(1))).isEqualTo(5);
+        assertThat(counts.getCount("lime", Duration.ofHours(1))).isEqualTo(0);
+    }
+
+    @Test
+    public void testRollUpAndExpiry() {
+        counts.record(Collections.singletonMap("lemon", 2L));
+        clock.advance(Duration.ofHours(3));
+        counts.record(Collections.singletonMap("lemon", 3L));
+        // Windows are the same before and after the first bucket is rolled up into its hour
+        assertThat(counts.getCount("lemon", Duration.ofHours(1))).isEqualTo(3);
+        assertThat(counts.getCount("lemon", Duration.ofHours(3))).isEqualTo(5);
+        counts.compact();
+        // It's now only reached by windows going back to its hour
+        assertThat(counts.getCount("lemon", Duration.ofHours(1))).isEqualTo(3);
+        assertThat(counts.getCount("lemon", Duration.ofHours(2))).isEqualTo(3);
+        assertThat(counts.getCount("lemon", Duration.ofHours(3))).isEqualTo(5);
+        assertThat(counts.getCount("lemon", Duration.ofHours(24))).isEqualTo(5);
+
+        clock.advance(Duration.ofHours(23));
+        counts.record(Collections.singletonMap("lime", 1L));
+        counts.compact();
+        assertThat(counts.getCount("lemon", Duration.ofHours(24))).isEqualTo(3);
+        clock.advance(Duration.ofHours(2));
+        counts.record(Collections.singletonMap("lime", 1L));
+        counts.compact();
+        assertThat(counts.getCount("lemon", Duration.ofHours(24))).isEqualTo(0);
+        assertThat(counts.getCount("lime", Duration.ofHours(24))).isEqualTo(2);
+    }
+
+    @Test
+    public void testResets() {
+        String tenantLemon = WordKeys.key("tenant", "lemon");
+        counts.record(Collections.singletonMap("lemon", 2L));
+        counts.record(Collections.singletonMap(tenantLemon, 4L));
+        clock.advance(Duration.ofHours(2));
+        counts.record(Collections.singletonMap("lemon", 1L));
+        counts.onReset("lemon");
+        counts.onNamespaceReset("tenant");
+        assertThat(counts.getCount("lemon", Duration.ofHours(24))).isEqualTo(0);
+        assertThat(counts.getCount(tenantLemon, Duration.ofHours(24))).isEqualTo(0);
+    }
+
+    @Test
+    public void testBucketsSurviveRestart() throws IOException {
+        counts.record(Collections.singletonMap("lemon", 2L));
+        clock.advance(Duration.ofHours(2));
+        counts.record(Collections.singletonMap("lemon", 3L));
+        counts.snapshot();
+        counts = new WindowedCounts(properties, new CounterProperties(), clock);
+        counts.load();
+        assertThat(counts.getCount("lemon", Duration.ofMinutes(1))).isEqualTo(3);
+        assertThat(counts.getCount("lemon", Duration.ofHours(3))).isEqualTo(5);
+    }
+
+    @Test
+    public void testDisabledWithoutIntervalDurability() {
+        CounterProperties counterProperties = new CounterProperties();
+        counterProperties.setDurability(CounterProperties.Durability.SHUTDOWN);
+        counts = new WindowedCounts(properties, counterProperties, clock);
+        assertThat(counts.isEnabled()).isFalse();
+        counts.record(Collections.singletonMap("lemon", 2L));
+        assertThat(counts.getCount("lemon", Duration.ofHours(1))).isEqualTo(0);
+    }
+
+    private static class TestClock extends Clock {
+
+        // Half past an hour, so rounding to whole hours is visible
+        private Instant now = Instant.parse("2019-08-01T10:30:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.danf.lemon;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.danf.lemon.config.StatisticsCacheProperties;
+import org.danf.lemon.db.storage.LogWordCountStorage;
+import org.danf.lemon.db.storage.WordCountStorage;
+import org.danf.lemon.db.storage.WordKeys;
+import org.danf.lemon.service.WordCountCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Verifies words read together are cached, unless their flush was committed while they were being read, and that
+ * only namespaces with data get a cache (and meters) of their own.
+ *
+ * @author Dan Feldman
+ */
+public class WordCountCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LogWordCountStorage storage;
+    private WordCountCache cache;
+    private Runnable onRead = () -> {};
+
+    @Before
+    public void init() throws IOException {
+        storage = LogWordCountStorage.open(folder.getRoot().toPath(), Long.MAX_VALUE, false);
+        storage.addToCounts(Collections.singletonMap("lemon", 1L));
+        // Runs onRead right after words are read together, as if a flush was committed right then
+        WordCountStorage readHook = (WordCountStorage) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{WordCountStorage.class}, (proxy, method, args) -> {
+                    try {
+                        Object result = method.invoke(storage, args);
+                        if (method.getName().equals("getCounts")) {
+                            onRead.run();
+                        }
+                        return result;
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+        cache = new WordCountCache(readHook, new StatisticsCacheProperties(), 1);
+    }
+
+    @After
+    public void closeStorage() throws IOException {
+        storage.close();
+    }
+
+    @Test
+    public void testWordsReadTogetherAreCached() {
+        assertThat(cache.getPersistedCounts(Arrays.asList("lemon", "lime"))).containsEntry("lemon", 1L)
+                .containsEntry("lime", 0L);
+        assertThat(cache.getPersistedCounts(Arrays.asList("lemon", "lime"))).containsEntry("lemon", 1L)
+                .containsEntry("lime", 0L);
+        assertThat(cache.getStats().hitCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testFlushDuringReadIsNotCachedOver() {
+        onRead = () -> {
+            onRead = () -> {};
+            Map<String, Long> batch = Collections.singletonMap("lemon", 2L);
+            storage.addToCounts(batch);
+            cache.onFlushed(batch);
+        };
+        assertThat(cache.getPersistedCounts(Arrays.asList("lemon", "lime"))).containsEntry("lemon", 1L);
+        assertThat(cache.getPersistedCount("lemon")).isEqualTo(3);
+    }
+
+    @Test
+    public void testNamespaceCaches() {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        cache.bindTo(registry);
+        String tenantLemon = WordKeys.key("tenant", "lemon");
+        assertThat(cache.getPersistedCount(WordKeys.key("absent", "lemon"))).isEqualTo(0);
+        assertThat(cache.getPersistedCounts(Collections.singletonList(tenantLemon))).containsEntry(tenantLemon, 0L);
+        assertThat(registry.find("cache.size").tag("cache", "words:absent").gauge()).isNull();
+        assertThat(registry.find("cache.size").tag("cache", "words:tenant").gauge()).isNull();
+
+        storage.addToCounts(Collections.singletonMap(tenantLemon, 2L));
+        assertThat(cache.getPersistedCount(tenantLemon)).isEqualTo(2);
+        assertThat(cache.getPersistedCount(tenantLemon)).isEqualTo(2);
+        assertThat(registry.find("cache.gets").tag("cache", "words:tenant").tag("result", "hit").functionCounter()
+                .count()).isEqualTo(1);
+
+        storage.deleteNamespace("tenant");
+        cache.onNamespaceReset("tenant");
+        assertThat(cache.getPersistedCount(tenantLemon)).isEqualTo(0);
+        assertThat(registry.find("cache.size").tag("cache", "words:tenant").gauge()).isNull();
+    }
+}
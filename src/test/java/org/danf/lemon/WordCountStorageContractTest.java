@@ -0,0 +1,138 @@
+package org.danf.lemon;
+
+import org.danf.lemon.db.entity.WordEntity;
+import org.danf.lemon.db.storage.WordCountStorage;
+import org.danf.lemon.db.storage.WordKeys;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.danf.lemon.TestUtils.counts;
+import static org.assertj.core.api.Assertions.tuple;
+
+/**
+ * The behavior every {@link WordCountStorage} has to provide, run against each of them by a subclass.
+ * Words are prefixed since the storage may hold words of other tests.
+ *
+ * @author Dan Feldman
+ */
+public abstract class WordCountStorageContractTest {
+
+    protected WordCountStorage storage;
+
+    /**
+     * @return The storage under test, empty of the words used here.
+     */
+    protected abstract WordCountStorage openStorage() throws IOException;
+
+    @Before
+    public void initStorage() throws IOException {
+        storage = openStorage();
+    }
+
+    @Test
+    public void testAddToCounts() {
+        assertThat(storage.addToCounts(counts("ctr-lemon", 3, "ctr-lime", 1))).isEqualTo(2);
+        assertThat(storage.addToCounts(counts("ctr-lemon", 2, "ctr-orange", 4))).isEqualTo(1);
+        assertThat(storage.getCount("ctr-lemon")).isEqualTo(5);
+        assertThat(storage.getCount("ctr-lime")).isEqualTo(1);
+        assertThat(storage.getCount("ctr-missing")).isEqualTo(0);
+        assertThat(storage.getCounts(Arrays.asList("ctr-lemon", "ctr-orange", "ctr-missing")))
+                .isEqualTo(counts("ctr-lemon", 5, "ctr-orange", 4));
+        assertThat(storage.getCounts(Collections.emptyList())).isEmpty();
+    }
+
+    @Test
+    public void testDelete() {
+        storage.addToCounts(counts("ctr-lemon", 3, "ctr-lime", 1));
+        assertThat(storage.delete("ctr-lemon")).isTrue();
+        assertThat(storage.delete("ctr-lemon")).isFalse();
+        assertThat(storage.getCount("ctr-lemon")).isEqualTo(0);
+        assertThat(storage.getCount("ctr-lime")).isEqualTo(1);
+        assertThat(storage.addToCounts(counts("ctr-lemon", 2))).isEqualTo(1);
+        assertThat(storage.getCount("ctr-lemon")).isEqualTo(2);
+    }
+
+    @Test
+    public void testFindTopCounts() {
+        storage.addToCounts(counts("ctr-a", 3_000_000_003L, "ctr-b", 3_000_000_001L, "ctr-c", 3_000_000_002L,
+                "ctr-d", 3_000_000_002L));
+        assertThat(storage.findTopCounts(3)).extracting(WordEntity::getWord)
+                .containsExactly("ctr-a", "ctr-c", "ctr-d");
+    }
+
+    @Test
+    public void testFindByPrefix() {
+        storage.addToCounts(counts("ctr-p-b", 1, "ctr-p-a", 2, "ctr-p-d", 3, "ctr-p-c", 2, "ctr-q", 9, "ctr%p", 9,
+                "ctr_p", 9));
+        Sort byCount = Sort.by(Direction.DESC, "count").and(Sort.by("word"));
+        assertThat(storage.findByPrefix("ctr-p", PageRequest.of(0, 10, Sort.by("word"))))
+                .extracting(WordEntity::getWord).containsExactly("ctr-p-a", "ctr-p-b", "ctr-p-c", "ctr-p-d");
+        assertThat(storage.findByPrefix("ctr-p", PageRequest.of(1, 3, Sort.by("word"))))
+                .extracting(WordEntity::getWord).containsExactly("ctr-p-d");
+        assertThat(storage.findByPrefix("ctr-p", PageRequest.of(0, 3, byCount)))
+                .extracting(WordEntity::getWord).containsExactly("ctr-p-d", "ctr-p-a", "ctr-p-c");
+        assertThat(storage.findByPrefix("ctr-p", PageRequest.of(1, 3, byCount)))
+                .extracting(WordEntity::getWord, WordEntity::getCount)
+                .containsExactly(tuple("ctr-p-b", 1L));
+        assertThat(storage.findByPrefix("ctr%", PageRequest.of(0, 10, Sort.by("word"))))
+                .extracting(WordEntity::getWord).containsExactly("ctr%p");
+        assertThat(storage.findByPrefix("ctr-p", PageRequest.of(2, 3, byCount))).isEmpty();
+    }
+
+    @Test
+    public void testForEachWord() {
+        storage.addToCounts(counts("ctr-e-a", 1, "ctr-e-b", 5, "ctr-f", 7));
+        Map<String, Long> seen = new LinkedHashMap<>();
+        storage.forEachWord(2, "ctr-", seen::put);
+        assertThat(seen).isEqualTo(counts("ctr-e-b", 5, "ctr-f", 7));
+        seen.clear();
+        storage.forEachWord(0, "ctr-e", seen::put);
+        assertThat(seen).isEqualTo(counts("ctr-e-a", 1, "ctr-e-b", 5));
+    }
+
+    @Test
+    public void testNamespaces() {
+        String lemon = WordKeys.key("ctr-ns", "ctr-lemon");
+        String lime = WordKeys.key("ctr-ns", "ctr-lime");
+        String otherLemon = WordKeys.key("ctr-ns2", "ctr-lemon");
+        assertThat(storage.addToCounts(counts("ctr-lemon", 1, lemon, 3, lime, 2, otherLemon, 5))).isEqualTo(4);
+        assertThat(storage.getCount("ctr-lemon")).isEqualTo(1);
+        assertThat(storage.getCount(lemon)).isEqualTo(3);
+        assertThat(storage.getCounts(Arrays.asList("ctr-lemon", lemon, otherLemon)))
+                .isEqualTo(counts("ctr-lemon", 1, lemon, 3, otherLemon, 5));
+        assertThat(storage.findTopCounts(1000)).extracting(WordEntity::getWord).containsOnlyOnce("ctr-lemon")
+                .doesNotContain("ctr-lime");
+        assertThat(storage.findByPrefix("ctr-l", PageRequest.of(0, 10, Sort.by("word"))))
+                .extracting(WordEntity::getWord, WordEntity::getCount).containsExactly(tuple("ctr-lemon", 1L));
+        Map<String, Long> seen = new LinkedHashMap<>();
+        storage.forEachWord(0, "ctr-l", seen::put);
+        assertThat(seen).isEqualTo(counts("ctr-lemon", 1));
+
+        assertThat(storage.deleteNamespace("ctr-ns")).isEqualTo(2);
+        assertThat(storage.deleteNamespace("ctr-ns")).isEqualTo(0);
+        assertThat(storage.getCounts(Arrays.asList("ctr-lemon", lemon, lime, otherLemon)))
+                .isEqualTo(counts("ctr-lemon", 1, otherLemon, 5));
+    }
+
+    @Test
+    public void testCheckpoint() {
+        long initial = storage.getCheckpoint();
+        storage.addToCounts(counts("ctr-lemon", 1), initial + 7);
+        assertThat(storage.getCheckpoint()).isEqualTo(initial + 7);
+        storage.addToCounts(counts("ctr-lemon", 1));
+        storage.delete("ctr-lemon");
+        assertThat(storage.getCheckpoint()).isEqualTo(initial + 7);
+        storage.addToCounts(Collections.emptyMap(), initial + 9);
+        assertThat(storage.getCheckpoint()).isEqualTo(initial + 9);
+    }
+}
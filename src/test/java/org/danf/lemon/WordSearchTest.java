@@ -0,0 +1,83 @@
+package org.danf.lemon;
+
+import org.danf.lemon.db.storage.WordCountStorage;
+import org.danf.lemon.service.WordCount;
+import org.danf.lemon.service.WordSearchService;
+import org.danf.lemon.service.WordSearchService.SortBy;
+import org.danf.lemon.service.WriteBehindWordCounter;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Verifies prefix searches served by the in-memory index follow flushes and resets, and match the <pre>LIKE</pre>
+ * query they replace.
+ *
+ * @author Dan Feldman
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "lemon.counter.durability=shutdown")
+public class WordSearchTest {
+
+    @Autowired
+    private WriteBehindWordCounter wordCounter;
+
+    @Autowired
+    private WordSearchService searchService;
+
+    @Autowired
+    private WordCountStorage storage;
+
+    @Test
+    public void testSearchFollowsFlushes() {
+        wordCounter.add("srch-apple", 3);
+        wordCounter.add("srch-avocado", 7);
+        wordCounter.add("srch-banana", 5);
+        wordCounter.add("srch_x", 9);
+        assertThat(searchService.search("srch-", 0, 10, SortBy.COUNT)).isEmpty();
+        wordCounter.flush();
+
+        assertThat(searchService.search("srch-", 0, 10, SortBy.COUNT)).containsExactly(
+                new WordCount("srch-avocado", 7, 0), new WordCount("srch-banana", 5, 0),
+                new WordCount("srch-apple", 3, 0));
+        assertThat(searchService.search("srch-a", 0, 10, SortBy.WORD))
+                .extracting(WordCount::getWord).containsExactly("srch-apple", "srch-avocado");
+        assertThat(searchService.search("srch-", 1, 2, SortBy.COUNT))
+                .extracting(WordCount::getWord).containsExactly("srch-apple");
+        assertThat(searchService.search("srch-", 1, 2, SortBy.WORD))
+                .extracting(WordCount::getWord).containsExactly("srch-banana");
+        assertThat(searchService.search("srch-", 2, 2, SortBy.COUNT)).isEmpty();
+
+        wordCounter.add("srch-apple", 10);
+        wordCounter.flush();
+        wordCounter.reset("srch-banana");
+        assertThat(searchService.search("srch-", 0, 10, SortBy.COUNT)).containsExactly(
+                new WordCount("srch-apple", 13, 0), new WordCount("srch-avocado", 7, 0));
+    }
+
+    @Test
+    public void testIndexMatchesDatabaseQuery() {
+        for (int i = 0; i < 200; i++) {
+            wordCounter.add("idx" + (char) ('a' + i % 5) + i, i % 13 + 1);
+        }
+        wordCounter.add("idx%", 1);
+        wordCounter.flush();
+        WordSearchService rebuilt = new WordSearchService(storage, true);
+        rebuilt.rebuild();
+        WordSearchService database = new WordSearchService(storage, false);
+        for (String prefix : new String[]{"idx", "idxb", "idxc1", "idx%", "idx_", "nothing"}) {
+            for (SortBy sortBy : SortBy.values()) {
+                for (int page = 0; page < 3; page++) {
+                    assertThat(searchService.search(prefix, page, 30, sortBy))
+                            .as("prefix '%s', sort %s, page %d", prefix, sortBy, page)
+                            .isEqualTo(database.search(prefix, page, 30, sortBy))
+                            .isEqualTo(rebuilt.search(prefix, page, 30, sortBy));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package org.danf.lemon;
+
+import org.danf.lemon.config.SketchProperties;
+import org.danf.lemon.service.sketch.CountMinSketch;
+import org.danf.lemon.service.sketch.HyperLogLog;
+import org.danf.lemon.service.sketch.WordSketches;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.danf.lemon.TestUtils.counts;
+
+/**
+ * Verifies the sketches estimate within their error bounds, and that only words reaching the exact threshold are
+ * admitted for persisting.
+ *
+ * @author Dan Feldman
+ */
+public class WordSketchesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SketchProperties properties;
+
+    @Before
+    public void init() {
+        properties = new SketchProperties();
+        properties.setEnabled(true);
+        properties.setRelativeError(0.001);
+        properties.setExactThreshold(5);
+        properties.setDirectory(folder.getRoot().getAbsolutePath());
+    }
+
+    @Test
+    public void testCountMinSketchBounds() {
+        CountMinSketch sketch = CountMinSketch.withErrorBounds(0.001, 0.99);
+        Map<String, Long> counts = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 200_000; i++) {
+            String word = "w" + (int) Math.abs(random.nextGaussian() * 5000);
+            sketch.add(word, 1);
+            counts.merge(word, 1L, Long::sum);
+        }
+        assertThat(sketch.getTotalCount()).isEqualTo(200_000);
+        int overBound = 0;
+        for (Map.Entry<String, Long> count : counts.entrySet()) {
+            long estimate = sketch.estimate(count.getKey());
+            assertThat(estimate).isGreaterThanOrEqualTo(count.getValue());
+            if (estimate - count.getValue() > sketch.getMaxError()) {
+                overBound++;
+            }
+        }
+        assertThat(overBound).isLessThanOrEqualTo(counts.size() / 100);
+        assertThat(sketch.estimate("absent")).isLessThanOrEqualTo(sketch.getMaxError());
+    }
+
+    @Test
+    public void testHyperLogLogEstimate() {
+        HyperLogLog hll = new HyperLogLog(14);
+        assertThat(hll.estimate()).isEqualTo(0);
+        for (int i = 0; i < 100; i++) {
+            hll.add("id-" + i);
+            hll.add("id-" + i);
+        }
+        assertThat((double) hll.estimate()).isCloseTo(100, within(3.0));
+        for (int i = 100; i < 500_000; i++) {
+            hll.add("id-" + i);
+        }
+        assertThat((double) hll.estimate()).isCloseTo(500_000, within(500_000 * 3 * hll.getStandardError()));
+    }
+
+    @Test
+    public void testOnlyFrequentWordsAreAdmitted() throws IOException {
+        WordSketches sketches = open();
+        Map<String, Long> batch = counts("lemon", 3, "lime", 1, "orange", 7);
+        assertThat(sketches.admit(batch, words -> Collections.emptyMap())).isEqualTo(counts("orange", 7));
+        sketches.record(batch);
+        // lemon crosses the threshold with its estimated count so far, orange is counted exactly from then on
+        batch = counts("lemon", 2, "lime", 1, "orange", 1);
+        assertThat(sketches.admit(batch, words -> Collections.emptyMap())).isEqualTo(counts("lemon", 5, "orange", 1));
+        sketches.record(batch);
+        assertThat(sketches.estimate("lime", 4).getCount()).isEqualTo(6);
+        assertThat(sketches.getDistinctWords().getEstimate()).isEqualTo(3);
+    }
+
+    @Test
+    public void testPersistedWordsAreAlwaysAdmitted() throws IOException {
+        // As if lemon was persisted after the last snapshot the sketches were loaded from, before a crash
+        WordSketches sketches = open();
+        sketches.record(counts("lemon", 3));
+        Map<String, Long> persisted = counts("lemon", 12);
+        assertThat(sketches.admit(counts("lemon", 1, "lime", 1), words -> persisted)).isEqualTo(counts("lemon", 1));
+        // Crossing the threshold again doesn't add the estimate on top of the persisted count
+        assertThat(sketches.admit(counts("lemon", 4), words -> persisted)).isEqualTo(counts("lemon", 4));
+    }
+
+    @Test
+    public void testSnapshotIsLoaded() throws IOException {
+        WordSketches sketches = open();
+        sketches.record(counts("lemon", 3, "lime", 1));
+        sketches.snapshot();
+        WordSketches reopened = open();
+        assertThat(reopened.estimate("lemon", 0).getCount()).isEqualTo(3);
+        assertThat(reopened.getDistinctWords().getEstimate()).isEqualTo(2);
+
+        properties.setRelativeError(0.01);
+        assertThat(open().estimate("lemon", 0).getCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testDisabledAdmitsEverything() throws IOException {
+        properties.setEnabled(false);
+        Map<String, Long> batch = counts("lemon", 1);
+        assertThat(open().admit(batch, words -> Collections.emptyMap())).isSameAs(batch);
+    }
+
+    private WordSketches open() throws IOException {
+        WordSketches sketches = new WordSketches(properties);
+        sketches.load();
+        return sketches;
+    }
+}
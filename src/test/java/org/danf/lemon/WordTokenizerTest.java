@@ -0,0 +1,125 @@
+package org.danf.lemon;
+
+import org.danf.lemon.service.tokenizer.ScannerWordTokenizer;
+import org.danf.lemon.service.tokenizer.Utf8WhitespaceTokenizer;
+import org.danf.lemon.service.tokenizer.WordNormalizer;
+import org.danf.lemon.service.tokenizer.WordTokenizer;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Verifies {@link Utf8WhitespaceTokenizer} produces exactly the same words as the {@link java.util.Scanner} based
+ * tokenization it replaced, with and without normalization.
+ *
+ * @author Dan Feldman
+ */
+public class WordTokenizerTest {
+
+    private static final String[] PIECES = {"lemon", "Lemonade", "the", "a", "é", "naïve", "日本語", "🍋", "x-y",
+            "don't", " ", " ", "", " ", "  ", "\t", "\n", "\r\n", "\u000B", "\f", " \t \n ",
+            "Hello,", "(THE)", "...", "«Ça»", "Cafe\u0301!", "Ünï"};
+
+    private static final WordNormalizer STANDARD = WordNormalizer.builder()
+            .name("standard")
+            .unicodeNfc(true)
+            .stripPunctuation(true)
+            .lowercase(true)
+            .maxLength(8)
+            .stopWord("The")
+            .build();
+
+    private final WordTokenizer reference = new ScannerWordTokenizer();
+
+    @Test
+    public void testSimpleInput() throws IOException {
+        assertThat(tokenize(new Utf8WhitespaceTokenizer(16, 100), "Hello my name is"))
+                .containsExactly("Hello", "my", "name", "is");
+    }
+
+    @Test
+    public void testEdgeCases() throws IOException {
+        assertParity("");
+        assertParity("   ");
+        assertParity("word");
+        assertParity("  leading and trailing  ");
+        assertParity("tabs\tand\nnew\r\nlines\u000Bvertical\fform feed");
+        assertParity("non\u00A0breaking\u2003spaces are not delimiters");
+        assertParity("unicode: ünïcödé 日本語 🍋🍋 lemon");
+    }
+
+    @Test
+    public void testRandomInputWithSmallBuffers() throws IOException {
+        Random random = new Random(42);
+        for (int i = 0; i < 500; i++) {
+            StringBuilder input = new StringBuilder();
+            int pieces = random.nextInt(50);
+            for (int j = 0; j < pieces; j++) {
+                input.append(PIECES[random.nextInt(PIECES.length)]);
+            }
+            assertParity(input.toString());
+        }
+    }
+
+    @Test
+    public void testInternTableLimit() throws IOException {
+        // Words that aren't interned anymore must still be resolved correctly
+        String input = "a b c d a b c d e f e f";
+        assertThat(tokenize(new Utf8WhitespaceTokenizer(3, 2), input))
+                .isEqualTo(tokenize(reference, input));
+    }
+
+    @Test
+    public void testNormalization() throws IOException {
+        String input = "Hello hello, HELLO! (the) don't «Ça» Cafe\u0301 café ... supercalifragilistic -- x-y";
+        List<String> expected = Arrays.asList("hello", "hello", "hello", "don't", "ça", "café", "café", "x-y");
+        assertThat(tokenize(reference, STANDARD, input)).isEqualTo(expected);
+        assertThat(tokenize(new Utf8WhitespaceTokenizer(5, 1000), STANDARD, input)).isEqualTo(expected);
+        assertThat(tokenize(new Utf8WhitespaceTokenizer(5, 1), STANDARD, input)).isEqualTo(expected);
+    }
+
+    @Test
+    public void testRandomInputWithNormalization() throws IOException {
+        Random random = new Random(7);
+        for (int i = 0; i < 500; i++) {
+            StringBuilder input = new StringBuilder();
+            int pieces = random.nextInt(50);
+            for (int j = 0; j < pieces; j++) {
+                input.append(PIECES[random.nextInt(PIECES.length)]);
+            }
+            assertParity(input.toString(), STANDARD);
+        }
+    }
+
+    private void assertParity(String input) throws IOException {
+        assertParity(input, WordNormalizer.NONE);
+    }
+
+    private void assertParity(String input, WordNormalizer normalizer) throws IOException {
+        List<String> expected = tokenize(reference, normalizer, input);
+        for (int bufferSize : new int[]{1, 2, 3, 7, 64, 8192}) {
+            assertThat(tokenize(new Utf8WhitespaceTokenizer(bufferSize, 1000), normalizer, input))
+                    .as("buffer size %d, input '%s'", bufferSize, input)
+                    .isEqualTo(expected);
+        }
+    }
+
+    private static List<String> tokenize(WordTokenizer tokenizer, String input) throws IOException {
+        return tokenize(tokenizer, WordNormalizer.NONE, input);
+    }
+
+    private static List<String> tokenize(WordTokenizer tokenizer, WordNormalizer normalizer, String input)
+            throws IOException {
+        List<String> words = new ArrayList<>();
+        tokenizer.tokenize(new ByteArrayInputStream(input.getBytes(UTF_8)), normalizer, words::add);
+        return words;
+    }
+}
@@ -10,6 +10,8 @@ import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.test.context.junit4.SpringRunner;
 
 import javax.transaction.Transactional;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -17,7 +19,7 @@ import static org.assertj.core.api.Assertions.assertThat;
  * @author Dan Feldman
  */
 @RunWith(SpringRunner.class)
-@DataJpaTest
+@DataJpaTest(properties = "lemon.db.batch-size=2")
 public class WordsRepoTest {
 
     @Autowired
@@ -34,9 +36,22 @@ public class WordsRepoTest {
 
     @Test
     public void testWordEntity() {
-        Optional<WordEntity> actualWord = wordsRepo.findById(word);
+        Optional<WordEntity> actualWord = wordsRepo.findById(WordEntity.Key.of(word));
         assertThat(actualWord.isPresent()).isTrue();
         assertThat(actualWord.get().getWord()).isEqualTo(word);
         assertThat(actualWord.get().getCount()).isEqualTo(0);
     }
+
+    @Test
+    public void testAddToCounts() {
+        Map<String, Long> deltas = new HashMap<>();
+        deltas.put(word, 3L);
+        deltas.put("lime", 1L);
+        deltas.put("orange", 2L);
+        assertThat(wordsRepo.addToCounts(deltas)).isEqualTo(2);
+        assertThat(wordsRepo.addToCounts(deltas)).isEqualTo(0);
+        assertThat(wordsRepo.findById(WordEntity.Key.of(word)).get().getCount()).isEqualTo(6);
+        assertThat(wordsRepo.findById(WordEntity.Key.of("lime")).get().getCount()).isEqualTo(2);
+        assertThat(wordsRepo.findById(WordEntity.Key.of("orange")).get().getCount()).isEqualTo(4);
+    }
 }
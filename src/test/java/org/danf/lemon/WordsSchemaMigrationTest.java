@@ -0,0 +1,67 @@
+package org.danf.lemon;
+
+import org.danf.lemon.db.WordsSchemaMigration;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Verifies a <pre>words</pre> table with an <pre>INTEGER</pre> count column keeps its counts when migrated and can then
+ * hold counts beyond {@link Integer#MAX_VALUE}, and that a table without a namespace column keeps its words in the
+ * default namespace.
+ * The in-memory database outlives each test, so the table is recreated before every one.
+ *
+ * @author Dan Feldman
+ */
+public class WordsSchemaMigrationTest {
+
+    private JdbcTemplate jdbcTemplate;
+    private WordsSchemaMigration migration;
+
+    @Before
+    public void init() {
+        SingleConnectionDataSource dataSource =
+                new SingleConnectionDataSource("jdbc:derby:memory:migrationdb;create=true", true);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        try {
+            jdbcTemplate.execute("DROP TABLE words");
+        } catch (DataAccessException e) {
+            // First test, nothing to drop
+        }
+        jdbcTemplate.execute("CREATE TABLE words (word VARCHAR(255) NOT NULL, count INTEGER NOT NULL, " +
+                "PRIMARY KEY (word))");
+        jdbcTemplate.execute("CREATE INDEX words_count_idx ON words (count)");
+        jdbcTemplate.update("INSERT INTO words (word, count) VALUES ('lemon', ?)", Integer.MAX_VALUE);
+        migration = new WordsSchemaMigration(dataSource);
+    }
+
+    @Test
+    public void testCountColumnIsWidened() {
+        assertThat(migration.migrateCountColumn()).isTrue();
+        assertThat(migration.migrateCountColumn()).isFalse();
+        jdbcTemplate.update("UPDATE words SET count = count + ? WHERE word = 'lemon'", 1L);
+        assertThat(jdbcTemplate.queryForObject("SELECT count FROM words WHERE word = 'lemon'", Long.class))
+                .isEqualTo(Integer.MAX_VALUE + 1L);
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM SYS.SYSCONGLOMERATES " +
+                "WHERE CONGLOMERATENAME = 'WORDS_COUNT_IDX'", Integer.class)).isEqualTo(1);
+    }
+
+    @Test
+    public void testNamespaceColumnIsAdded() {
+        migration.migrateCountColumn();
+        assertThat(migration.migrateNamespaceColumn()).isTrue();
+        assertThat(migration.migrateNamespaceColumn()).isFalse();
+        assertThat(jdbcTemplate.queryForObject("SELECT count FROM words WHERE namespace = '' AND word = 'lemon'",
+                Long.class)).isEqualTo(Integer.MAX_VALUE);
+        jdbcTemplate.update("INSERT INTO words (namespace, word, count) VALUES ('tenant', 'lemon', 1)");
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM words WHERE word = 'lemon'", Integer.class))
+                .isEqualTo(2);
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM SYS.SYSCONGLOMERATES " +
+                "WHERE CONGLOMERATENAME IN ('WORDS_COUNT_IDX', 'WORDS_NAMESPACE_COUNT_IDX')", Integer.class))
+                .isEqualTo(1);
+    }
+}
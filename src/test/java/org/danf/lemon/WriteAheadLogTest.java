@@ -0,0 +1,128 @@
+package org.danf.lemon;
+
+import org.danf.lemon.config.WalProperties;
+import org.danf.lemon.db.storage.LogWordCountStorage;
+import org.danf.lemon.db.storage.WordKeys;
+import org.danf.lemon.service.wal.WriteAheadLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.danf.lemon.TestUtils.appendTornRecord;
+import static org.danf.lemon.TestUtils.counts;
+
+/**
+ * Verifies counts appended to the {@link WriteAheadLog} are replayed after a restart unless they were checkpointed,
+ * and that a torn record at the end of the log is dropped.
+ *
+ * @author Dan Feldman
+ */
+public class WriteAheadLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private WalProperties properties;
+    private LogWordCountStorage storage;
+    private WriteAheadLog wal;
+
+    @Before
+    public void init() throws IOException {
+        storage = LogWordCountStorage.open(folder.newFolder("storage").toPath(), Long.MAX_VALUE, false);
+        properties = new WalProperties();
+        properties.setEnabled(true);
+        properties.setDirectory(folder.newFolder("wal").getAbsolutePath());
+        properties.setFsyncIntervalMs(0);
+        wal = reopen();
+    }
+
+    @After
+    public void close() throws IOException {
+        wal.close();
+        storage.close();
+    }
+
+    @Test
+    public void testUnflushedCountsAreReplayed() throws IOException {
+        wal.append(counts("lemon", 2, "lime", 1));
+        wal.append(counts("lemon", 3));
+        wal.appendReset("lime");
+        wal.append(counts(WordKeys.key("tenant", "lemon"), 1, WordKeys.key("tenant2", "lemon"), 2));
+        wal.appendResetNamespace("tenant");
+        wal.append(counts("orange", 4));
+        wal = reopen();
+        assertThat(wal.takeRecovered())
+                .isEqualTo(counts("lemon", 5, "orange", 4, WordKeys.key("tenant2", "lemon"), 2));
+        assertThat(wal.takeRecovered()).isEmpty();
+    }
+
+    @Test
+    public void testCheckpointedCountsAreNotReplayed() throws IOException {
+        wal.append(counts("lemon", 2));
+        long lsn = wal.roll();
+        wal.append(counts("lime", 1));
+        storage.addToCounts(Collections.emptyMap(), lsn);
+        wal.deleteSegmentsUpTo(lsn);
+        assertThat(walDirectory().list()).hasSize(1);
+        wal = reopen();
+        assertThat(wal.takeRecovered()).isEqualTo(counts("lime", 1));
+        assertThat(wal.append(counts("orange", 1))).isGreaterThan(lsn + 1);
+    }
+
+    @Test
+    public void testTornRecordIsTruncated() throws IOException {
+        wal.append(counts("lemon", 2));
+        wal.append(counts("lime", 3));
+        wal.close();
+        File segment = walDirectory().listFiles()[0];
+        long validLength = appendTornRecord(segment.toPath());
+        wal = reopen();
+        assertThat(wal.takeRecovered()).isEqualTo(counts("lemon", 2, "lime", 3));
+        assertThat(segment.length()).isEqualTo(validLength);
+        wal.append(counts("lemon", 1));
+        wal = reopen();
+        assertThat(wal.takeRecovered()).isEqualTo(counts("lemon", 3, "lime", 3));
+    }
+
+    @Test
+    public void testTornFirstRecordOfSegmentIsDropped() throws IOException {
+        wal.append(counts("lemon", 2));
+        wal.roll();
+        wal.append(counts("lime", 3));
+        wal.close();
+        File[] segments = walDirectory().listFiles();
+        Arrays.sort(segments);
+        File last = segments[segments.length - 1];
+        try (FileChannel channel = FileChannel.open(last.toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(10);
+        }
+        wal = reopen();
+        assertThat(wal.takeRecovered()).isEqualTo(counts("lemon", 2));
+        wal.append(counts("lemon", 1));
+        wal = reopen();
+        assertThat(wal.takeRecovered()).isEqualTo(counts("lemon", 3));
+    }
+
+    private WriteAheadLog reopen() throws IOException {
+        if (wal != null) {
+            wal.close();
+        }
+        WriteAheadLog reopened = new WriteAheadLog(properties, storage);
+        reopened.open();
+        return reopened;
+    }
+
+    private File walDirectory() {
+        return new File(properties.getDirectory());
+    }
+}
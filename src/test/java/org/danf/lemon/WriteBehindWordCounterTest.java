@@ -0,0 +1,104 @@
+package org.danf.lemon;
+
+import org.danf.lemon.db.entity.WordEntity;
+import org.danf.lemon.db.repo.WordsRepo;
+import org.danf.lemon.service.StatisticsService;
+import org.danf.lemon.service.WordCountListener;
+import org.danf.lemon.service.WriteBehindWordCounter;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Verifies pending counts are visible before they're flushed and end up in the <pre>words</pre> table after, once
+ * even if publishing the flush fails.
+ *
+ * @author Dan Feldman
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "lemon.counter.durability=shutdown")
+public class WriteBehindWordCounterTest {
+
+    private static volatile boolean failListener;
+
+    @Autowired
+    private WriteBehindWordCounter wordCounter;
+
+    @Autowired
+    private StatisticsService statisticsService;
+
+    @Autowired
+    private WordsRepo wordsRepo;
+
+    @Test
+    public void testPendingCountsAreFlushed() {
+        String word = "lime";
+        wordCounter.add(word);
+        wordCounter.add(word, 2);
+        assertThat(wordsRepo.existsById(WordEntity.Key.of(word))).isFalse();
+        assertThat(wordCounter.getPendingCount(word)).isEqualTo(3);
+        assertThat(statisticsService.getWordCount(word)).isEqualTo(3);
+
+        wordCounter.flush();
+        assertThat(wordCounter.getPendingCount(word)).isEqualTo(0);
+        assertThat(wordsRepo.findById(WordEntity.Key.of(word)).get().getCount()).isEqualTo(3);
+
+        wordCounter.add(word);
+        wordCounter.flush();
+        assertThat(statisticsService.getWordCount(word)).isEqualTo(4);
+    }
+
+    @Test
+    public void testResetDropsPendingAndPersistedCounts() {
+        String word = "orange";
+        wordCounter.add(word);
+        wordCounter.flush();
+        wordCounter.add(word);
+        statisticsService.clearWordStatistic(word);
+        assertThat(wordsRepo.existsById(WordEntity.Key.of(word))).isFalse();
+        assertThat(statisticsService.getWordCount(word)).isEqualTo(0);
+    }
+
+    @Test
+    public void testFailedListenerDoesNotRetryCommittedFlush() {
+        String word = "kumquat";
+        wordCounter.add(word, 2);
+        failListener = true;
+        try {
+            wordCounter.flush();
+        } finally {
+            failListener = false;
+        }
+        assertThat(wordCounter.getPendingCount(word)).isEqualTo(0);
+        wordCounter.flush();
+        assertThat(wordsRepo.findById(WordEntity.Key.of(word)).get().getCount()).isEqualTo(2);
+    }
+
+    @TestConfiguration
+    static class FailingListenerConfig {
+
+        @Bean
+        WordCountListener failingListener() {
+            return new WordCountListener() {
+                @Override
+                public void onFlushed(Map<String, Long> deltas) {
+                    if (failListener) {
+                        throw new IllegalStateException("Listener failed on purpose");
+                    }
+                }
+
+                @Override
+                public void onReset(String word) {
+                }
+            };
+        }
+    }
+}